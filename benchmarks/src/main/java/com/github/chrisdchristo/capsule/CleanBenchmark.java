@@ -0,0 +1,53 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Dependency;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dropping the duplicates of wide dependency sets, as when the app and plugin dependencies are merged (half of the
+ * plugin dependencies are also app dependencies).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CleanBenchmark {
+
+	@Param({ "100", "1000", "10000" })
+	public int width;
+
+	private Set<Artifact> appArtifacts;
+	private Set<Artifact> pluginArtifacts;
+	private Set<Dependency> appDependencies;
+	private Set<Dependency> pluginDependencies;
+
+	@Setup
+	public void setUp() {
+		appArtifacts = Inputs.artifacts(width, 0);
+		pluginArtifacts = Inputs.artifacts(width, width / 2);
+		appDependencies = Inputs.dependencies(width, 0);
+		pluginDependencies = Inputs.dependencies(width, width / 2);
+	}
+
+	@Benchmark
+	public Set<Artifact> cleanArtifacts() {
+		return Mojo.cleanArtifacts(appArtifacts, true, pluginArtifacts, true);
+	}
+
+	@Benchmark
+	public Set<Dependency> cleanDependencies() {
+		return Mojo.cleanDependencies(appDependencies, true, pluginDependencies, true);
+	}
+
+	@Benchmark
+	public Set<Artifact> cleanArtifactsSingle() {
+		return Mojo.cleanArtifacts(pluginArtifacts);
+	}
+
+}
@@ -0,0 +1,60 @@
+package com.github.chrisdchristo.capsule;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Matching the entries of a large jar against the includes and excludes of a dependency set (and the paths of a
+ * file set).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GlobBenchmark {
+
+	@Param({ "10000" })
+	public int entries;
+
+	private List<String> paths;
+	private Glob metaInf;
+	private Glob classes;
+
+	@Setup
+	public void setUp() {
+		paths = Inputs.entryPaths(entries);
+		metaInf = Glob.compile(new String[] { "META-INF/*" }, new String[] { "META-INF/*.SF" }, true);
+		classes = Glob.compile(new String[] { "**/internal/**/*.class", "org/example/module1/**" }, new String[] { "**/Type1*.class" });
+	}
+
+	@Benchmark
+	public Glob compile() {
+		return Glob.compile(new String[] { "**/internal/**/*.class", "org/example/module1/**", "META-INF/*" }, new String[] { "**/Type1*.class" });
+	}
+
+	@Benchmark
+	public void matchMetaInf(final Blackhole blackhole) {
+		for (final String path : paths)
+			blackhole.consume(metaInf.matches(path));
+	}
+
+	// as the dependency sets do, skipping the paths without the literal prefix before matching
+	@Benchmark
+	public void matchMetaInfPrefixed(final Blackhole blackhole) {
+		final String prefix = metaInf.prefix();
+		for (final String path : paths)
+			blackhole.consume(path.startsWith(prefix) && metaInf.matches(path));
+	}
+
+	@Benchmark
+	public void matchClasses(final Blackhole blackhole) {
+		for (final String path : paths)
+			blackhole.consume(classes.matches(path));
+	}
+
+}
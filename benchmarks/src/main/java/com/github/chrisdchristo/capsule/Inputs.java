@@ -0,0 +1,160 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.ArtifactHandler;
+import org.apache.maven.model.Dependency;
+
+import java.io.*;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Synthetic inputs of the benchmarks: small class-like files, large nested jars and wide dependency sets. Everything
+ * is generated from a fixed seed, so runs are comparable.
+ */
+final class Inputs {
+
+	private static final String[] WORDS = {
+			"java/lang/Object", "java/lang/String", "<init>", "()V", "Code", "LineNumberTable", "LocalVariableTable",
+			"this", "SourceFile", "java/util/List", "get", "(I)Ljava/lang/Object;", "size", "()I", "StackMapTable"
+	};
+
+	private static final ArtifactHandler JAR = new ArtifactHandler() {
+		public String getExtension() { return "jar"; }
+		public String getDirectory() { return null; }
+		public String getClassifier() { return null; }
+		public String getPackaging() { return "jar"; }
+		public boolean isIncludesDependencies() { return false; }
+		public String getLanguage() { return "java"; }
+		public boolean isAddedToClasspath() { return true; }
+	};
+
+	private Inputs() {}
+
+	static File tempDir(final String name) throws IOException {
+		return Files.createTempDirectory("capsule-bench-" + name).toFile();
+	}
+
+	/**
+	 * Files of a few KB that compress like class files do (a constant pool of repeated names, plus some noise).
+	 */
+	static List<File> smallFiles(final File dir, final int count, final int size) throws IOException {
+		final Random random = new Random(42);
+		final List<File> files = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final File file = new File(dir, "com/example/pkg" + (i % 50) + "/Class" + i + ".class");
+			file.getParentFile().mkdirs();
+			Files.write(file.toPath(), classLike(random, size));
+			files.add(file);
+		}
+		return files;
+	}
+
+	/**
+	 * Jars of roughly the given size, made of class-like entries (deflated) and some incompressible resources.
+	 */
+	static List<File> largeJars(final File dir, final int count, final int size) throws IOException {
+		final Random random = new Random(7);
+		final List<File> jars = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			final File jar = new File(dir, "lib-" + i + ".jar");
+			try (final JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jar)))) {
+				int written = 0;
+				for (int e = 0; written < size; e++) {
+					final byte[] data = e % 10 == 9 ? noise(random, 16 * 1024) : classLike(random, 4 * 1024);
+					out.putNextEntry(new JarEntry((e % 10 == 9 ? "META-INF/resources/blob" : "org/lib" + i + "/pkg" + (e % 20) + "/C") + e + (e % 10 == 9 ? ".bin" : ".class")));
+					out.write(data);
+					out.closeEntry();
+					written += data.length / 2;
+				}
+			}
+			jars.add(jar);
+		}
+		return jars;
+	}
+
+	/**
+	 * Artifacts with the given number of distinct coords, a share of them repeated (as when the app and the plugin
+	 * dependencies overlap).
+	 */
+	static Set<Artifact> artifacts(final int count, final int offset) {
+		final Set<Artifact> artifacts = new LinkedHashSet<>();
+		for (int i = offset; i < offset + count; i++)
+			artifacts.add(new DefaultArtifact("org.example.group" + (i % 37), "artifact-" + i, "1." + (i % 10) + ".0", "compile", "jar", i % 5 == 0 ? "tests" : null, JAR));
+		return artifacts;
+	}
+
+	static Set<Dependency> dependencies(final int count, final int offset) {
+		final Set<Dependency> dependencies = new LinkedHashSet<>();
+		for (int i = offset; i < offset + count; i++) {
+			final Dependency dependency = new Dependency();
+			dependency.setGroupId("org.example.group" + (i % 37));
+			dependency.setArtifactId("artifact-" + i);
+			dependency.setVersion("1." + (i % 10) + ".0");
+			dependency.setScope("compile");
+			if (i % 5 == 0) dependency.setClassifier("tests");
+			dependencies.add(dependency);
+		}
+		return dependencies;
+	}
+
+	/**
+	 * Entry paths like those of a large dependency jar (classes in nested packages, plus META-INF resources).
+	 */
+	static List<String> entryPaths(final int count) {
+		final List<String> paths = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			if (i % 20 == 0) paths.add("META-INF/maven/org.example/artifact-" + i + "/pom.properties");
+			else if (i % 20 == 1) paths.add("META-INF/services/org.example.Service" + i);
+			else paths.add("org/example/module" + (i % 13) + "/internal/pkg" + (i % 7) + "/Type" + i + ".class");
+		}
+		return paths;
+	}
+
+	static void delete(final File dir) throws IOException {
+		if (dir == null || !dir.exists()) return;
+		Files.walkFileTree(dir.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static byte[] classLike(final Random random, final int size) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(size + 64);
+		out.write(0xCA);
+		out.write(0xFE);
+		out.write(0xBA);
+		out.write(0xBE);
+		while (out.size() < size) {
+			if (random.nextInt(4) == 0) out.write(random.nextInt(256));
+			else {
+				final byte[] word = WORDS[random.nextInt(WORDS.length)].getBytes();
+				out.write(word, 0, word.length);
+			}
+		}
+		return Arrays.copyOf(out.toByteArray(), size);
+	}
+
+	private static byte[] noise(final Random random, final int size) {
+		final byte[] data = new byte[size];
+		random.nextBytes(data);
+		return data;
+	}
+
+}
@@ -0,0 +1,67 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.model.Dependency;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Generating the manifest of a capsule with wide Embedded-Artifacts and Dependencies attributes (the bulk of the
+ * manifest of a large app), and adding it to the jar, with the code CapsuleMojo.addManifest builds them with.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManifestBenchmark {
+
+	@Param({ "10", "100", "1000" })
+	public int width;
+
+	private final CapsuleMojo mojo = new CapsuleMojo();
+	private final Set<String> scopes = CapsuleMojo.scopes(true, true, false, false, false);
+	private Set<Dependency> embedded;
+	private Set<Dependency> resolved;
+
+	@Setup
+	public void setUp() {
+		embedded = Inputs.dependencies(width, 0);
+		resolved = Inputs.dependencies(width, width);
+	}
+
+	@Benchmark
+	public byte[] manifest() throws IOException {
+		final Manifest manifest = CapsuleMojo.manifest("org.example.Main", "app-1.0-capsule", "includeApp includeAppDep",
+				CapsuleMojo.coordsList(embedded, scopes, false, Collections.<String>emptySet()),
+				CapsuleMojo.coordsList(resolved, scopes, false, Collections.<String>emptySet()));
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		manifest.write(bytes);
+		return bytes.toByteArray();
+	}
+
+	@Benchmark
+	public void manifestToJar() throws IOException {
+		try (final JarWriter jar = new JarWriter(new Discard(), new Compression(), 1)) {
+			mojo.addToJar(JarFile.MANIFEST_NAME, new ByteArrayInputStream(manifest()), jar);
+		}
+	}
+
+	private static final class Discard extends OutputStream {
+		@Override
+		public void write(final int b) {}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) {}
+	}
+
+}
@@ -0,0 +1,109 @@
+package com.github.chrisdchristo.capsule;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing a capsule: many small class files (the app classes and caplets), large nested jars (the dependencies), the
+ * entries of jars copied as-is (the dependency sets) and the exec variants written in the same pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PackagingBenchmark {
+
+	@Param({ "2000" })
+	public int smallFiles;
+	@Param({ "8" })
+	public int largeJars;
+	@Param({ "8388608" })
+	public int largeJarSize;
+	@Param({ "1", "4" })
+	public int threads;
+	@Param({ "0", "16" })
+	public int writeQueueDepth;
+
+	private final CapsuleMojo mojo = new CapsuleMojo();
+	private final Compression compression = new Compression();
+	private File dir;
+	private List<File> files;
+	private List<File> jars;
+	private File out;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dir = Inputs.tempDir("packaging");
+		files = Inputs.smallFiles(new File(dir, "classes"), smallFiles, 4 * 1024);
+		jars = Inputs.largeJars(dir, largeJars, largeJarSize);
+		out = new File(dir, "capsule.jar");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Inputs.delete(dir);
+	}
+
+	@Benchmark
+	public long addSmallFiles() throws IOException {
+		try (final JarWriter jar = writer(out)) {
+			for (final File file : files)
+				mojo.addToJar(file.getPath().substring(dir.getPath().length() + 9), file, jar);
+		}
+		return out.length();
+	}
+
+	@Benchmark
+	public long addLargeJars() throws IOException {
+		try (final JarWriter jar = writer(out)) {
+			for (final File file : jars)
+				mojo.addToJar(file.getName(), file, jar);
+		}
+		return out.length();
+	}
+
+	@Benchmark
+	public long copyJarEntries() throws IOException {
+		try (final JarWriter jar = writer(out)) {
+			for (final File file : jars) {
+				try (final JarReader reader = new JarReader(file)) {
+					for (final JarReader.Entry entry : reader.entries())
+						mojo.addToJar(entry.getName(), reader, entry, jar);
+				}
+			}
+		}
+		return out.length();
+	}
+
+	// the jar plus the chmod and trampoline variants (formerly copies of the finished jar)
+	@Benchmark
+	public long execVariants() throws IOException {
+		final File x = new File(dir, "capsule.x");
+		final File tx = new File(dir, "capsule.tx");
+		try (final JarWriter jar = new JarWriter(stream(out), compression, threads)) {
+			jar.addVariant(stream(x), "#!/bin/sh\n\nexec java -jar \"$0\" \"$@\"\n\n".getBytes("ASCII"));
+			jar.addVariant(stream(tx), "#!/bin/sh\n\nexec java -Dcapsule.trampoline=true -jar \"$0\" \"$@\"\n\n".getBytes("ASCII"));
+			if (writeQueueDepth > 0) jar.writeBehind(256 * 1024, writeQueueDepth);
+			for (final File file : jars)
+				mojo.addToJar(file.getName(), file, jar);
+		}
+		return out.length() + x.length() + tx.length();
+	}
+
+	private JarWriter writer(final File file) throws IOException {
+		final JarWriter jar = new JarWriter(stream(file), compression, threads);
+		if (writeQueueDepth > 0) jar.writeBehind(256 * 1024, writeQueueDepth);
+		return jar;
+	}
+
+	private OutputStream stream(final File file) throws IOException {
+		final FileOutputStream stream = new FileOutputStream(file);
+		return writeQueueDepth > 0 ? stream : new BufferedOutputStream(stream, 64 * 1024);
+	}
+
+}
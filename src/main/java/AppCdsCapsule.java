@@ -0,0 +1,158 @@
+import java.io.*;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Caplet (embedded by the capsule maven plugin when a training run recorded the classes the app loads) that launches
+ * the app with a class data sharing archive of those classes, so they are mapped in already parsed and verified.
+ * <p>
+ * An archive only works with the exact JVM and classpath it was dumped with, so the plugin embeds the class list and
+ * the archive is dumped on the node: the first launch with a given JVM, JVM options and app starts dumping it in the
+ * background (in a process of its own) and later launches use it. The archive is keyed by all of those, and the JVM
+ * checks it again when it maps it, ignoring it if anything changed, so a launch never waits on an archive or fails
+ * because of one. Needs java 11 or later.
+ */
+public class AppCdsCapsule extends Capsule {
+
+	private static final String CLASS_LIST = "META-INF/capsule/app.classlist";
+
+	protected static final Map.Entry<String, Boolean> ATTR_APP_CDS = ATTRIBUTE("App-CDS", T_BOOL(), false, true,
+			"Whether to launch the app with a class data sharing archive of the classes loaded by its training run");
+
+	public AppCdsCapsule(final Capsule pred) {
+		super(pred);
+	}
+
+	public AppCdsCapsule(final Path jarFile) {
+		super(jarFile);
+	}
+
+	@Override
+	protected ProcessBuilder prelaunch(final List<String> jvmArgs, final List<String> args) {
+		final ProcessBuilder pb = super.prelaunch(jvmArgs, args);
+		try {
+			if (attribute(ATTR_APP_CDS)) share(pb.command());
+		} catch (final IOException | RuntimeException e) {
+			log(LOG_VERBOSE, "Class data sharing archive not used (" + e + ")");
+		}
+		return pb;
+	}
+
+	private void share(final List<String> command) throws IOException {
+		final Path appDir = getAppDir();
+		final int classPath = command.indexOf("-classpath");
+		if (appDir == null || classPath < 0 || classPath + 1 >= command.size()) return;
+
+		final Path java = Paths.get(command.get(0)).toRealPath();
+		final Properties release = release(java);
+		if (majorVersion(release.getProperty("JAVA_VERSION", "")) < 11) {
+			log(LOG_VERBOSE, "Class data sharing archive not used (needs java 11 or later, " + java + ")");
+			return;
+		}
+
+		// the options the archive depends on (heap size, gc, ...) are passed on to the dump as well
+		final List<String> options = new ArrayList<>();
+		for (final String arg : command.subList(1, classPath))
+			if ((arg.startsWith("-XX:") || arg.startsWith("-Xm")) && !arg.contains("Shared") && !arg.startsWith("-XX:DumpLoadedClassList"))
+				options.add(arg);
+
+		final Path capsule = getJarFile();
+		final String key = digest(java + "\n" + release.getProperty("JAVA_RUNTIME_VERSION") + "\n" + release.getProperty("IMPLEMENTOR")
+				+ "\n" + release.getProperty("OS_ARCH") + "\n" + options + "\n" + command.get(classPath + 1)
+				+ "\n" + Files.size(capsule) + " " + Files.getLastModifiedTime(capsule).toMillis());
+		final Path dir = appDir.toAbsolutePath().normalize();
+		final Path archive = dir.resolve("cds-" + key + ".jsa");
+
+		if (Files.exists(archive)) {
+			command.add(classPath, "-XX:SharedArchiveFile=" + archive);
+			log(LOG_VERBOSE, "Class data sharing archive: " + archive);
+			return;
+		}
+
+		// a single dump per archive, even with concurrent launches (a failed one isn't retried until the app cache is cleared)
+		final Path lock = dir.resolve("cds-" + key + ".lock");
+		try {
+			Files.createFile(lock);
+		} catch (final FileAlreadyExistsException e) {
+			return;
+		}
+		final Path classList = dir.resolve("cds-" + key + ".classlist");
+		try (final InputStream in = getEntryInputStream(capsule, CLASS_LIST)) {
+			if (in == null) return;
+			Files.copy(in, classList, StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		final List<String> dump = new ArrayList<>();
+		dump.add(java.toString());
+		dump.add("-Xshare:dump");
+		dump.add("-XX:SharedClassListFile=" + classList);
+		dump.add("-XX:SharedArchiveFile=" + dir.resolve("cds-" + key + ".jsa.tmp"));
+		dump.addAll(options);
+		dump.add("-classpath");
+		dump.add(command.get(classPath + 1));
+
+		final List<String> dumper = new ArrayList<>(Arrays.asList(java.toString(), "-Xmx64m", "-classpath", capsule.toString(), Dump.class.getName(), archive.toString()));
+		dumper.addAll(dump);
+		final ProcessBuilder pb = new ProcessBuilder(dumper).redirectErrorStream(true);
+		pb.redirectOutput(ProcessBuilder.Redirect.appendTo(dir.resolve("cds-" + key + ".log").toFile()));
+		pb.start().getOutputStream().close(); // not waited for, it outlives the capsule if need be
+		log(LOG_VERBOSE, "Dumping class data sharing archive in the background: " + archive);
+	}
+
+	// the release file of the java home of the executable
+	private static Properties release(final Path java) throws IOException {
+		final Properties release = new Properties();
+		final Path file = java.getParent().getParent().resolve("release");
+		try (final InputStream in = Files.newInputStream(file)) {
+			release.load(in);
+		}
+		for (final String name : release.stringPropertyNames())
+			release.setProperty(name, release.getProperty(name).replace("\"", ""));
+		return release;
+	}
+
+	private static int majorVersion(final String version) {
+		final String[] parts = version.split("[.+_-]");
+		try {
+			return Integer.parseInt(parts[0].equals("1") && parts.length > 1 ? parts[1] : parts[0]);
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String digest(final String key) throws IOException {
+		try {
+			final byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			final StringBuilder hex = new StringBuilder();
+			for (int i = 0; i < 8; i++)
+				hex.append(String.format("%02x", hash[i]));
+			return hex.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Dumps the archive (the command after the archive's path) to a temporary file and then moves it into place, so a
+	 * launch never sees a partial archive. Runs in a JVM of its own (and doesn't load Capsule).
+	 */
+	public static final class Dump {
+		public static void main(final String[] args) throws Exception {
+			final Path archive = Paths.get(args[0]);
+			final Path temp = Paths.get(args[0] + ".tmp");
+			final Process process = new ProcessBuilder(Arrays.asList(args).subList(1, args.length)).inheritIO().start();
+			final int exit = process.waitFor();
+			if (exit == 0 && Files.exists(temp)) {
+				Files.move(temp, archive, StandardCopyOption.ATOMIC_MOVE);
+				Files.deleteIfExists(Paths.get(args[0].replaceFirst("\\.jsa$", ".classlist")));
+				Files.deleteIfExists(Paths.get(args[0].replaceFirst("\\.jsa$", ".lock")));
+			} else {
+				Files.deleteIfExists(temp);
+				System.err.println("Class data sharing archive dump failed (" + exit + ")");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Caplet (embedded by the capsule maven plugin with classPathIndex set) that puts an index of the packages of the
+ * embedded jars first on the classpath of the app, so the class loader goes straight to the jar holding a package
+ * instead of probing each jar of the classpath in turn.
+ * <p>
+ * The index is the JDK's jar index (META-INF/INDEX.LIST), in a jar of its own written to the app cache. Its jars are
+ * listed in the order of the classpath, so a class is loaded from the same jar as without it. Packages not in the
+ * index (and anything else going wrong) fall back to the usual classpath search. The JDK dropped jar indexes in Java 22,
+ * so the index is left out when the app runs on 22 or later.
+ */
+public class ClassPathIndexCapsule extends Capsule {
+
+	private static final String INDEX = "META-INF/capsule/INDEX.LIST";
+	private static final String JAR_INDEX = "META-INF/INDEX.LIST";
+	private static final String ENABLE_JAR_INDEX = "-Djdk.net.URLClassPath.enableJarIndex=true"; // off by default since java 18
+	private static final int NO_JAR_INDEX_VERSION = 22; // jar indexes removed
+
+	public ClassPathIndexCapsule(final Capsule pred) {
+		super(pred);
+	}
+
+	public ClassPathIndexCapsule(final Path jarFile) {
+		super(jarFile);
+	}
+
+	@Override
+	protected ProcessBuilder prelaunch(final List<String> jvmArgs, final List<String> args) {
+		final ProcessBuilder pb = super.prelaunch(jvmArgs, args);
+		try {
+			index(pb.command());
+		} catch (final IOException | RuntimeException e) {
+			log(LOG_VERBOSE, "Class path index not used (" + e + ")");
+		}
+		return pb;
+	}
+
+	private void index(final List<String> command) throws IOException {
+		final Path appDir = getAppDir();
+		final int classPath = command.indexOf("-classpath");
+		if (appDir == null || classPath < 0 || classPath + 1 >= command.size()) return;
+		final int javaVersion = javaVersion(Paths.get(command.get(0)));
+		if (javaVersion >= NO_JAR_INDEX_VERSION) {
+			log(LOG_VERBOSE, "Class path index not used (jar indexes are not supported by java " + javaVersion + ")");
+			return;
+		}
+		final Map<String, List<String>> packages = readIndex(getJarFile());
+		if (packages.isEmpty()) return;
+
+		// the sections of the jars in the app cache, in classpath order
+		final Path dir = appDir.toAbsolutePath().normalize();
+		final Path capsule = getJarFile().toAbsolutePath().normalize();
+		final StringBuilder index = new StringBuilder("JarIndex-Version: 1.0\n\n");
+		int jars = 0;
+		for (final String element : command.get(classPath + 1).split(File.pathSeparator)) {
+			final Path jar = Paths.get(element).toAbsolutePath().normalize();
+			if (jar.equals(capsule)) continue; // its own packages were left out of the index
+			final String name = jar.getFileName().toString();
+			final List<String> jarPackages = dir.equals(jar.getParent()) ? packages.get(name) : null;
+			// past a jar the index doesn't know, it could change which jar a class is loaded from
+			if (jarPackages == null || !name.endsWith(".jar")) break;
+			index.append(jar.getFileName()).append('\n');
+			for (final String jarPackage : jarPackages)
+				index.append(jarPackage).append('\n');
+			index.append('\n');
+			jars++;
+		}
+		if (jars < 2) return; // nothing to skip
+
+		// not a .jar, so it isn't picked up along with the embedded jars
+		final byte[] content = index.toString().getBytes("UTF-8");
+		final Path indexJar = dir.resolve("capsule-index-" + Integer.toHexString(Arrays.hashCode(content)) + ".idx");
+		if (!Files.exists(indexJar)) write(indexJar, content);
+
+		command.set(classPath + 1, indexJar + File.pathSeparator + command.get(classPath + 1));
+		command.add(classPath, ENABLE_JAR_INDEX);
+		log(LOG_VERBOSE, "Class path index of " + jars + " jars: " + indexJar);
+	}
+
+	// the major version of the java executable (from the release file of its java home), or of this jvm if unknown
+	private static int javaVersion(final Path java) {
+		String version = null;
+		try {
+			final Properties release = new Properties();
+			try (final InputStream in = Files.newInputStream(java.toRealPath().getParent().getParent().resolve("release"))) {
+				release.load(in);
+			}
+			version = release.getProperty("JAVA_VERSION");
+		} catch (final IOException | RuntimeException ignore) {}
+		if (version == null) version = System.getProperty("java.version");
+		final String[] parts = version.replace("\"", "").split("[.+_-]");
+		try {
+			return Integer.parseInt(parts[0].equals("1") && parts.length > 1 ? parts[1] : parts[0]);
+		} catch (final NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	// jar name -> packages, as written by the plugin (the sections of a jar index)
+	private static Map<String, List<String>> readIndex(final Path capsule) throws IOException {
+		final Map<String, List<String>> packages = new HashMap<>();
+		try (final JarFile jar = new JarFile(capsule.toFile())) {
+			final JarEntry entry = jar.getJarEntry(INDEX);
+			if (entry == null) return packages;
+			try (final BufferedReader reader = new BufferedReader(new InputStreamReader(jar.getInputStream(entry), "UTF-8"))) {
+				reader.readLine(); // version
+				List<String> section = null;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isEmpty()) section = null;
+					else if (section == null) {
+						section = new ArrayList<>();
+						packages.put(line, section);
+					} else section.add(line);
+				}
+			}
+		}
+		return packages;
+	}
+
+	// written to a temporary file and then moved into place, as concurrent launches may share the app cache
+	private static void write(final Path indexJar, final byte[] content) throws IOException {
+		final Path temp = Files.createTempFile(indexJar.getParent(), "capsule-index-", ".tmp");
+		try {
+			try (final JarOutputStream out = new JarOutputStream(Files.newOutputStream(temp))) {
+				out.putNextEntry(new JarEntry(JAR_INDEX));
+				out.write(content);
+				out.closeEntry();
+			}
+			Files.move(temp, indexJar, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+}
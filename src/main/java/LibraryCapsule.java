@@ -0,0 +1,188 @@
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Caplet (embedded by the capsule maven plugin with a library set) that puts the jars the capsule references in a
+ * library capsule on the classpath of the app, in their place among the embedded jars.
+ * <p>
+ * The library capsule is referenced by the digest of its content. It is looked for in capsule.library.dir, next to
+ * the capsule and in the libs dir of the capsule cache, and extracted (once, and checked against the digest) to
+ * libs/(digest) in the capsule cache, shared by all the capsules referencing it. A library already extracted there is
+ * used as is, so a node can be provisioned with the extracted library rather than the library capsule.
+ */
+public class LibraryCapsule extends Capsule {
+
+	private static final String LIBRARY_DIR_PROPERTY = "capsule.library.dir";
+
+	protected static final Map.Entry<String, String> ATTR_LIBRARY_CAPSULE = ATTRIBUTE("Library-Capsule", T_STRING(), null, false,
+			"The file name of the library capsule holding the jars the capsule references");
+	protected static final Map.Entry<String, String> ATTR_LIBRARY_DIGEST = ATTRIBUTE("Library-Digest", T_STRING(), null, false,
+			"The digest of the content of the library capsule");
+	protected static final Map.Entry<String, List<String>> ATTR_LIBRARY_CLASS_PATH = ATTRIBUTE("Library-Class-Path", T_LIST(T_STRING()), null, false,
+			"The embedded jars (by file name) and the library jars (by entry name) in the order of the classpath");
+
+	public LibraryCapsule(final Capsule pred) {
+		super(pred);
+	}
+
+	public LibraryCapsule(final Path jarFile) {
+		super(jarFile);
+	}
+
+	@Override
+	protected ProcessBuilder prelaunch(final List<String> jvmArgs, final List<String> args) {
+		final ProcessBuilder pb = super.prelaunch(jvmArgs, args);
+		try {
+			link(pb.command());
+		} catch (final IOException e) {
+			throw new RuntimeException("Library capsule " + attribute(ATTR_LIBRARY_CAPSULE) + " could not be used: " + e.getMessage(), e);
+		}
+		return pb;
+	}
+
+	private void link(final List<String> command) throws IOException {
+		final List<String> jars = attribute(ATTR_LIBRARY_CLASS_PATH);
+		final int classPath = command.indexOf("-classpath");
+		if (jars == null || jars.isEmpty() || classPath < 0 || classPath + 1 >= command.size()) return;
+		final Path appDir = getAppDir() != null ? getAppDir().toAbsolutePath().normalize() : null;
+		final Path libraryDir = library();
+
+		// library jars have a directory in their name (their group), embedded jars are in the app cache
+		final List<String> linked = new ArrayList<>();
+		final Set<Path> embedded = new HashSet<>();
+		for (final String jar : jars) {
+			if (jar.contains("/")) {
+				final Path libraryJar = libraryDir.resolve(jar);
+				if (!Files.isRegularFile(libraryJar)) throw new IOException(jar + " not found in " + libraryDir);
+				linked.add(libraryJar.toString());
+			} else if (appDir != null) {
+				embedded.add(appDir.resolve(jar));
+				linked.add(appDir.resolve(jar).toString());
+			}
+		}
+
+		// the jars in classpath order, where the first of the embedded ones was
+		final List<String> elements = new ArrayList<>();
+		boolean added = false;
+		for (final String element : command.get(classPath + 1).split(File.pathSeparator)) {
+			if (!embedded.contains(Paths.get(element).toAbsolutePath().normalize())) elements.add(element);
+			else if (!added) added = elements.addAll(linked);
+		}
+		if (!added) elements.addAll(linked);
+
+		final StringBuilder linkedClassPath = new StringBuilder();
+		for (final String element : elements)
+			linkedClassPath.append(linkedClassPath.length() > 0 ? File.pathSeparator : "").append(element);
+		command.set(classPath + 1, linkedClassPath.toString());
+		log(LOG_VERBOSE, "Library capsule: " + libraryDir);
+	}
+
+	// the extracted library, extracting it first if need be
+	private Path library() throws IOException {
+		final String name = attribute(ATTR_LIBRARY_CAPSULE);
+		final String digest = attribute(ATTR_LIBRARY_DIGEST);
+		if (name == null || digest == null) throw new IOException("no Library-Capsule or Library-Digest");
+		final Path libs = cacheDir().resolve("libs");
+		final Path dir = libs.resolve(digest.substring(0, Math.min(16, digest.length())));
+		if (Files.isDirectory(dir)) return dir;
+
+		final List<Path> candidates = new ArrayList<>();
+		if (System.getProperty(LIBRARY_DIR_PROPERTY) != null) candidates.add(Paths.get(System.getProperty(LIBRARY_DIR_PROPERTY), name));
+		candidates.add(getJarFile().toAbsolutePath().getParent().resolve(name));
+		candidates.add(libs.resolve(name));
+		for (final Path library : candidates)
+			if (Files.isRegularFile(library)) {
+				extract(library, dir, digest);
+				return dir;
+			}
+		throw new IOException("not found (looked for " + candidates + ")");
+	}
+
+	// the capsule cache, as the parent of the apps dir holding the app cache (getCacheDir() being deprecated), or the
+	// writable (temporary) app cache when the app isn't cached
+	private Path cacheDir() {
+		final Path appCache = getWritableAppCache(); // creates the app dir, if there is one
+		final Path appDir = getAppDir();
+		if (appDir != null && appDir.equals(appCache) && appDir.getParent() != null
+				&& appDir.getParent().getFileName().toString().equals("apps") && appDir.getParent().getParent() != null)
+			return appDir.getParent().getParent();
+		return appCache;
+	}
+
+	// extracted to a temporary dir and then moved into place, as concurrent launches may share the cache
+	private void extract(final Path library, final Path dir, final String digest) throws IOException {
+		Files.createDirectories(dir.getParent());
+		final Path temp = Files.createTempDirectory(dir.getParent(), ".tmp-");
+		try {
+			final Map<String, String> jars = new TreeMap<>(); // entry name -> sha-256
+			try (final JarFile jar = new JarFile(library.toFile())) {
+				for (final Enumeration<JarEntry> entries = jar.entries(); entries.hasMoreElements(); ) {
+					final JarEntry entry = entries.nextElement();
+					if (entry.isDirectory() || entry.getName().startsWith("META-INF/")) continue;
+					final Path file = temp.resolve(entry.getName()).normalize();
+					if (!file.startsWith(temp)) throw new IOException("Illegal entry " + entry.getName());
+					Files.createDirectories(file.getParent());
+					final MessageDigest sha256 = sha256();
+					try (final InputStream in = new DigestInputStream(jar.getInputStream(entry), sha256)) {
+						Files.copy(in, file);
+					}
+					jars.put(entry.getName(), hex(sha256.digest()));
+				}
+			}
+			final StringBuilder lines = new StringBuilder();
+			for (final Map.Entry<String, String> jar : jars.entrySet())
+				lines.append(jar.getKey()).append(' ').append(jar.getValue()).append('\n');
+			final String actual = hex(sha256().digest(lines.toString().getBytes("UTF-8")));
+			if (!actual.equals(digest)) throw new IOException(library + " has digest " + actual + ", expected " + digest);
+
+			try {
+				Files.move(temp, dir, StandardCopyOption.ATOMIC_MOVE);
+				log(LOG_VERBOSE, "Extracted library capsule " + library + " to " + dir);
+			} catch (final FileSystemException e) {
+				if (!Files.isDirectory(dir)) throw e; // otherwise extracted by a concurrent launch
+			}
+		} finally {
+			deleteTree(temp);
+		}
+	}
+
+	private static MessageDigest sha256() throws IOException {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static String hex(final byte[] bytes) {
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : bytes)
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	private static void deleteTree(final Path dir) throws IOException {
+		if (!Files.exists(dir)) return;
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+}
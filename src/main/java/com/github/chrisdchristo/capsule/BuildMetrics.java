@@ -0,0 +1,130 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and throughput of the phases of a capsule build (version lookup, resolution, each kind of entry, ...),
+ * written as json next to the fingerprint so builds can be compared over time.
+ * <p>
+ * A phase's time is the wall time spent in it on the build thread, while its bytes and entries are those of the
+ * entries added during it, whenever they end up compressed and written.
+ */
+final class BuildMetrics {
+
+	private final long started = System.nanoTime();
+	private final Map<String, Phase> phases = new LinkedHashMap<>();
+	private Phase current = null;
+	private long phaseStarted = 0;
+
+	static final class Phase {
+		final String name;
+		long nanos;
+		long entries;
+		long bytesIn; // uncompressed content of the entries
+		long bytesOut; // written to the jar, headers included
+		Phase(final String name) {
+			this.name = name;
+		}
+	}
+
+	/**
+	 * End the current phase (if any) and start the given one, which adds up if it was already started before.
+	 */
+	void start(final String name) {
+		end();
+		current = phases.get(name);
+		if (current == null) {
+			current = new Phase(name);
+			phases.put(name, current);
+		}
+		phaseStarted = System.nanoTime();
+	}
+
+	void end() {
+		if (current != null) current.nanos += System.nanoTime() - phaseStarted;
+		current = null;
+	}
+
+	/**
+	 * The phase entries are being added in (or null if none).
+	 */
+	String current() {
+		return current != null ? current.name : null;
+	}
+
+	/**
+	 * Record an entry written to the jar, added during the given phase.
+	 */
+	void entry(final String name, final long bytesIn, final long bytesOut) {
+		Phase phase = phases.get(name != null ? name : "other");
+		if (phase == null) {
+			phase = new Phase(name != null ? name : "other");
+			phases.put(phase.name, phase);
+		}
+		phase.entries++;
+		phase.bytesIn += bytesIn;
+		phase.bytesOut += bytesOut;
+	}
+
+	void write(final File file, final String capsule, final int threads, final int writeQueueDepth) throws IOException {
+		end();
+		final File dir = file.getParentFile();
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Failed to create " + dir);
+		Files.write(file.toPath(), toJson(capsule, threads, writeQueueDepth).getBytes("UTF-8"));
+	}
+
+	long totalMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+	}
+
+	private String toJson(final String capsule, final int threads, final int writeQueueDepth) {
+		long entries = 0, bytesIn = 0, bytesOut = 0;
+		final StringBuilder json = new StringBuilder("{\n");
+		json.append("  \"capsule\": ").append(quote(capsule)).append(",\n");
+		json.append("  \"threads\": ").append(threads).append(",\n");
+		json.append("  \"writeQueueDepth\": ").append(writeQueueDepth).append(",\n");
+		json.append("  \"phases\": [");
+		boolean first = true;
+		for (final Phase phase : phases.values()) {
+			json.append(first ? "\n" : ",\n");
+			first = false;
+			json.append("    { \"name\": ").append(quote(phase.name))
+					.append(", \"millis\": ").append(TimeUnit.NANOSECONDS.toMillis(phase.nanos));
+			appendThroughput(json, phase.entries, phase.bytesIn, phase.bytesOut, 0); // written on their own time
+			json.append(" }");
+			entries += phase.entries;
+			bytesIn += phase.bytesIn;
+			bytesOut += phase.bytesOut;
+		}
+		json.append("\n  ],\n  \"total\": {");
+		json.append(" \"millis\": ").append(totalMillis());
+		appendThroughput(json, entries, bytesIn, bytesOut, System.nanoTime() - started);
+		json.append(" }\n}\n");
+		return json.toString();
+	}
+
+	private static void appendThroughput(final StringBuilder json, final long entries, final long bytesIn, final long bytesOut, final long nanos) {
+		if (entries == 0) return;
+		json.append(", \"entries\": ").append(entries)
+				.append(", \"bytesIn\": ").append(bytesIn)
+				.append(", \"bytesOut\": ").append(bytesOut)
+				.append(", \"compressionRatio\": ").append(bytesIn > 0 ? String.format(Locale.ROOT, "%.3f", (double) bytesOut / bytesIn) : "null");
+		if (nanos > 0) json.append(", \"mbPerSecond\": ").append(String.format(Locale.ROOT, "%.1f", bytesIn / 1048576.0 / (nanos / 1e9)));
+	}
+
+	private static String quote(final String value) {
+		final StringBuilder quoted = new StringBuilder("\"");
+		for (final char c : value.toCharArray()) {
+			if (c == '"' || c == '\\') quoted.append('\\').append(c);
+			else if (c < 0x20) quoted.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+			else quoted.append(c);
+		}
+		return quoted.append('"').toString();
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.github.chrisdchristo.capsule;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.versioning.ComparableVersion;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Plugin;
 import org.apache.maven.model.PluginExecution;
@@ -9,7 +10,6 @@ import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
-import org.codehaus.plexus.util.IOUtil;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.repository.RemoteRepository;
@@ -19,14 +19,17 @@ import org.eclipse.aether.resolution.VersionRangeResolutionException;
 import org.eclipse.aether.resolution.VersionRangeResult;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.*;
-import java.util.zip.ZipEntry;
 
 /**
  * Mojo to generate a Capsule jar
@@ -35,18 +38,9 @@ import java.util.zip.ZipEntry;
 		= ResolutionScope.RUNTIME_PLUS_SYSTEM)
 public class CapsuleMojo extends Mojo {
 
-	public final String pluginKey() {
-		return "com.github.chrisdchristo:capsule-maven-plugin";
-	}
-
-	public final String logPrefix() {
-		return "[CapsuleMavenPlugin] ";
-	}
-
 	private static final String DEFAULT_CAPSULE_VERSION = "1.0.3";
 	private static final String DEFAULT_CAPSULE_MAVEN_VERSION = "1.0.3";
 
-	private static final String CAPSULE_GROUP = "co.paralleluniverse";
 	private static final String DEFAULT_CAPSULE_NAME = "Capsule";
 	private static final String DEFAULT_CAPSULE_CLASS = DEFAULT_CAPSULE_NAME + ".class";
 	private static final String DEFAULT_CAPSULE_MAVEN_NAME = "MavenCapsule";
@@ -55,6 +49,19 @@ public class CapsuleMojo extends Mojo {
 	private static final String EXEC_PREFIX = "#!/bin/sh\n\nexec java -jar \"$0\" \"$@\"\n\n";
 	private static final String EXEC_TRAMPOLINE_PREFIX = "#!/bin/sh\n\nexec java -Dcapsule.trampoline -jar \"$0\" \"$@\"\n\n";
 
+	private static final String CAPLET_JAR_DIR = "capsule/";
+
+	private static final String CLASS_PATH_INDEX_NAME = "ClassPathIndexCapsule";
+	private static final String CLASS_PATH_INDEX_CLASS = CLASS_PATH_INDEX_NAME + ".class";
+	private static final String CLASS_PATH_INDEX = "META-INF/capsule/INDEX.LIST";
+
+	private static final String APP_CDS_NAME = "AppCdsCapsule";
+	private static final String[] APP_CDS_CLASSES = { APP_CDS_NAME + ".class", APP_CDS_NAME + "$Dump.class" };
+	private static final String APP_CDS_CLASS_LIST = "META-INF/capsule/app.classlist";
+
+	private static final String LIBRARY_NAME = "LibraryCapsule";
+	private static final String[] LIBRARY_CLASSES = { LIBRARY_NAME + ".class", LIBRARY_NAME + "$1.class" };
+
 	private static final String EXEC_PLUGIN_KEY = "org.codehaus.mojo:exec-maven-plugin";
 
 	/**
@@ -137,9 +144,46 @@ public class CapsuleMojo extends Mojo {
 	private FileSet[] fileSets = null; // assembly style filesets to add to the capsule
 	@Parameter
 	private DependencySet[] dependencySets = null; // assembly style dependency sets to add to the capsule
+	@Parameter(property = "capsule.incremental")
+	private boolean incremental = true; // skip the build if the inputs are unchanged since the last build
+	@Parameter(property = "capsule.versionCacheTtl")
+	private long versionCacheTtl = 24 * 60; // minutes the latest capsule version is cached for (when no version is set)
+	@Parameter(defaultValue = "${session.request.startTime}", readonly = true)
+	private Date buildStart = null; // versions resolved since are reused for the rest of the build, whatever the ttl
+	@Parameter(defaultValue = "${plugin.version}", readonly = true)
+	private String pluginVersion = null; // part of the key of the cached Capsule entries, as what is extracted may change
+	@Parameter(property = "capsule.metrics")
+	private boolean metrics = true; // write the timings and throughput of the build phases to the build dir
+	@Parameter(property = "capsule.classPathIndex")
+	private boolean classPathIndex = false; // index the packages of the embedded jars, used at launch to find classes
+	@Parameter
+	private Training training = null; // a training run of the app, recording what it loads to speed up its launches
+	@Parameter(property = "capsule.appCache")
+	private AppCache appCache = null; // also lay out the app cache capsule extracts to, so nodes can be provisioned with it
+	@Parameter(property = "capsule.library")
+	private File library = null; // index of a library capsule (see the library goal), whose jars are referenced rather than embedded
+	@Parameter
+	private Shrink shrink = null; // embed the dependencies without the classes the app can't reach
+	@Parameter(property = "capsule.conflicts")
+	private Conflicts conflicts = Conflicts.none; // which version is embedded when the app and the plugin depend on different ones
+	@Parameter(property = "capsule.duplicates")
+	private Duplicates duplicates = null; // report what the embedded jars have in common, and leave out what is redundant
 
 	// will be loaded when run
-	private Map<String, File> capletFiles = new HashMap<>();
+	private Map<String, File> capletFiles = new LinkedHashMap<>(); // entry name -> class file (incl. inner classes)
+	private Map<String, File> capletJars = new LinkedHashMap<>(); // coords -> jar
+	private final BuildMetrics buildMetrics = new BuildMetrics();
+	private final Map<String, File> embeddedJars = new LinkedHashMap<>(); // entry name -> jar (the app and the dependencies)
+	private final Map<String, String> embeddedCoords = new LinkedHashMap<>(); // entry name -> coords
+	private byte[] classList = null; // the classes loaded by the training run (if any)
+	private LoadOrder loadOrder = null; // the order the training run loaded the classes in (if recorded)
+	private Map<String, File> dependencyFiles = null; // coords -> the jar maven resolved, for the load order
+	private LibraryIndex libraryIndex = null;
+	private final Map<String, String> libraryJars = new LinkedHashMap<>(); // coords -> entry in the library capsule (referenced, not embedded)
+	private final Map<File, File> jarCopies = new HashMap<>(); // jar -> the copy embedded in its place (shrunk, or without duplicate entries)
+	private Set<String> includedConflicts = null; // coords of the dependencies that lost to another version (see conflicts)
+	private Set<String> resolvedConflicts = null;
+	private final Set<String> redundantJars = new HashSet<>(); // coords of the dependencies left out, as all they have is in the other jars
 	private Xpp3Dom execConfig = null;
 	private File resolvedCapsuleProjectFile = null;
 	private File resolvedCapsuleMavenProjectFile = null;
@@ -240,59 +284,22 @@ public class CapsuleMojo extends Mojo {
 		if (appClass == null)
 			throw new MojoFailureException(logPrefix() + " appClass not set (or could not be obtained from the exec plugin mainClass)");
 
+		// fail on an invalid compression level before anything is resolved
+		compression.validate();
+
 		// resolve outputDir name (the file name of the capsule jar)
 		this.outputName = this.fileName != null ? this.fileName : this.finalName;
 		if (this.fileDesc != null) outputName += this.fileDesc;
 
 		// check for caplets existence
 		if (this.caplets == null) this.caplets = "";
-		if (!caplets.isEmpty()) {
-			final StringBuilder capletString = new StringBuilder();
-			final File classesDir = new File(this.buildDir, "classes");
-			for (final String caplet : this.caplets.split(" ")) {
-				try {
-					Files.walkFileTree(classesDir.toPath(), new SimpleFileVisitor<Path>() {
-						@Override
-						public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
-							if (!attrs.isDirectory() && path.toString().contains(caplet)) {
-								capletFiles.put(caplet, path.toFile());
-								return FileVisitResult.TERMINATE;
-							}
-							return FileVisitResult.CONTINUE;
-						}
-					});
-				} catch (final IOException e) {
-					e.printStackTrace();
-				}
-
-				if (!capletFiles.containsKey(caplet))
-					if (!caplet.contains(":")) // not from repo
-						warn("Could not find caplet " + caplet + " class, skipping.");
-
-				if (capletString.length() > 0) capletString.append(" ");
-				capletString.append(caplet);
-			}
-			caplets = capletString.toString();
-		}
+		buildMetrics.start("capletDiscovery");
+		if (!caplets.isEmpty()) caplets = resolveCaplets(caplets);
 
 		// if no capsule ver specified, find the latest one
-		if (capsuleVersion == null) {
-			final DefaultArtifact artifact = new DefaultArtifact(CAPSULE_GROUP, "capsule", null, null, "[0,)");
-			final VersionRangeRequest request = new VersionRangeRequest().setRepositories(remoteRepos).setArtifact(artifact);
-			try {
-				final VersionRangeResult result = repoSystem.resolveVersionRange(repoSession, request);
-				// get the latest version that is not a snapshot
-				for (int i = result.getVersions().size() - 1; i >= 0; i--) {
-					final String currentVersion = result.getVersions().get(i).toString();
-					if (!currentVersion.contains("SNAPSHOT")) {
-						capsuleVersion = result.getVersions().get(i).toString();
-						break;
-					}
-				}
-			} catch (VersionRangeResolutionException e) {
-				throw new MojoFailureException(e.getMessage());
-			}
-		}
+		buildMetrics.start("versionLookup");
+		if (capsuleVersion == null || capsuleVersion.equalsIgnoreCase("latest")) capsuleVersion = latestCapsuleVersion();
+		buildMetrics.end();
 
 		// double check outputDir is not in some undesired locations
 		final List<String> illegalOutputPaths = Arrays.asList(
@@ -313,6 +320,11 @@ public class CapsuleMojo extends Mojo {
 		info("[Capsule Version]: " + capsuleVersion);
 		info("[Output Directory]: " + outputDir.toString());
 		info("[Build Info]: " + buildInfoString());
+		try {
+			if (outputTime() != null) info("[Reproducible]: Entries dated " + outputTimestamp.trim());
+		} catch (final IllegalArgumentException e) {
+			throw new MojoFailureException(e.getMessage());
+		}
 
 		try {
 			build();
@@ -328,6 +340,24 @@ public class CapsuleMojo extends Mojo {
 	public void build() throws IOException {
 		final File jarFile = new File(this.outputDir, this.outputName + ".jar");
 
+		// skip the build if nothing has changed since the last one
+		final File fingerprintFile = new File(this.buildDir, "capsule" + File.separatorChar + this.outputName + ".fingerprint");
+		buildMetrics.start("resolution");
+		includedDependencyArtifacts(); // resolved once, up front, and then memoized
+		resolvedDependencies();
+		if (library != null) referenceLibrary();
+		buildMetrics.start("incrementalCheck");
+		final String fingerprint = incremental ? fingerprint() : null;
+		if (fingerprint != null && isUpToDate(fingerprintFile, fingerprint, jarFile)) {
+			info("UP-TO-DATE - " + jarFile.getName() + " (inputs unchanged, skipping build)");
+			info("[Maven Artifact]: Attached capsule artifact to maven (" + jarFile.getName() + ").");
+			helper.attachArtifact(project, jarFile, "capsule");
+			if (appCache == AppCache.tar) attachAppCache(appCacheFile(jarFile));
+			return;
+		}
+		if (fingerprintFile.exists() && !fingerprintFile.delete())
+			warn("FAILED TO DELETE - " + fingerprintFile.getName());
+
 		if (jarFile.exists()) {
 			info("EXISTS - " + jarFile.getName() + " (WILL OVERWRITE)");
 			final boolean deleteResult = jarFile.delete();
@@ -336,71 +366,567 @@ public class CapsuleMojo extends Mojo {
 			}
 		}
 
-		final JarOutputStream jarStream = new JarOutputStream(new FileOutputStream(jarFile));
+		// shrink the dependencies first, so the training runs the app on what goes into the capsule
+		if (shrink != null) {
+			buildMetrics.start("shrink");
+			shrink();
+		}
+		if (duplicates != null) {
+			buildMetrics.start("duplicates");
+			dedupe();
+		}
+
+		// train the app on a capsule of its own first, as what it records goes into the capsule
+		if (training != null) {
+			buildMetrics.start("training");
+			train();
+		}
+
 		info("[Capsule Jar File]: " + jarFile.getName());
+		writeCapsule(jarFile, false, buildMetrics);
+		if (duplicates != null) {
+			buildMetrics.start("sameContent");
+			reportSameContent(jarFile);
+		}
+
+		// what capsule extracts on the first launch, extracted once here
+		buildMetrics.start("appCache");
+		writeAppCache(jarFile);
+		buildMetrics.end();
+
+		// record the inputs so the next build can be skipped if nothing changes
+		if (fingerprint != null) writeFingerprint(fingerprintFile, fingerprint, jarFile);
+
+		if (metrics) writeMetrics(jarFile);
+
+		// attach the capsule as a maven artifact
+		info("[Maven Artifact]: Attached capsule artifact to maven (" + jarFile.getName() + ").");
+		helper.attachArtifact(project, jarFile, "capsule");
+		if (appCache == AppCache.tar) attachAppCache(appCacheFile(jarFile));
+	}
+
+	/**
+	 * Write the capsule jar (and its exec variants, unless it is the capsule of the training run) in a single pass.
+	 */
+	private void writeCapsule(final File jarFile, final boolean training, final BuildMetrics buildMetrics) throws IOException {
+		// what an earlier write embedded (i.e the training capsule, in the order from before the training run)
+		embeddedJars.clear();
+		embeddedCoords.clear();
+
+		// the chmod and trampoline versions of the capsule are written in the same pass
+		File chmodFile = null;
+		File trampolineFile = null;
+		try (final JarWriter jarStream = new JarWriter(output(jarFile), compression, threads, outputTime())) {
+			chmodFile = !training ? addChmodVariant(jarFile, jarStream) : null;
+			trampolineFile = !training ? addTrampolineVariant(jarFile, jarStream) : null;
+			if (writeQueueDepth > 0) jarStream.writeBehind(writeBufferSize, writeQueueDepth);
+			jarStream.metrics(buildMetrics);
+
+			// add manifest entries
+			buildMetrics.start("manifest");
+			addManifest(jarStream, !training);
+
+			// add Capsule.class
+			buildMetrics.start("capsuleClasses");
+			addCapsuleClass(jarStream);
+
+			// add caplets - i.e custom capsule classes (if exists)
+			addCapletClasses(jarStream);
+
+			// add CapsuleMaven classes (if we need to do any resolving on launch)
+			addMavenCapletClasses(jarStream);
+
+			// add the app jar
+			buildMetrics.start("app");
+			addApp(jarStream);
+
+			// add the dependencies as embedded jars
+			buildMetrics.start("dependencies");
+			addDependencies(jarStream);
+
+			// add some files and folders to the capsule from filesets and dependencysets
+			buildMetrics.start("fileSets");
+			addFileSets(jarStream);
+			buildMetrics.start("dependencySets");
+			addDependencySets(jarStream);
+
+			// index the packages of the embedded jars (once all the other entries are in)
+			buildMetrics.start("classPathIndex");
+			addClassPathIndex(jarStream);
+
+			// the classes loaded by the training run, for the class data sharing archive
+			buildMetrics.start("appCds");
+			addAppCds(jarStream);
+
+			// write out what's left (and the central directories) of the jar and the exec variants (on close)
+			buildMetrics.start("finish");
+		} catch (final IOException | RuntimeException e) {
+			// a truncated capsule mustn't be left behind, to be taken for a whole one
+			deletePartial(jarFile, chmodFile, trampolineFile);
+			throw e;
+		}
+
+		// mark the chmod and trampoline versions of the capsule executable
+		markExecutable(chmodFile);
+		markExecutable(trampolineFile);
+	}
+
+	private void writeMetrics(final File jarFile) {
+		final File metricsFile = new File(this.buildDir, "capsule" + File.separatorChar + this.outputName + ".metrics.json");
+		try {
+			buildMetrics.write(metricsFile, jarFile.getName(), threads, writeQueueDepth);
+			info("[Build Metrics]: " + metricsFile.getPath() + " (" + buildMetrics.totalMillis() + " ms)");
+		} catch (final IOException e) {
+			warn("[Build Metrics]: Failed to write " + metricsFile.getName() + " - " + e.getMessage());
+		}
+	}
+
+	// APP CACHE
+
+	/**
+	 * Lay out the app cache of the capsule as capsule does when it extracts the capsule on its first launch: the files
+	 * it extracts, in apps/(app id), and the marker of a complete extraction, dated to the capsule (as capsule
+	 * re-extracts if the capsule is newer than the marker). Written as a directory or a tarball to extract in the cache
+	 * dir (~/.capsule or CAPSULE_CACHE_DIR).
+	 */
+	private void writeAppCache(final File jarFile) throws IOException {
+		if (appCache == null) return;
+		final String root = "apps/" + appId() + "/";
+		final File file = appCacheFile(jarFile);
+
+		final long time = markerTime(jarFile);
+
+		try (final JarReader reader = new JarReader(jarFile)) {
+			final Map<String, JarReader.Entry> entries = new LinkedHashMap<>();
+			for (final JarReader.Entry entry : reader.entries())
+				if (isExtracted(entry.getName()) && !entries.containsKey(entry.getName())) entries.put(entry.getName(), entry);
+			if (entries.isEmpty()) {
+				info("[App Cache]: Nothing is extracted from " + jarFile.getName() + ", no app cache written.");
+				return;
+			}
+
+			long bytes = 0;
+			if (appCache == AppCache.dir) {
+				final File appDir = new File(file, root);
+				deleteTree(appDir);
+				for (final JarReader.Entry entry : entries.values()) {
+					final File extracted = new File(appDir, entry.getName());
+					if (!extracted.getParentFile().exists() && !extracted.getParentFile().mkdirs())
+						throw new IOException("Failed to create " + extracted.getParentFile());
+					try (final InputStream in = reader.open(entry)) {
+						Files.copy(in, extracted.toPath());
+					}
+					if (!extracted.setLastModified(time)) warn("Failed to date " + extracted);
+					bytes += entry.size;
+				}
+				final File marker = new File(appDir, ".extracted");
+				if (!marker.createNewFile() || !marker.setLastModified(time)) throw new IOException("Failed to write " + marker);
+			} else {
+				try (final TarWriter tar = new TarWriter(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024))) {
+					tar.addDirectory("apps/", time);
+					tar.addDirectory(root, time);
+					final Set<String> directories = new HashSet<>();
+					for (final JarReader.Entry entry : entries.values()) {
+						int slash = -1;
+						while ((slash = entry.getName().indexOf('/', slash + 1)) != -1)
+							if (directories.add(entry.getName().substring(0, slash + 1)))
+								tar.addDirectory(root + entry.getName().substring(0, slash + 1), time);
+						try (final InputStream in = reader.open(entry)) {
+							tar.add(root + entry.getName(), entry.size, time, in);
+						}
+						bytes += entry.size;
+					}
+					tar.add(root + ".extracted", 0, time, new ByteArrayInputStream(new byte[0]));
+				}
+			}
+			info("[App Cache]: " + file.getPath() + " (" + root + ", " + entries.size() + " files, " + bytes / 1024 + " KB)");
+		}
+	}
+
+	/**
+	 * The time of the app cache files and marker: not older than any of the capsules (the exec variants are written
+	 * after the jar), rounded up to the second as a tar keeps seconds.
+	 */
+	static long markerTime(final File jarFile) {
+		long time = jarFile.lastModified();
+		for (final String extension : new String[] { ".x", ".tx" }) {
+			final File variant = new File(jarFile.getPath().replace(".jar", extension));
+			if (variant.exists()) time = Math.max(time, variant.lastModified());
+		}
+		return TimeUnit.SECONDS.toMillis(TimeUnit.MILLISECONDS.toSeconds(time + 999));
+	}
+
+	private void attachAppCache(final File tarFile) {
+		info("[Maven Artifact]: Attached app cache artifact to maven (" + tarFile.getName() + ").");
+		attach(tarFile, "tar", "capsule-cache");
+	}
 
-		// add manifest entries
-		addManifest(jarStream);
+	private File appCacheFile(final File jarFile) {
+		return appCache == AppCache.dir
+				? new File(this.buildDir, "capsule" + File.separatorChar + "cache")
+				: new File(jarFile.getPath().replace(".jar", "-cache.tar"));
+	}
 
-		// add Capsule.class
-		addCapsuleClass(jarStream);
+	// as capsule names the app cache: the Application-Id (or Application-Name), and the Application-Version if any
+	private String appId() {
+		String id = this.outputName;
+		String version = null;
+		if (this.manifest != null)
+			for (final Pair<String, String> entry : this.manifest) {
+				if (entry.key == null || entry.value == null || entry.value.isEmpty()) continue;
+				if (entry.key.equalsIgnoreCase("Application-Id")) id = entry.value;
+				else if (entry.key.equalsIgnoreCase("Application-Name") && !hasManifestEntry("Application-Id")) id = entry.value;
+				else if (entry.key.equalsIgnoreCase("Application-Version")) version = entry.value;
+			}
+		return version != null ? id + "_" + version : id;
+	}
 
-		// add caplets - i.e custom capsule classes (if exists)
-		addCapletClasses(jarStream);
+	private boolean hasManifestEntry(final String key) {
+		for (final Pair<String, String> entry : this.manifest)
+			if (key.equalsIgnoreCase(entry.key) && entry.value != null && !entry.value.isEmpty()) return true;
+		return false;
+	}
 
-		// add CapsuleMaven classes (if we need to do any resolving on launch)
-		addMavenCapletClasses(jarStream);
+	// the entries capsule extracts: anything but directories, classes, the manifest and the like, and caplet classes
+	private static boolean isExtracted(final String name) {
+		if (name.endsWith("/") || name.endsWith(".class") || name.startsWith("META-INF/")) return false;
+		return !name.startsWith(CAPLET_JAR_DIR) || name.endsWith(".jar");
+	}
 
-		// add the app jar
-		addApp(jarStream);
+	private static void deleteTree(final File directory) throws IOException {
+		if (!directory.exists()) return;
+		Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
 
-		// add the dependencies as embedded jars
-		addDependencies(jarStream);
+			@Override
+			public FileVisitResult postVisitDirectory(final Path dir, final IOException e) throws IOException {
+				if (e != null) throw e;
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
 
-		// add some files and folders to the capsule from filesets and dependencysets
-		addFileSets(jarStream);
-		addDependencySets(jarStream);
+	// LIBRARY
 
-		IOUtil.close(jarStream);
+	/**
+	 * The dependencies to reference in the library capsule rather than embed: those with the very same jar (by the
+	 * digest of its content) in the library.
+	 */
+	private void referenceLibrary() throws IOException {
+		if (!library.isFile())
+			throw new IOException("Library index " + library + " not found (written by the library goal of capsule-maven-plugin)");
+		libraryIndex = LibraryIndex.read(library);
+		long bytes = 0;
+		for (final Artifact artifact : includeTransitiveDep ? includedDependencyArtifacts() : includedDirectDependencyArtifacts()) {
+			if (artifact.getFile() == null || !artifact.getFile().isFile() || !isEmbedded(artifact)) continue;
+			final String entry = libraryIndex.jars.get(sha256(artifact.getFile()));
+			if (entry == null) continue;
+			libraryJars.put(coords(artifact), entry);
+			bytes += artifact.getFile().length();
+		}
+		info("[Library]: " + libraryJars.size() + " jars (" + bytes / 1024 + " KB) referenced in " + libraryIndex.file);
+	}
 
-		// build the chmod version of the capsule
-		addChmodCopy(jarFile);
+	// SHRINK
 
-		// build the trampoline version of the capsule
-		addTrampolineCopy(jarFile);
+	/**
+	 * Find the classes of the embedded dependencies the app can reach (see Shrinker) and copy the jars without the
+	 * others, to embed in their place. Jars kept whole (and those referenced in a library capsule) aren't copied, but
+	 * are analyzed all the same, as the classes they refer to are reachable.
+	 */
+	private void shrink() throws IOException {
+		final File dir = new File(this.buildDir, "capsule" + File.separatorChar + "shrunk");
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Failed to create " + dir);
+		final Glob keepArtifacts = shrink.keepArtifacts != null && shrink.keepArtifacts.length > 0 ? Glob.compile(shrink.keepArtifacts, null) : null;
+
+		try (final Shrinker shrinker = new Shrinker()) {
+			final List<Artifact> artifacts = new ArrayList<>();
+			for (final Artifact artifact : includeTransitiveDep ? includedDependencyArtifacts() : includedDirectDependencyArtifacts()) {
+				if (artifact.getFile() == null || !artifact.getFile().isFile() || !isEmbedded(artifact)) continue;
+				if (artifact.getGroupId().equalsIgnoreCase(CAPSULE_GROUP) && artifact.getArtifactId().equalsIgnoreCase(DEFAULT_CAPSULE_NAME)) continue;
+				final boolean whole = libraryJars.containsKey(coords(artifact))
+						|| keepArtifacts != null && keepArtifacts.matches(artifact.getGroupId() + ":" + artifact.getArtifactId());
+				shrinker.addJar(artifact.getFile(), whole);
+				artifacts.add(artifact);
+			}
 
-		// attach the capsule as a maven artifact
-		info("[Maven Artifact]: Attached capsule artifact to maven (" + jarFile.getName() + ").");
-		helper.attachArtifact(project, jarFile, "capsule");
+			// the roots: the app (all of it, as it is embedded whole), the caplets and the classes kept by name
+			final File mainJarFile = new File(this.buildDir, this.finalName + ".jar");
+			shrinker.rootApp(mainJarFile.isFile() ? mainJarFile : new File(this.buildDir, "classes"));
+			if (appClass != null) shrinker.root(appClass);
+			for (final File caplet : capletFiles.values())
+				shrinker.rootClass(caplet);
+			if (shrink.keep != null && shrink.keep.length > 0) {
+				final String[] keep = new String[shrink.keep.length];
+				for (int i = 0; i < keep.length; i++)
+					keep[i] = shrink.keep[i].replace('.', '/');
+				shrinker.root(Glob.compile(keep, null));
+			}
+			shrinker.analyze();
+
+			long bytes = 0, shrunkBytes = 0;
+			for (final Artifact artifact : artifacts) {
+				final File jar = artifact.getFile();
+				final File shrunk = shrinker.shrinks(jar) ? copyJar(jar, new File(dir, jar.getName()), new EntryCache.Filter() {
+					@Override
+					public boolean accept(final String name) {
+						return shrinker.keeps(name);
+					}
+				}) : jar;
+				if (shrunk != jar) {
+					jarCopies.put(jar, shrunk);
+					debug("\t[Shrink] " + coords(artifact) + " " + jar.length() / 1024 + " KB -> " + shrunk.length() / 1024 + " KB");
+				}
+				bytes += jar.length();
+				shrunkBytes += shrunk.length();
+			}
+			info("\t[Shrink] " + shrinker.reachable() + " of " + shrinker.classes() + " classes reachable, " + jarCopies.size() + " of "
+					+ artifacts.size() + " jars shrunk (" + bytes / 1024 + " KB -> " + shrunkBytes / 1024 + " KB)");
+		}
+	}
+
+	// a copy of the jar with the entries the filter accepts (or the jar itself if it accepts them all)
+	private File copyJar(final File jar, final File copy, final EntryCache.Filter filter) throws IOException {
+		try (final JarReader reader = new JarReader(jar)) {
+			final Map<String, JarReader.Entry> entries = new LinkedHashMap<>();
+			boolean pruned = false;
+			for (final JarReader.Entry entry : reader.entries()) {
+				if (!entry.isCopyable()) return jar; // embedded as it is
+				if (!filter.accept(entry.getName())) pruned = true;
+				else if (!entries.containsKey(entry.getName())) entries.put(entry.getName(), entry);
+			}
+			if (!pruned) return jar;
+			try (final JarWriter writer = new JarWriter(new BufferedOutputStream(new FileOutputStream(copy), 64 * 1024), compression, 1, outputTime())) {
+				for (final Map.Entry<String, JarReader.Entry> entry : entries.entrySet())
+					writer.add(entry.getKey(), reader, entry.getValue());
+			}
+		}
+		return copy;
+	}
+
+	// DUPLICATES
+
+	/**
+	 * Report the classes and resources the app and the embedded jars have in common (see DuplicateIndex) and, as the
+	 * policy says, leave out the jars whose every entry is in the others, and the entries shadowed by the same bytes
+	 * earlier on the classpath (in copies of the jars). Only identical content is ever left out, those of the same name
+	 * that differ are reported (as only the first one on the classpath is loaded).
+	 */
+	private void dedupe() throws IOException {
+		final Map<String, Artifact> artifacts = new LinkedHashMap<>(); // jar name -> artifact, in classpath order
+		try (final DuplicateIndex index = new DuplicateIndex()) {
+			final File mainJarFile = new File(this.buildDir, this.finalName + ".jar");
+			if (includeApp && mainJarFile.isFile()) index.add(mainJarFile.getName(), mainJarFile, true);
+			for (final Artifact artifact : ordered(includeTransitiveDep ? includedDependencyArtifacts() : includedDirectDependencyArtifacts())) {
+				if (artifact.getFile() == null || !artifact.getFile().isFile() || !isEmbedded(artifact)) continue;
+				if (artifact.getGroupId().equalsIgnoreCase(CAPSULE_GROUP) && artifact.getArtifactId().equalsIgnoreCase(DEFAULT_CAPSULE_NAME)) continue;
+				final String name = artifact.getFile().getName();
+				if (artifacts.containsKey(name) || name.equals(mainJarFile.getName())) continue; // duplicate entries are ignored
+				artifacts.put(name, artifact);
+				index.add(name, copy(artifact.getFile()), libraryJars.containsKey(coords(artifact)));
+			}
+
+			for (final DuplicateIndex.Overlap overlap : index.overlaps()) {
+				final String line = "\t[Duplicates] " + overlap.first + " and " + overlap.second + " have " + overlap.classes + " classes in common ("
+						+ overlap.identical + " identical entries, " + overlap.differingClasses.size() + " differing classes, "
+						+ overlap.differingResources + " differing resources)";
+				if (overlap.differingClasses.isEmpty()) info(line);
+				else {
+					warn(line + ", those of " + overlap.first + " are loaded, i.e " + overlap.differingClasses.iterator().next());
+					for (final String name : overlap.differingClasses)
+						debug("\t\t[Duplicates] " + name + " differs in " + overlap.first + " and " + overlap.second);
+				}
+			}
+			if (duplicates == Duplicates.report) return;
+
+			final Set<String> redundant = index.redundantJars();
+			for (final String name : redundant) {
+				redundantJars.add(coords(artifacts.get(name)));
+				info("\t[Duplicates] " + coords(artifacts.get(name)) + " left out, all of it is in the other jars");
+			}
+			if (duplicates == Duplicates.jars) return;
+
+			final File dir = new File(this.buildDir, "capsule" + File.separatorChar + "deduped");
+			if (!dir.exists() && !dir.mkdirs()) throw new IOException("Failed to create " + dir);
+			for (final Map.Entry<String, Set<String>> shadowed : index.shadowedEntries(redundant).entrySet()) {
+				final Artifact artifact = artifacts.get(shadowed.getKey());
+				final Set<String> names = shadowed.getValue();
+				final File deduped = copyJar(copy(artifact.getFile()), new File(dir, shadowed.getKey()), new EntryCache.Filter() {
+					@Override
+					public boolean accept(final String name) {
+						return !names.contains(name);
+					}
+				});
+				if (deduped != copy(artifact.getFile())) {
+					jarCopies.put(artifact.getFile(), deduped);
+					info("\t[Duplicates] " + names.size() + " entries of " + coords(artifact) + " left out, the same as those earlier on the classpath");
+				}
+			}
+		}
+	}
+
+	// the same content under several names in the capsule, i.e a jar both embedded and in a dependencySet
+	private void reportSameContent(final File jarFile) throws IOException {
+		long wasted = 0;
+		for (final Map.Entry<List<String>, Long> same : DuplicateIndex.sameContent(jarFile, 1024).entrySet()) {
+			info("\t[Duplicates] The same " + same.getValue() / 1024 + " KB in " + same.getKey());
+			wasted += (same.getKey().size() - 1) * same.getValue();
+		}
+		if (wasted > 0) info("\t[Duplicates] " + wasted / 1024 + " KB of the capsule is the same content under another name");
+	}
+
+	// the jar embedded in place of the given one
+	private File copy(final File jar) {
+		return jarCopies.containsKey(jar) ? jarCopies.get(jar) : jar;
+	}
+
+	// TRAINING
+
+	/**
+	 * Build a capsule for the training run, run the app with the workload of the training and keep what it recorded.
+	 * The capsule is built without it if the run fails.
+	 */
+	private void train() throws IOException {
+		final File dir = new File(this.buildDir, "capsule" + File.separatorChar + "training");
+		if (!dir.exists() && !dir.mkdirs()) throw new IOException("Failed to create " + dir);
+		final File trainingJar = new File(dir, this.outputName + ".jar");
+		final File log = new File(dir, this.outputName + ".log");
+		final File classListFile = new File(dir, this.outputName + ".classlist");
+		Files.deleteIfExists(log.toPath());
+		Files.deleteIfExists(classListFile.toPath());
+
+		info("[Training] Training capsule " + trainingJar.getPath());
+		writeCapsule(trainingJar, true, new BuildMetrics());
+
+		final List<String> jvmArgs = new ArrayList<>();
+		if (training.jvmArgs != null) jvmArgs.addAll(Arrays.asList(training.jvmArgs));
+		if (training.appCds) jvmArgs.add("-XX:DumpLoadedClassList=" + classListFile.getAbsolutePath());
+		if (training.classLoadOrder) jvmArgs.add("-verbose:class");
+
+		final File java = TrainingRun.java(training.java);
+		final Integer exit;
+		try {
+			final List<String> options = new ArrayList<>();
+			if (!libraryJars.isEmpty()) options.add("-Dcapsule.library.dir=" + library.getAbsoluteFile().getParent());
+			exit = new TrainingRun(java, trainingJar, dir, training.timeout).run(options, jvmArgs, training.args, log);
+		} catch (final IOException e) {
+			warn("[Training] Training run failed (" + e.getMessage() + "), capsule built without it.");
+			return;
+		}
+		if (exit == null) info("[Training] App stopped after " + training.timeout + "s (" + java + "), output in " + log.getPath());
+		else if (exit == 0) info("[Training] App exited (" + java + "), output in " + log.getPath());
+		else warn("[Training] App exited with " + exit + " (" + java + "), output in " + log.getPath());
+
+		if (training.appCds) {
+			classList = classList(classListFile);
+			if (classList == null) warn("[Training] No classes recorded (see " + log.getPath() + "), capsule built without a class list.");
+		}
+		if (training.classLoadOrder) {
+			final LoadOrder order = LoadOrder.read(log);
+			if (order.isEmpty()) warn("[Training] No class loading recorded (see " + log.getPath() + "), capsule built in the usual order.");
+			else {
+				loadOrder = order;
+				info("[Training] Load order of " + order.classes() + " classes from " + order.jars() + " jars recorded");
+			}
+		}
+	}
+
+	// the artifacts in the order the training run first loaded from them in (if recorded)
+	private Collection<Artifact> ordered(final Set<Artifact> artifacts) {
+		if (loadOrder == null) return artifacts;
+		return loadOrder.sort(artifacts, new LoadOrder.Key<Artifact>() {
+			@Override
+			public File file(final Artifact artifact) {
+				return artifact.getFile();
+			}
+		});
+	}
+
+	// as above, the jars of the dependencies being those maven resolved
+	private Collection<Dependency> orderedDependencies(final Set<Dependency> dependencies) {
+		if (loadOrder == null) return dependencies;
+		if (dependencyFiles == null) {
+			dependencyFiles = new HashMap<>();
+			for (final Artifact artifact : cleanArtifacts(appDependencyArtifacts(), true, pluginDependencyArtifacts(), true))
+				dependencyFiles.put(coords(artifact), artifact.getFile());
+		}
+		return loadOrder.sort(dependencies, new LoadOrder.Key<Dependency>() {
+			@Override
+			public File file(final Dependency dependency) {
+				return dependencyFiles.get(coords(dependency));
+			}
+		});
+	}
+
+	// the app jar with the classes the training run loaded first (in the order they were loaded), the rest after them
+	private File orderedAppJar(final File appJar) throws IOException {
+		final File ordered = new File(this.buildDir, "capsule" + File.separatorChar + "ordered" + File.separatorChar + appJar.getName());
+		if (!ordered.getParentFile().exists() && !ordered.getParentFile().mkdirs())
+			throw new IOException("Failed to create " + ordered.getParentFile());
+		try (final JarReader reader = new JarReader(appJar)) {
+			final Map<String, JarReader.Entry> entries = new LinkedHashMap<>();
+			for (final JarReader.Entry entry : reader.entries()) {
+				if (!entry.isCopyable()) return appJar; // embedded as it is
+				if (!entries.containsKey(entry.getName())) entries.put(entry.getName(), entry);
+			}
+			try (final JarWriter writer = new JarWriter(new BufferedOutputStream(new FileOutputStream(ordered), 64 * 1024), compression, 1, outputTime())) {
+				for (final String name : loadOrder.sortEntries(entries.keySet()))
+					writer.add(name, reader, entries.get(name));
+			}
+		}
+		return ordered;
+	}
+
+	// the names of the classes (in the order they were loaded), leaving out what is specific to the jdk of the training
+	private byte[] classList(final File file) throws IOException {
+		if (!file.isFile()) return null;
+		final StringBuilder classes = new StringBuilder();
+		int count = 0;
+		for (final String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+			final String name = line.replaceFirst(" id: \\d+$", "");
+			if (!name.matches("[\\w/$]+")) continue; // comments, lambda forms and classes of other class loaders
+			classes.append(name).append('\n');
+			count++;
+		}
+		if (count == 0) return null;
+		info("[Training] " + count + " classes recorded");
+		return classes.toString().getBytes("UTF-8");
 	}
 
 	// BUILD PROCESS
 
-	private void addManifest(final JarOutputStream jar) throws IOException {
-		final Manifest manifestBuild = new Manifest();
+	private void addManifest(final JarWriter jar, final boolean print) throws IOException {
+		final Manifest manifestBuild = manifest(this.appClass, this.outputName, buildInfoString(), artifactString(), dependencyString());
 		final Attributes mainAttributes = manifestBuild.getMainAttributes();
-		mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
-		mainAttributes.put(Attributes.Name.MAIN_CLASS, DEFAULT_CAPSULE_NAME);
-		mainAttributes.put(new Attributes.Name("Application-Class"), this.appClass);
-		mainAttributes.put(new Attributes.Name("Application-Name"), this.outputName);
-		mainAttributes.put(new Attributes.Name("Premain-Class"), DEFAULT_CAPSULE_NAME);
-		mainAttributes.put(new Attributes.Name("Build-Info"), buildInfoString());
-		final String artifactsString = artifactString();
-		if (!artifactsString.isEmpty())
-			mainAttributes.put(new Attributes.Name("Embedded-Artifacts"), artifactsString);
-		final String dependencyString = dependencyString();
-		if (!dependencyString.isEmpty())
-			mainAttributes.put(new Attributes.Name("Dependencies"), dependencyString);
+
+		// the jars referenced in the library capsule, and where they go on the classpath
+		if (!libraryJars.isEmpty()) {
+			mainAttributes.put(new Attributes.Name("Library-Capsule"), libraryIndex.file);
+			mainAttributes.put(new Attributes.Name("Library-Digest"), libraryIndex.digest);
+			mainAttributes.put(new Attributes.Name("Library-Class-Path"), libraryClassPathString());
+		}
 
 		final String repoString = repoString().trim();
 		if (!repoString.isEmpty() && setManifestRepos)
 			mainAttributes.put(new Attributes.Name("Repositories"), repoString);
 
-		// add MavenCapsule caplet (if needed) & others specified by user
+		// add MavenCapsule caplet (if needed) & others specified by user (and the class path index last, to see the final classpath)
+		String capletsString = this.caplets != null ? this.caplets : "";
 		if (resolveApp || resolveCompileDep || resolveRuntimeDep || resolveProvidedDep || resolveSystemDep || resolveTestDep)
-			mainAttributes.put(new Attributes.Name("Caplets"), (DEFAULT_CAPSULE_MAVEN_NAME + " " + this.caplets).trim());
-		else if (this.caplets != null && !this.caplets.isEmpty())
-			mainAttributes.put(new Attributes.Name("Caplets"), this.caplets.trim());
+			capletsString = DEFAULT_CAPSULE_MAVEN_NAME + " " + capletsString;
+		if (!libraryJars.isEmpty())
+			capletsString = capletsString.trim() + " " + LIBRARY_NAME;
+		if (classPathIndex)
+			capletsString = capletsString.trim() + " " + CLASS_PATH_INDEX_NAME;
+		if (classList != null)
+			capletsString = capletsString.trim() + " " + APP_CDS_NAME;
+		if (!capletsString.trim().isEmpty())
+			mainAttributes.put(new Attributes.Name("Caplets"), capletsString.trim());
 
 		// add properties
 		final String propertiesString = systemPropertiesString();
@@ -454,73 +980,113 @@ public class CapsuleMojo extends Mojo {
 			}
 		}
 
+		// launch with an archive of the classes of the training run (only in its mode, if it has one)
+		if (classList != null) {
+			Attributes appCdsAttributes = mainAttributes;
+			if (training.mode != null) {
+				appCdsAttributes = manifestBuild.getEntries().get(training.mode);
+				if (appCdsAttributes == null) {
+					appCdsAttributes = new Attributes();
+					manifestBuild.getEntries().put(training.mode, appCdsAttributes);
+				}
+			}
+			appCdsAttributes.put(new Attributes.Name("App-CDS"), "true");
+		}
+
 		// write to jar
 		final ByteArrayOutputStream dataStream = new ByteArrayOutputStream();
 		manifestBuild.write(dataStream);
 		final byte[] bytes = dataStream.toByteArray();
 		final ByteArrayInputStream manifestInputStream = new ByteArrayInputStream(bytes);
 
-		printManifest(manifestBuild);
+		if (print) printManifest(manifestBuild);
 
 		addToJar(JarFile.MANIFEST_NAME, manifestInputStream, jar);
 	}
 
-	private void addCapsuleClass(final JarOutputStream jar) throws IOException {
-		final JarInputStream capsuleJarInputStream = new JarInputStream(new FileInputStream(resolveCapsule()));
-
-		JarEntry entry;
-		while ((entry = capsuleJarInputStream.getNextJarEntry()) != null) // look for Capsule.class
-			if (entry.getName().equals(DEFAULT_CAPSULE_CLASS))
-				addToJar(DEFAULT_CAPSULE_CLASS, new ByteArrayInputStream(IOUtil.toByteArray(capsuleJarInputStream)), jar);
+	private void addCapsuleClass(final JarWriter jar) throws IOException {
+		final EntryCache.Filter capsuleClass = new EntryCache.Filter() {
+			@Override
+			public boolean accept(final String name) {
+				return name.equals(DEFAULT_CAPSULE_CLASS);
+			}
+		};
+		for (final EntryCache.Raw raw : cachedEntries("capsule", capsuleVersion, resolveCapsule(), "class", capsuleClass))
+			addToJar(raw, jar);
 	}
 
-	private void addCapletClasses(final JarOutputStream jar) throws IOException {
-		if (caplets != null && !caplets.isEmpty()) {
-			for (final Map.Entry<String, File> caplet : this.capletFiles.entrySet()) {
-				final String path = caplet.getValue().getPath();
-				addToJar(path.substring(path.indexOf("classes") + 8), new FileInputStream(caplet.getValue()), jar);
-				info("\t[Caplet] Embedded Caplet class " + caplet.getKey() + " from " + caplet.getValue());
-			}
+	private void addCapletClasses(final JarWriter jar) throws IOException {
+		for (final Map.Entry<String, File> caplet : this.capletFiles.entrySet()) {
+			addToJar(caplet.getKey(), caplet.getValue(), jar);
+			info("\t[Caplet] Embedded Caplet class " + caplet.getKey() + " from " + caplet.getValue());
 		}
+
+		// where capsule looks for the caplets given as coords before resolving them
+		for (final Map.Entry<String, File> caplet : this.capletJars.entrySet()) {
+			addDirectoryToJar(jar, CAPLET_JAR_DIR);
+			addToJar(CAPLET_JAR_DIR + caplet.getValue().getName(), caplet.getValue(), jar);
+			info("\t[Caplet] Embedded Caplet jar " + caplet.getKey() + " (" + caplet.getValue().getName() + ")");
+		}
+
+		// shipped with the plugin
+		if (classPathIndex) addPluginClass(CLASS_PATH_INDEX_CLASS, jar);
+		if (classList != null)
+			for (final String capletClass : APP_CDS_CLASSES)
+				addPluginClass(capletClass, jar);
+		if (!libraryJars.isEmpty())
+			for (final String capletClass : LIBRARY_CLASSES)
+				addPluginClass(capletClass, jar);
 	}
 
-	private void addMavenCapletClasses(final JarOutputStream jar) throws IOException {
+	private void addPluginClass(final String name, final JarWriter jar) throws IOException {
+		final InputStream capletClass = CapsuleMojo.class.getResourceAsStream("/" + name);
+		if (capletClass == null) throw new IOException(name + " not found in the plugin");
+		addToJar(name, capletClass, jar);
+		info("\t[Caplet] Embedded Caplet class " + name);
+	}
+
+	private void addMavenCapletClasses(final JarWriter jar) throws IOException {
 		if (resolveApp || resolveCompileDep || resolveRuntimeDep || resolveProvidedDep || resolveSystemDep || resolveTestDep) {
 
 			// get capsule maven classes
-			final JarInputStream capsuleJarInputStream = new JarInputStream(new FileInputStream(resolveCapsuleMaven()));
-
-			JarEntry entry;
-			while ((entry = capsuleJarInputStream.getNextJarEntry()) != null) {
-				if (entry.getName().contains("capsule") || entry.getName().equals(DEFAULT_CAPSULE_MAVEN_CLASS)) {
-					addToJar(entry.getName(), new ByteArrayInputStream(IOUtil.toByteArray(capsuleJarInputStream)), jar);
+			final EntryCache.Filter capsuleMavenClasses = new EntryCache.Filter() {
+				@Override
+				public boolean accept(final String name) {
+					return name.contains("capsule") || name.equals(DEFAULT_CAPSULE_MAVEN_CLASS);
 				}
-			}
+			};
+			for (final EntryCache.Raw raw : cachedEntries("capsule-maven", capsuleMavenVersion, resolveCapsuleMaven(), "classes", capsuleMavenClasses))
+				addToJar(raw, jar);
 			info("\t[Maven Caplet] Embedded Maven Caplet classes v" + capsuleMavenVersion + " (so capsule can resolve at launch)");
 		}
 	}
 
-	private void addApp(final JarOutputStream jar) throws IOException {
+	private void addApp(final JarWriter jar) throws IOException {
 		if (includeApp) {
 			try {
 				final File mainJarFile = new File(this.buildDir, this.finalName + ".jar");
-				addToJar(mainJarFile.getName(), new FileInputStream(mainJarFile), jar);
-				info("\t[App] App jar embedded (" + mainJarFile.getName() + ")");
+				final boolean ordered = loadOrder != null && mainJarFile.isFile();
+				addToJar(mainJarFile.getName(), ordered ? orderedAppJar(mainJarFile) : mainJarFile, jar);
+				embedded(mainJarFile.getName(), mainJarFile, coords(project.getArtifact()));
+				info("\t[App] App jar embedded (" + mainJarFile.getName() + (ordered ? ", in class load order" : "") + ")");
 			} catch (final FileNotFoundException e) { // if project jar wasn't built (perhaps the mvn package wasn't run, and only the mvn compile was run)
 				// add compiled project classes instead
 				warn("\t[App] Couldn't add main jar file to fat capsule, adding the project classes directly instead.");
 
 				final File classesDir = new File(this.buildDir, "classes");
+				final Map<String, File> classFiles = new TreeMap<>(); // sorted, as the walk order varies
 				Files.walkFileTree(classesDir.toPath(), new SimpleFileVisitor<Path>() {
 					@Override
-					public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) throws IOException {
-						if (!attrs.isDirectory() && !path.endsWith(".DS_Store") && !path.endsWith("MANIFEST.MF")) {
-							addToJar(path.toString().substring(path.toString().indexOf("classes") + 8), new FileInputStream(path.toFile()), jar);
-							debug("\t\t[App] Adding Compile Project Class to Capsule: [" + path.toFile().getPath() + "]");
-						}
+					public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+						if (!attrs.isDirectory() && !path.endsWith(".DS_Store") && !path.endsWith("MANIFEST.MF"))
+							classFiles.put(path.toString().substring(path.toString().indexOf("classes") + 8), path.toFile());
 						return FileVisitResult.CONTINUE;
 					}
 				});
+				for (final String name : loadOrder != null ? loadOrder.sortEntries(classFiles.keySet()) : classFiles.keySet()) {
+					addToJar(name, classFiles.get(name), jar);
+					debug("\t\t[App] Adding Compile Project Class to Capsule: [" + classFiles.get(name).getPath() + "]");
+				}
 				info("\t[App] App class files embedded.");
 			}
 		} else if (resolveApp) {
@@ -530,17 +1096,12 @@ public class CapsuleMojo extends Mojo {
 		}
 	}
 
-	private void addDependencies(final JarOutputStream jar) throws IOException {
+	private void addDependencies(final JarWriter jar) throws IOException {
 
 		// go through dependencies
 		final Set<Artifact> artifacts = includeTransitiveDep ? includedDependencyArtifacts() : includedDirectDependencyArtifacts();
 
-		for (final Artifact artifact : artifacts) {
-
-			final String scope = artifact.getScope() == null || artifact.getScope().isEmpty() ? "compile" : artifact.getScope();
-
-			boolean optionalMatch = true;
-			if (artifact.isOptional()) optionalMatch = includeOptionalDep;
+		for (final Artifact artifact : ordered(artifacts)) {
 
 			// check artifact has a file
 			if (artifact.getFile() == null)
@@ -551,21 +1112,121 @@ public class CapsuleMojo extends Mojo {
 				continue;
 
 			// check against requested scopes
-			if (
-					(includeCompileDep && scope.equals("compile") && optionalMatch) ||
-							(includeRuntimeDep && scope.equals("runtime") && optionalMatch) ||
-							(includeProvidedDep && scope.equals("provided") && optionalMatch) ||
-							(includeSystemDep && scope.equals("system") && optionalMatch) ||
-							(includeTestDep && scope.equals("test") && optionalMatch)
-					) {
-				addToJar(artifact.getFile().getName(), new FileInputStream(artifact.getFile()), jar);
-				info("\t[Embedded-Dependency] " + coords(artifact) + "(" + scope + ")");
+			if (isEmbedded(artifact)) {
+				final String scope = artifact.getScope() == null || artifact.getScope().isEmpty() ? "compile" : artifact.getScope();
+				if (libraryJars.containsKey(coords(artifact))) {
+					info("\t[Library-Dependency] " + coords(artifact) + "(" + scope + ") referenced in " + libraryIndex.file);
+					continue;
+				}
+				if (redundantJars.contains(coords(artifact))) {
+					info("\t[Duplicate-Dependency] " + coords(artifact) + "(" + scope + ") left out, all of it is in the other jars");
+					continue;
+				}
+				final File copy = copy(artifact.getFile());
+				addToJar(artifact.getFile().getName(), copy, jar);
+				embedded(artifact.getFile().getName(), copy, coords(artifact));
+				info("\t[Embedded-Dependency] " + coords(artifact) + "(" + scope + (copy != artifact.getFile() ? ", " + copy.getParentFile().getName() : "") + ")");
 			} else
 				debug("\t[Dependency] " + coords(artifact) + "(" + artifact.getScope() + ") skipped, as it does not match any required scope");
 		}
 	}
 
-	private void addFileSets(final JarOutputStream jar) throws IOException {
+	// whether the dependency is embedded, by its scope (and whether it's optional)
+	private boolean isEmbedded(final Artifact artifact) {
+		final String scope = artifact.getScope() == null || artifact.getScope().isEmpty() ? "compile" : artifact.getScope();
+
+		boolean optionalMatch = true;
+		if (artifact.isOptional()) optionalMatch = includeOptionalDep;
+
+		return (includeCompileDep && scope.equals("compile") && optionalMatch) ||
+				(includeRuntimeDep && scope.equals("runtime") && optionalMatch) ||
+				(includeProvidedDep && scope.equals("provided") && optionalMatch) ||
+				(includeSystemDep && scope.equals("system") && optionalMatch) ||
+				(includeTestDep && scope.equals("test") && optionalMatch);
+	}
+
+	// whether the dependency is resolved at launch, by its scope (and whether it's optional)
+	private boolean isResolvedAtLaunch(final Artifact artifact) {
+		final String scope = artifact.getScope() == null || artifact.getScope().isEmpty() ? "compile" : artifact.getScope();
+
+		boolean optionalMatch = true;
+		if (artifact.isOptional()) optionalMatch = resolveOptionalDep;
+
+		return (resolveCompileDep && scope.equals("compile") && optionalMatch) ||
+				(resolveRuntimeDep && scope.equals("runtime") && optionalMatch) ||
+				(resolveProvidedDep && scope.equals("provided") && optionalMatch) ||
+				(resolveSystemDep && scope.equals("system") && optionalMatch) ||
+				(resolveTestDep && scope.equals("test") && optionalMatch);
+	}
+
+	private void embedded(final String name, final File file, final String coords) {
+		if (embeddedJars.containsKey(name)) return; // duplicate entries are ignored
+		embeddedJars.put(name, file);
+		embeddedCoords.put(name, coords);
+	}
+
+	// the packages of each embedded jar (in the format of the sections of a jar index), read from their central directory
+	private void addClassPathIndex(final JarWriter jar) throws IOException {
+		if (!classPathIndex) return;
+
+		// every embedded jar must be an Embedded-Artifact and the other way round, or the index would be lying
+		final Set<String> artifacts = new HashSet<>();
+		for (final String artifact : artifactString().trim().split("\\s+"))
+			if (!artifact.isEmpty()) artifacts.add(artifact.replaceFirst("\\(.*\\)$", "")); // without the exclusions
+		final Set<String> indexed = new HashSet<>(embeddedCoords.values());
+		if (!indexed.equals(artifacts)) {
+			final Set<String> missing = new TreeSet<>(artifacts);
+			missing.removeAll(indexed);
+			final Set<String> extra = new TreeSet<>(indexed);
+			extra.removeAll(artifacts);
+			warn("\t[Class Path Index] Embedded jars don't match the Embedded-Artifacts (missing " + missing + ", not listed " + extra + "), index NOT added.");
+			return;
+		}
+
+		// the capsule itself is on the classpath too (ahead of the embedded jars), so its own packages are left to the
+		// usual search, to be found in the capsule first as without the index
+		final Set<String> capsulePackages = new HashSet<>();
+		for (final String name : jar.names())
+			addPackage(capsulePackages, name);
+
+		final StringBuilder index = new StringBuilder("JarIndex-Version: 1.0\n\n");
+		int packages = 0;
+		for (final Map.Entry<String, File> embedded : embeddedJars.entrySet()) {
+			final Set<String> jarPackages = new TreeSet<>();
+			try (final JarReader reader = new JarReader(embedded.getValue())) {
+				for (final JarReader.Entry entry : reader.entries())
+					addPackage(jarPackages, entry.getName());
+			} catch (final IOException e) {
+				warn("\t[Class Path Index] Failed to read " + embedded.getKey() + " (" + e.getMessage() + "), index NOT added.");
+				return;
+			}
+			jarPackages.removeAll(capsulePackages);
+			index.append(embedded.getKey()).append('\n');
+			for (final String jarPackage : jarPackages)
+				index.append(jarPackage).append('\n');
+			index.append('\n');
+			packages += jarPackages.size();
+		}
+		addDirectoryToJar(jar, CLASS_PATH_INDEX.substring(0, CLASS_PATH_INDEX.lastIndexOf('/') + 1));
+		addToJar(CLASS_PATH_INDEX, new ByteArrayInputStream(index.toString().getBytes("UTF-8")), jar);
+		info("\t[Class Path Index] " + packages + " packages of " + embeddedJars.size() + " jars indexed");
+	}
+
+	private void addAppCds(final JarWriter jar) throws IOException {
+		if (classList == null) return;
+		addDirectoryToJar(jar, APP_CDS_CLASS_LIST.substring(0, APP_CDS_CLASS_LIST.lastIndexOf('/') + 1));
+		addToJar(APP_CDS_CLASS_LIST, new ByteArrayInputStream(classList), jar);
+		info("\t[App CDS] Class list of the training run embedded (archived at launch" + (training.mode != null ? " in mode " + training.mode : "") + ")");
+	}
+
+	// root entries and META-INF (e.g. services, found in every jar) are left to the usual search
+	private static void addPackage(final Set<String> packages, final String name) {
+		final int slash = name.lastIndexOf('/');
+		if (slash > 0 && slash < name.length() - 1 && !name.startsWith("META-INF/"))
+			packages.add(name.substring(0, slash));
+	}
+
+	private void addFileSets(final JarWriter jar) throws IOException {
 		if (fileSets == null) return;
 
 		for (final FileSet fileSet : fileSets) {
@@ -586,88 +1247,70 @@ public class CapsuleMojo extends Mojo {
 
 				final String outputDirectory = addDirectoryToJar(jar, fileSet.outputDirectory);
 
-				final Set<File> matchedEntries = new HashSet<>();
-
-				// get files entries based on direct files under dir (i.e ignore un sub dirs)
-				final Set<File> entries = new HashSet<>();
-
-				final File[] files = directory.listFiles();
-				if (files != null) {
-					for (final File file : files) {
-						if (!file.isDirectory())
-							entries.add(file);
-					}
+				// walk the whole tree once, matching the relative paths against all the patterns (sorted, as the walk order varies)
+				// the files matched by plain includes go straight into the output directory, as they always have, while
+				// those matched by '**', a trailing '/' or no includes at all keep their path under the directory
+				final List<String> plainIncludes = new ArrayList<>();
+				final List<String> treeIncludes = new ArrayList<>();
+				if (fileSet.includes != null) {
+					for (final String include : fileSet.includes)
+						if (include != null && !include.trim().isEmpty()) (isPlainInclude(include) ? plainIncludes : treeIncludes).add(include);
 				}
-
-				for (final File entry : entries) {
-					System.out.println(entry.toString());
-				}
-
-				for (final String include : fileSet.includes) {
-
-					if (include.contains("*")) { // wildcard
-
-						// quick hack to find number of wildcards
-						final int starCount = include.length() - include.replace("*", "").length();
-
-						// max one wildcard allowed
-						if (starCount > 1) {
-							warn("\t[FileSet]: More than one asterisk (*) found in include, skipping... | " + include);
-							continue;
-						}
-
-						// if start
-						if (include.startsWith("*")) {
-							final String toMatch = include.substring(1);
-							for (final File entry : entries) {
-								if (entry.getName().endsWith(toMatch)) {
-									matchedEntries.add(entry);
-								}
-							}
-						}
-
-						// if end
-						else if (include.endsWith("*")) {
-							final String toMatch = include.substring(0, include.length() - 1);
-							for (final File entry : entries) {
-								if (entry.getName().startsWith(toMatch)) {
-									matchedEntries.add(entry);
-								}
-							}
-						}
-
-						// if middle (check start and end match)
-						else {
-							final String[] split = include.split("\\*");
-							for (final File entry : entries) {
-								if (entry.getName().startsWith(split[0]) && entry.getName().endsWith(split[1])) {
-									matchedEntries.add(entry);
-								}
-							}
+				final Glob plain = plainIncludes.isEmpty() ? null : Glob.compile(plainIncludes.toArray(new String[0]), fileSet.excludes);
+				final Glob tree = !treeIncludes.isEmpty() || plain == null ? Glob.compile(treeIncludes.toArray(new String[0]), fileSet.excludes) : null;
+				final Map<String, File> matchedFiles = new TreeMap<>();
+				final Set<String> flattened = new HashSet<>();
+				final Path root = directory.toPath();
+				Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+						if (!attrs.isRegularFile()) return FileVisitResult.CONTINUE;
+						final String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+						if (tree != null && tree.matches(name)) matchedFiles.put(name, path.toFile());
+						else if (plain != null && plain.matches(name)) {
+							matchedFiles.put(name, path.toFile());
+							flattened.add(name);
 						}
-
-					} else { // match exact (no wildcard)
-						matchedEntries.add(new File(directory, include));
+						return FileVisitResult.CONTINUE;
 					}
+				});
+				// of the files flattened to the same name, the first (by path) is embedded
+				final Map<String, File> matchedEntries = new TreeMap<>();
+				for (final Map.Entry<String, File> file : matchedFiles.entrySet()) {
+					final String name = flattened.contains(file.getKey()) ? file.getValue().getName() : file.getKey();
+					if (!matchedEntries.containsKey(name)) matchedEntries.put(name, file.getValue());
+				}
 
+				// add all entries matched
 
-					// add all entries matched
-
-					if (!matchedEntries.isEmpty()) {
-						for (final File entry : matchedEntries) {
-							addToJar(outputDirectory + entry.getName(), new FileInputStream(entry), jar);
-							info("\t[FileSet]: Embedded " + outputDirectory + entry.getName() + " from " + directory);
-						}
-					} else {
-						warn("\t[FileSet]: No matches found in " + directory);
+				if (!matchedEntries.isEmpty()) {
+					for (final Map.Entry<String, File> entry : matchedEntries.entrySet()) {
+						final int slash = entry.getKey().lastIndexOf('/');
+						if (slash != -1) addParentDirectoriesToJar(jar, outputDirectory, entry.getKey().substring(0, slash + 1));
+						addToJar(outputDirectory + entry.getKey(), entry.getValue(), jar);
+						info("\t[FileSet]: Embedded " + outputDirectory + entry.getKey() + " from " + directory);
 					}
-
+				} else {
+					warn("\t[FileSet]: No matches found in " + directory);
 				}
 			}
 		}
 	}
 
-	private void addDependencySets(final JarOutputStream jar) throws IOException {
+	// an include of the syntax fileSets had before the Ant style patterns, i.e without '**' or a trailing '/'
+	private static boolean isPlainInclude(final String include) {
+		final String pattern = include.trim().replace('\\', '/');
+		return !pattern.contains("**") && !pattern.endsWith("/");
+	}
+
+	// i.e for a/b/ adds a/ and a/b/ (duplicates are ignored)
+	private void addParentDirectoriesToJar(final JarWriter jar, final String outputDirectory, final String directory) throws IOException {
+		int slash = -1;
+		while ((slash = directory.indexOf('/', slash + 1)) != -1)
+			jar.addDirectory(outputDirectory + directory.substring(0, slash + 1));
+	}
+
+	private void addDependencySets(final JarWriter jar) throws IOException {
 		if (dependencySets == null) return;
 
 		for (final DependencySet dependencySet : dependencySets) {
@@ -680,87 +1323,40 @@ public class CapsuleMojo extends Mojo {
 				continue;
 			}
 
-			final JarFile jarFile = new JarFile(artifact.getFile());
-
-			final Set<JarEntry> entries = set(jarFile.entries());
-
 			final String outputDirectory = addDirectoryToJar(jar, dependencySet.outputDirectory);
 
 			// if includes is set add only specified
 			if (dependencySet.includes != null && dependencySet.includes.length > 0) {
-				final Set<ZipEntry> matchedEntries = new HashSet<>();
-
-				for (final String include : dependencySet.includes) {
-
-					if (include.contains("*")) { // wildcard
-
-						// quick hack to find number of wildcards
-						final int starCount = include.length() - include.replace("*", "").length();
-
-						// max one wildcard allowed
-						if (starCount > 1) {
-							warn("\t[DependencySet]: More than one asterisk (*) found in include, skipping... | " + include);
-							continue;
-						}
-
-						// if start
-						if (include.startsWith("*")) {
-							final String toMatch = include.substring(1);
-							for (final ZipEntry entry : entries) {
-								if (entry.getName().endsWith(toMatch)) {
-									matchedEntries.add(entry);
-								}
-							}
-						}
-
-						// if end
-						else if (include.endsWith("*")) {
-							final String toMatch = include.substring(0, include.length() - 1);
-							for (final ZipEntry entry : entries) {
-								if (entry.getName().startsWith(toMatch)) {
-									matchedEntries.add(entry);
-								}
-							}
-						}
-
-						// if middle (check start and end match)
-						else {
-							final String[] split = include.split("\\*");
-							for (final ZipEntry entry : entries) {
-								if (entry.getName().startsWith(split[0]) && entry.getName().endsWith(split[1])) {
-									matchedEntries.add(entry);
-								}
-							}
-						}
-
-					} else { // match exact (no wildcard)
-						matchedEntries.add(jarFile.getEntry(include));
-					}
-
-				}
-
-				// add all entries matched
-
-				if (!matchedEntries.isEmpty()) {
-					for (final ZipEntry entry : matchedEntries) {
-						addToJar(outputDirectory + entry.getName(), jarFile.getInputStream(entry), jar);
+				try (final JarReader jarFile = new JarReader(artifact.getFile())) {
+
+					// a single pass over the entries (in their order in the jar), matching each against all the patterns
+					// and skipping those outside the prefix common to all the includes without decoding them
+					final Glob glob = Glob.compile(dependencySet.includes, dependencySet.excludes, true);
+					int matched = 0;
+					for (final JarReader.Entry entry : jarFile.entries(glob.prefix())) {
+						if (!glob.matches(entry.getName())) continue;
+						addToJar(outputDirectory + entry.getName(), jarFile, entry, jar);
 						info("\t[DependencySet]: Embedded from " + coords(artifact) + " > " + outputDirectory + entry.getName());
+						matched++;
 					}
-				} else {
-					warn("\t[DependencySet]: No matches found in " + artifact.getFile());
+					if (matched == 0) warn("\t[DependencySet]: No matches found in " + artifact.getFile());
 				}
 
 				// else add whole file
 			} else {
 				if (!dependencySet.unpack) {
 					info("\t[DependencySet]: Adding " + artifact.getFile().getName() + " to " + outputDirectory);
-					addToJar(outputDirectory + artifact.getFile().getName(), new FileInputStream(artifact.getFile()), jar);
+					addToJar(outputDirectory + artifact.getFile().getName(), artifact.getFile(), jar);
 				} else {
 					if (artifact.getType() != null && artifact.getType().equals("jar")) {
 						info("\t[DependencySet]: Adding (unpacked) " + artifact.getFile().getName() + " to " + outputDirectory);
-						for (final ZipEntry entry : entries) {
-							debug("\t\t[DependencySet]: Adding (unpacked) " + outputDirectory + entry.getName());
-							addToJar(outputDirectory + entry.getName(), jarFile.getInputStream(entry), jar);
+						final Glob glob = Glob.compile(null, dependencySet.excludes, true);
+						try (final JarReader jarFile = new JarReader(artifact.getFile())) {
+							for (final JarReader.Entry entry : jarFile.entries()) {
+								if (!glob.matches(entry.getName())) continue;
+								debug("\t\t[DependencySet]: Adding (unpacked) " + outputDirectory + entry.getName());
+								addToJar(outputDirectory + entry.getName(), jarFile, entry, jar);
+							}
 						}
 					} else {
 						warn("\t[DependencySet]: Cannot unpack " + artifact.getFile().getName() + " as it is not in jar format.");
@@ -771,18 +1367,36 @@ public class CapsuleMojo extends Mojo {
 		}
 	}
 
-	private void addChmodCopy(final File jar) throws IOException {
+	private File addChmodVariant(final File jar, final JarWriter jarStream) throws IOException {
 		if (this.chmod) {
-			final File file = createExecCopyProcess(jar, EXEC_PREFIX, ".x");
+			final File file = addExecVariant(jar, jarStream, EXEC_PREFIX, ".x");
 			info("[Capsule CHMOD]: " + file.getName());
+			return file;
 		}
+		return null;
 	}
 
-	private void addTrampolineCopy(final File jar) throws IOException {
+	private File addTrampolineVariant(final File jar, final JarWriter jarStream) throws IOException {
 		if (this.trampoline) {
-			final File file = createExecCopyProcess(jar, EXEC_TRAMPOLINE_PREFIX, ".tx");
+			final File file = addExecVariant(jar, jarStream, EXEC_TRAMPOLINE_PREFIX, ".tx");
 			info("[Capsule Trampoline]: " + file.getName());
+			return file;
+		}
+		return null;
+	}
+
+	// the embedded jars (by file name) and the library jars (by entry name, group/file) in classpath order
+	private String libraryClassPathString() {
+		final StringBuilder classPath = new StringBuilder();
+		if (includeApp && new File(this.buildDir, this.finalName + ".jar").isFile()) classPath.append(this.finalName).append(".jar ");
+		for (final Artifact artifact : ordered(includeTransitiveDep ? includedDependencyArtifacts() : includedDirectDependencyArtifacts())) {
+			if (artifact.getFile() == null || !isEmbedded(artifact)) continue;
+			if (artifact.getGroupId().equalsIgnoreCase(CAPSULE_GROUP) && artifact.getArtifactId().equalsIgnoreCase(DEFAULT_CAPSULE_NAME)) continue;
+			if (redundantJars.contains(coords(artifact))) continue;
+			final String entry = libraryJars.get(coords(artifact));
+			classPath.append(entry != null ? entry : artifact.getFile().getName()).append(" ");
 		}
+		return classPath.toString().trim();
 	}
 
 	// STRINGS
@@ -824,30 +1438,12 @@ public class CapsuleMojo extends Mojo {
 
 		if (includeApp) artifactList.append(coords(project.getArtifact())).append(" ");
 
-		// go through artifacts
+		// go through artifacts (but those referenced in the library, or left out as redundant)
 		final Set<Dependency> dependencies = includeTransitiveDep ? includedDependencies() : includedDirectDependencies();
-
-		for (final Dependency dependency : dependencies) {
-
-			final String scope = dependency.getScope() == null || dependency.getScope().isEmpty() ? "compile" : dependency.getScope();
-
-			boolean optionalMatch = true;
-			if (dependency.isOptional()) optionalMatch = includeOptionalDep;
-
-			// ignore capsule jar
-			if (dependency.getGroupId().equalsIgnoreCase(CAPSULE_GROUP) && dependency.getArtifactId().equalsIgnoreCase(DEFAULT_CAPSULE_NAME))
-				continue;
-
-			// check against requested scopes
-			if (
-					(includeCompileDep && scope.equals("compile") && optionalMatch) ||
-							(includeRuntimeDep && scope.equals("runtime") && optionalMatch) ||
-							(includeProvidedDep && scope.equals("provided") && optionalMatch) ||
-							(includeSystemDep && scope.equals("system") && optionalMatch) ||
-							(includeTestDep && scope.equals("test") && optionalMatch)
-					)
-				artifactList.append(coordsWithExclusions(dependency)).append(" ");
-		}
+		final Set<String> leftOut = new HashSet<>(libraryJars.keySet());
+		leftOut.addAll(redundantJars);
+		artifactList.append(coordsList(orderedDependencies(dependencies),
+				scopes(includeCompileDep, includeRuntimeDep, includeProvidedDep, includeSystemDep, includeTestDep), includeOptionalDep, leftOut));
 
 		return artifactList.toString();
 	}
@@ -861,30 +1457,59 @@ public class CapsuleMojo extends Mojo {
 
 		// go through dependencies
 		final Set<Dependency> dependencies = resolveTransitiveDep ? resolvedDependencies() : resolvedDirectDependencies();
+		dependenciesList.append(coordsList(orderedDependencies(dependencies),
+				scopes(resolveCompileDep, resolveRuntimeDep, resolveProvidedDep, resolveSystemDep, resolveTestDep), resolveOptionalDep,
+				Collections.<String>emptySet()));
 
-		for (final Dependency dependency : dependencies) {
+		return dependenciesList.toString();
+	}
 
-			final String scope = dependency.getScope() == null || dependency.getScope().isEmpty() ? "compile" : dependency.getScope();
+	/**
+	 * The manifest with the attributes every capsule has, and the Embedded-Artifacts and Dependencies lists (if any).
+	 */
+	static Manifest manifest(final String appClass, final String name, final String buildInfo, final String artifacts, final String dependencies) {
+		final Manifest manifest = new Manifest();
+		final Attributes mainAttributes = manifest.getMainAttributes();
+		mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		mainAttributes.put(Attributes.Name.MAIN_CLASS, DEFAULT_CAPSULE_NAME);
+		mainAttributes.put(new Attributes.Name("Application-Class"), appClass);
+		mainAttributes.put(new Attributes.Name("Application-Name"), name);
+		mainAttributes.put(new Attributes.Name("Premain-Class"), DEFAULT_CAPSULE_NAME);
+		mainAttributes.put(new Attributes.Name("Build-Info"), buildInfo);
+		if (!artifacts.isEmpty())
+			mainAttributes.put(new Attributes.Name("Embedded-Artifacts"), artifacts);
+		if (!dependencies.isEmpty())
+			mainAttributes.put(new Attributes.Name("Dependencies"), dependencies);
+		return manifest;
+	}
 
-			boolean optionalMatch = true;
-			if (dependency.isOptional()) optionalMatch = resolveOptionalDep;
+	/**
+	 * The coords (with exclusions) of the dependencies of the given scopes, space separated, but the capsule jar and
+	 * those left out.
+	 */
+	static String coordsList(final Iterable<Dependency> dependencies, final Set<String> scopes, final boolean optional, final Set<String> leftOut) {
+		final StringBuilder list = new StringBuilder();
+		for (final Dependency dependency : dependencies) {
+			final String scope = dependency.getScope() == null || dependency.getScope().isEmpty() ? "compile" : dependency.getScope();
+			if (dependency.isOptional() && !optional) continue;
 
 			// ignore capsule jar
 			if (dependency.getGroupId().equalsIgnoreCase(CAPSULE_GROUP) && dependency.getArtifactId().equalsIgnoreCase(DEFAULT_CAPSULE_NAME))
 				continue;
 
-			// check against requested scopes
-			if (
-					(resolveCompileDep && scope.equals("compile") && optionalMatch) ||
-							(resolveRuntimeDep && scope.equals("runtime") && optionalMatch) ||
-							(resolveProvidedDep && scope.equals("provided") && optionalMatch) ||
-							(resolveSystemDep && scope.equals("system") && optionalMatch) ||
-							(resolveTestDep && scope.equals("test") && optionalMatch)
-					)
-				dependenciesList.append(coordsWithExclusions(dependency)).append(" ");
+			if (scopes.contains(scope) && !leftOut.contains(coords(dependency))) list.append(coordsWithExclusions(dependency)).append(" ");
 		}
+		return list.toString();
+	}
 
-		return dependenciesList.toString();
+	static Set<String> scopes(final boolean compile, final boolean runtime, final boolean provided, final boolean system, final boolean test) {
+		final Set<String> scopes = new HashSet<>();
+		if (compile) scopes.add("compile");
+		if (runtime) scopes.add("runtime");
+		if (provided) scopes.add("provided");
+		if (system) scopes.add("system");
+		if (test) scopes.add("test");
+		return scopes;
 	}
 
 	private String systemPropertiesString() {
@@ -921,34 +1546,300 @@ public class CapsuleMojo extends Mojo {
 		return propertiesList == null ? null : propertiesList.toString().trim();
 	}
 
-	private File createExecCopyProcess(final File jar, final String prefix, final String extension) throws IOException {
+	private File addExecVariant(final File jar, final JarWriter jarStream, final String prefix, final String extension) throws IOException {
 		final File x = new File(jar.getPath().replace(".jar", extension));
 		if (x.exists()) {
-			debug("EXISTS - " + x.getName());
-			return x;
+			debug("EXISTS - " + x.getName() + " (WILL OVERWRITE)");
+			if (!x.delete()) warn("FAILED TO DELETE - " + x.getName());
 		}
+		jarStream.addVariant(output(x), prefix.getBytes("ASCII"));
+		return x;
+	}
+
+	// the writer thread writes in large buffers straight to the file's channel, otherwise buffer the writes
+	private OutputStream output(final File file) throws IOException {
+		final FileOutputStream out = new FileOutputStream(file);
+		return writeQueueDepth > 0 ? out : new BufferedOutputStream(out, 64 * 1024);
+	}
 
-		FileOutputStream out = null;
-		FileInputStream in = null;
+	private void deletePartial(final File... files) {
+		for (final File file : files)
+			if (file != null && file.exists() && !file.delete()) warn("FAILED TO DELETE - " + file.getName());
+	}
+
+	private void markExecutable(final File x) {
+		if (x == null) return;
+		//			Runtime.getRuntime().exec("chmod +x " + x.getAbsolutePath());
+		final boolean execResult = x.setExecutable(true, false);
+		if (!execResult)
+			warn("Failed to mark file executable - " + x.getAbsolutePath());
+	}
+
+	// INCREMENTAL
+
+	/**
+	 * Digest of everything that goes into the capsule: the plugin configuration, the manifest, and the path, size and
+	 * modification time of every file that would be embedded.
+	 */
+	private String fingerprint() throws IOException {
+		final StringBuilder inputs = new StringBuilder();
+		final Plugin plugin = plugin();
+		inputs.append("plugin=").append(plugin != null ? plugin.getVersion() : "").append('\n');
+		inputs.append("pluginJar=").append(stamp(pluginJar())).append('\n'); // catches snapshot changes
+		inputs.append("capsuleVersion=").append(capsuleVersion).append('\n');
+		inputs.append("capsuleMavenVersion=").append(capsuleMavenVersion).append('\n');
+		inputs.append("appClass=").append(appClass).append('\n');
+		inputs.append("outputName=").append(outputName).append('\n');
+		inputs.append("caplets=").append(caplets).append(" classPathIndex=").append(classPathIndex).append('\n');
+		inputs.append("chmod=").append(chmod).append(" trampoline=").append(trampoline).append('\n');
+		if (training != null) inputs.append("training=").append(training).append('\n');
+		if (appCache != null) inputs.append("appCache=").append(appCache).append('\n');
+		if (library != null) inputs.append("library=").append(stamp(library)).append('\n');
+		if (shrink != null) inputs.append("shrink=").append(shrink).append('\n');
+		if (duplicates != null) inputs.append("duplicates=").append(duplicates).append('\n');
+		inputs.append("conflicts=").append(conflicts).append('\n');
+		inputs.append("compression=").append(compression).append('\n');
+		inputs.append("outputTimestamp=").append(outputTime()).append('\n');
+		inputs.append("buildInfo=").append(buildInfoString()).append('\n');
+		inputs.append("optional=").append(includeOptionalDep).append(" ").append(resolveOptionalDep).append('\n');
+		inputs.append("app=").append(coords(project.getArtifact())).append('\n');
+		inputs.append("artifacts=").append(sorted(artifactString())).append('\n');
+		inputs.append("dependencies=").append(sorted(dependencyString())).append('\n');
+		if (setManifestRepos) inputs.append("repos=").append(repoString()).append('\n');
+		inputs.append("properties=").append(systemPropertiesString()).append('\n');
+		if (execConfig != null) inputs.append("exec=").append(execConfig.toString()).append('\n');
+		if (manifest != null)
+			for (final Pair<String, String> entry : manifest)
+				inputs.append("manifest=").append(entry.key).append(":").append(entry.value).append('\n');
+		if (modes != null)
+			for (final Mode mode : modes) {
+				inputs.append("mode=").append(mode.name).append('\n');
+				if (mode.manifest != null)
+					for (final Pair<String, String> entry : mode.manifest)
+						inputs.append("\tmanifest=").append(entry.key).append(":").append(entry.value).append('\n');
+				if (mode.properties != null)
+					for (final Pair<String, String> property : mode.properties)
+						inputs.append("\tproperty=").append(property.key).append("=").append(property.value).append('\n');
+			}
+
+		// files (sorted, as some of the sources are unordered sets)
+		final Set<String> files = new TreeSet<>();
+		if (includeApp) {
+			final File mainJarFile = new File(this.buildDir, this.finalName + ".jar");
+			if (mainJarFile.exists()) files.add("app " + stamp(mainJarFile));
+			else files.addAll(stamps("app", new File(this.buildDir, "classes")));
+		}
+		for (final Map.Entry<String, File> caplet : capletFiles.entrySet())
+			files.add("caplet " + caplet.getKey() + " " + stamp(caplet.getValue()));
+		for (final Map.Entry<String, File> caplet : capletJars.entrySet())
+			files.add("caplet " + caplet.getKey() + " " + stamp(caplet.getValue()));
+		for (final Artifact artifact : includeTransitiveDep ? includedDependencyArtifacts() : includedDirectDependencyArtifacts())
+			files.add("dependency " + coords(artifact) + " " + artifact.getScope() + " " + artifact.isOptional() + " " + stamp(artifact.getFile()));
+		if (fileSets != null)
+			for (final FileSet fileSet : fileSets) {
+				inputs.append("fileSet=").append(fileSet.directory).append(" > ").append(fileSet.outputDirectory)
+						.append(" ").append(fileSet.includes != null ? Arrays.toString(fileSet.includes) : "")
+						.append(" ").append(fileSet.excludes != null ? Arrays.toString(fileSet.excludes) : "").append('\n');
+				if (fileSet.directory != null && !fileSet.directory.isEmpty()) {
+					final File fileSetDir = new File(fileSet.directory);
+					files.addAll(stamps("fileSet", fileSetDir.isAbsolute() ? fileSetDir : new File(baseDir, fileSet.directory)));
+				}
+			}
+		if (dependencySets != null)
+			for (final DependencySet dependencySet : dependencySets) {
+				inputs.append("dependencySet=").append(dependencySet).append(" > ").append(dependencySet.outputDirectory)
+						.append(" ").append(dependencySet.includes != null ? Arrays.toString(dependencySet.includes) : "")
+						.append(" ").append(dependencySet.excludes != null ? Arrays.toString(dependencySet.excludes) : "")
+						.append(" ").append(dependencySet.unpack).append('\n');
+				final ArtifactResult artifactResult = resolve(dependencySet.toString());
+				if (artifactResult != null)
+					files.add("dependencySet " + dependencySet + " " + stamp(artifactResult.getArtifact().getFile()));
+			}
+		for (final String file : files)
+			inputs.append(file).append('\n');
+
+		return digest(inputs.toString());
+	}
+
+	private boolean isUpToDate(final File fingerprintFile, final String fingerprint, final File jar) throws IOException {
+		if (!fingerprintFile.isFile()) return false;
+		final String recorded = new String(Files.readAllBytes(fingerprintFile.toPath()), "UTF-8");
+		return recorded.equals(fingerprintRecord(fingerprint, jar));
+	}
+
+	private void writeFingerprint(final File fingerprintFile, final String fingerprint, final File jar) throws IOException {
+		final File fingerprintDir = fingerprintFile.getParentFile();
+		if (!fingerprintDir.exists() && !fingerprintDir.mkdirs())
+			throw new IOException("Failed to create " + fingerprintDir);
+		Files.write(fingerprintFile.toPath(), fingerprintRecord(fingerprint, jar).getBytes("UTF-8"));
+	}
+
+	// the fingerprint plus the state of the outputs, so any change to the outputs themselves also triggers a build
+	private String fingerprintRecord(final String fingerprint, final File jar) {
+		final StringBuilder record = new StringBuilder(fingerprint).append('\n');
+		record.append(stamp(jar)).append('\n');
+		if (chmod) record.append(stamp(new File(jar.getPath().replace(".jar", ".x")))).append('\n');
+		if (trampoline) record.append(stamp(new File(jar.getPath().replace(".jar", ".tx")))).append('\n');
+		if (appCache == AppCache.tar) record.append(stamp(appCacheFile(jar))).append('\n');
+		if (appCache == AppCache.dir) record.append(stamp(new File(appCacheFile(jar), "apps/" + appId() + "/.extracted"))).append('\n');
+		return record.toString();
+	}
+
+	private File pluginJar() {
 		try {
-			out = new FileOutputStream(x);
-			in = new FileInputStream(jar);
-			out.write((prefix).getBytes("ASCII"));
-			Files.copy(jar.toPath(), out);
-			out.flush();
-			//			Runtime.getRuntime().exec("chmod +x " + x.getAbsolutePath());
-			final boolean execResult = x.setExecutable(true, false);
-			if (!execResult)
-				warn("Failed to mark file executable - " + x.getAbsolutePath());
-		} finally {
-			IOUtil.close(in);
-			IOUtil.close(out);
+			return new File(getClass().getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (final Exception e) {
+			return null;
+		}
+	}
+
+	private static String stamp(final File file) {
+		if (file == null) return "null";
+		if (!file.exists()) return file.getAbsolutePath() + " missing";
+		return file.getAbsolutePath() + " " + file.length() + " " + file.lastModified();
+	}
+
+	private static Set<String> stamps(final String label, final File directory) throws IOException {
+		final Set<String> stamps = new TreeSet<>();
+		if (!directory.isDirectory()) {
+			stamps.add(label + " " + stamp(directory));
+			return stamps;
+		}
+		Files.walkFileTree(directory.toPath(), new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+				stamps.add(label + " " + path.toAbsolutePath() + " " + attrs.size() + " " + attrs.lastModifiedTime().toMillis());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return stamps;
+	}
+
+	private static String sorted(final String list) {
+		final Set<String> items = new TreeSet<>(Arrays.asList(list.trim().split(" ")));
+		final StringBuilder builder = new StringBuilder();
+		for (final String item : items)
+			builder.append(item).append(" ");
+		return builder.toString().trim();
+	}
+
+	private static String digest(final String inputs) throws IOException {
+		try {
+			return hex(MessageDigest.getInstance("SHA-256").digest(inputs.getBytes("UTF-8")));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
 		}
-		return x;
 	}
 
 	// RESOLVERS
 
+	// the entries of the capsule jars are cached for releases (snapshots may change under the same version), under the
+	// name of the filter and the version of the plugin (whose filters may accept other entries in another release)
+	private List<EntryCache.Raw> cachedEntries(final String artifactId, final String version, final File jar, final String filterName,
+			final EntryCache.Filter filter) throws IOException {
+		if (version.endsWith("SNAPSHOT") || pluginVersion == null || pluginVersion.endsWith("SNAPSHOT")) return EntryCache.read(jar, filter);
+		return EntryCache.get(artifactId + "-" + version + "-" + filterName + "-" + pluginVersion, jar, cacheDir(), filter);
+	}
+
+	/**
+	 * Finds the caplets (space separated) in the classes dir with a single walk, or in the repos for those given as
+	 * coords. Local caplets are matched by their fully qualified name, or by their simple name if that is unique.
+	 * Returns the caplets as they should be listed in the manifest (i.e fully qualified).
+	 */
+	private String resolveCaplets(final String caplets) {
+
+		// index the classes by name (inner classes under their outer class)
+		final Map<String, List<String>> classes = new HashMap<>(); // class name -> entry names
+		final Map<String, List<String>> simpleNames = new HashMap<>(); // simple name -> class names
+		final File classesDir = new File(this.buildDir, "classes");
+		final Map<String, File> classFiles = new HashMap<>(); // entry name -> file
+		if (caplets.replaceAll("\\S*:\\S*", "").trim().length() > 0 && classesDir.isDirectory()) {
+			final Path root = classesDir.toPath();
+			try {
+				Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) {
+						final String entryName = root.relativize(path).toString().replace(File.separatorChar, '/');
+						if (!attrs.isRegularFile() || !entryName.endsWith(".class")) return FileVisitResult.CONTINUE;
+						final String binaryName = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+						final int inner = binaryName.indexOf('$');
+						final String className = inner == -1 ? binaryName : binaryName.substring(0, inner);
+						classFiles.put(entryName, path.toFile());
+						if (!classes.containsKey(className)) classes.put(className, new ArrayList<String>());
+						if (inner == -1) {
+							classes.get(className).add(0, entryName);
+							final String simpleName = className.substring(className.lastIndexOf('.') + 1);
+							if (!simpleNames.containsKey(simpleName)) simpleNames.put(simpleName, new ArrayList<String>());
+							simpleNames.get(simpleName).add(className);
+						} else classes.get(className).add(entryName);
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (final IOException e) {
+				warn("Could not read " + classesDir + " (" + e.getMessage() + "), caplets may be missing.");
+			}
+		}
+
+		final StringBuilder capletString = new StringBuilder();
+		for (final String caplet : caplets.trim().split("\\s+")) {
+			String resolved = caplet;
+
+			if (caplet.contains(":")) { // from repo
+				final ArtifactResult artifactResult = resolve(caplet);
+				if (artifactResult != null) capletJars.put(caplet, artifactResult.getArtifact().getFile());
+			} else {
+				String className = caplet.endsWith(".class") ? caplet.substring(0, caplet.length() - 6) : caplet;
+				if (!classes.containsKey(className) && simpleNames.containsKey(className)) {
+					final List<String> matches = simpleNames.get(className);
+					if (matches.size() == 1) className = matches.get(0);
+					else warn("Caplet " + caplet + " is ambiguous " + matches + ", use its fully qualified name.");
+				}
+				final List<String> entryNames = classes.get(className);
+				if (entryNames == null || entryNames.isEmpty() || entryNames.get(0).contains("$")) {
+					warn("Could not find caplet " + caplet + " class, skipping.");
+				} else {
+					Collections.sort(entryNames.subList(1, entryNames.size())); // the walk order varies
+					for (final String entryName : entryNames)
+						capletFiles.put(entryName, classFiles.get(entryName));
+					resolved = className;
+				}
+			}
+
+			if (capletString.length() > 0) capletString.append(" ");
+			capletString.append(resolved);
+		}
+		return capletString.toString();
+	}
+
+	// the latest release of capsule, cached for the reactor and (up to the ttl) for later builds
+	private String latestCapsuleVersion() throws MojoFailureException {
+		final String key = CAPSULE_GROUP + ":capsule";
+		final VersionCache.Entry cached = VersionCache.get(key, cacheDir());
+		if (cached != null && (cached.isFresh(TimeUnit.MINUTES.toMillis(versionCacheTtl), buildStart) || repoSession.isOffline()))
+			return cached.version;
+
+		final DefaultArtifact artifact = new DefaultArtifact(CAPSULE_GROUP, "capsule", null, null, "[0,)");
+		final VersionRangeRequest request = new VersionRangeRequest().setRepositories(remoteRepos).setArtifact(artifact);
+		try {
+			final VersionRangeResult result = repoSystem.resolveVersionRange(repoSession, request);
+			// get the latest version that is not a snapshot
+			for (int i = result.getVersions().size() - 1; i >= 0; i--) {
+				final String currentVersion = result.getVersions().get(i).toString();
+				if (!currentVersion.contains("SNAPSHOT")) {
+					VersionCache.put(key, currentVersion, cacheDir());
+					return currentVersion;
+				}
+			}
+		} catch (final VersionRangeResolutionException e) {
+			if (cached == null) throw new MojoFailureException(e.getMessage());
+		}
+
+		// the repos are unreachable (or have no metadata), so a stale version is better than failing the build
+		final String version = cached != null ? cached.version : DEFAULT_CAPSULE_VERSION;
+		warn("Could not resolve the latest capsule version, using " + version);
+		return version;
+	}
+
 	private File resolveCapsule() throws IOException {
 		if (this.resolvedCapsuleProjectFile == null) {
 			final ArtifactResult artifactResult = this.resolve(CAPSULE_GROUP, "capsule", null, capsuleVersion);
@@ -968,27 +1859,89 @@ public class CapsuleMojo extends Mojo {
 	}
 
 	private Set<Dependency> includedDependencies() {
-		return cleanDependencies(appDependencies(), this.includeAppDep, pluginDependencies(), this.includePluginDep);
+		return cleanDependencies(appDependencies(), this.includeAppDep, pluginDependencies(), this.includePluginDep).without(includedConflicts());
 	}
 
 	private Set<Dependency> includedDirectDependencies() {
-		return cleanDependencies(appDirectDependencies(), this.includeAppDep, pluginDirectDependencies(), this.includePluginDep);
+		return cleanDependencies(appDirectDependencies(), this.includeAppDep, pluginDirectDependencies(), this.includePluginDep).without(includedConflicts());
 	}
 
 	private Set<Artifact> includedDependencyArtifacts() {
-		return cleanArtifacts(appDependencyArtifacts(), this.includeAppDep, pluginDependencyArtifacts(), this.includePluginDep);
+		return cleanArtifacts(appDependencyArtifacts(), this.includeAppDep, pluginDependencyArtifacts(), this.includePluginDep).without(includedConflicts());
 	}
 
 	private Set<Artifact> includedDirectDependencyArtifacts() {
-		return cleanArtifacts(appDirectDependencyArtifacts(), this.includeAppDep, pluginDirectDependencyArtifacts(), this.includePluginDep);
+		return cleanArtifacts(appDirectDependencyArtifacts(), this.includeAppDep, pluginDirectDependencyArtifacts(), this.includePluginDep).without(includedConflicts());
 	}
 
 	private Set<Dependency> resolvedDependencies() {
-		return cleanDependencies(appDependencies(), this.resolveAppDep, pluginDependencies(), this.resolvePluginDep);
+		return cleanDependencies(appDependencies(), this.resolveAppDep, pluginDependencies(), this.resolvePluginDep).without(resolvedConflicts());
 	}
 
 	private Set<Dependency> resolvedDirectDependencies() {
-		return cleanDependencies(appDirectDependencies(), this.resolveAppDep, pluginDirectDependencies(), this.resolvePluginDep);
+		return cleanDependencies(appDirectDependencies(), this.resolveAppDep, pluginDirectDependencies(), this.resolvePluginDep).without(resolvedConflicts());
+	}
+
+	// CONFLICTS
+
+	// the embedded dependencies that lost to another version of the same library (resolved once)
+	private Set<String> includedConflicts() {
+		if (includedConflicts == null)
+			includedConflicts = conflicts(includeTransitiveDep ? appDependencyArtifacts() : appDirectDependencyArtifacts(),
+					includeTransitiveDep ? pluginDependencyArtifacts() : pluginDirectDependencyArtifacts(), includeAppDep && includePluginDep, true);
+		return includedConflicts;
+	}
+
+	// the dependencies resolved at launch that lost to another version of the same library (resolved once)
+	private Set<String> resolvedConflicts() {
+		if (resolvedConflicts == null)
+			resolvedConflicts = conflicts(resolveTransitiveDep ? appDependencyArtifacts() : appDirectDependencyArtifacts(),
+					resolveTransitiveDep ? pluginDependencyArtifacts() : pluginDirectDependencyArtifacts(), resolveAppDep && resolvePluginDep, false);
+		return resolvedConflicts;
+	}
+
+	/**
+	 * The dependencies (by coords) of the app and the plugin that lose to another version of the same library in the
+	 * other tree, as the conflicts policy says, so each library is on the classpath once. Each tree is resolved (by
+	 * maven) on its own already, so the conflicts are between the two, and only between the dependencies of the scopes
+	 * that are embedded (or resolved at launch).
+	 */
+	private Set<String> conflicts(final Set<Artifact> app, final Set<Artifact> plugin, final boolean both, final boolean embedded) {
+		final Set<String> losers = new HashSet<>();
+		if (conflicts == Conflicts.none || !both) return losers;
+		final Map<String, Artifact> appLibraries = new HashMap<>(); // groupId:artifactId(:classifier) -> artifact
+		for (final Artifact artifact : app)
+			if (embedded ? isEmbedded(artifact) : isResolvedAtLaunch(artifact))
+				appLibraries.put(coords(artifact.getGroupId(), artifact.getArtifactId(), artifact.getClassifier(), null), artifact);
+
+		for (final Artifact pluginArtifact : plugin) {
+			if (!(embedded ? isEmbedded(pluginArtifact) : isResolvedAtLaunch(pluginArtifact))) continue;
+			final String library = coords(pluginArtifact.getGroupId(), pluginArtifact.getArtifactId(), pluginArtifact.getClassifier(), null);
+			final Artifact appArtifact = appLibraries.get(library);
+			if (appArtifact == null || appArtifact.getVersion().equals(pluginArtifact.getVersion())) continue;
+
+			final int appDepth = depthOf(appArtifact, false);
+			final int pluginDepth = depthOf(pluginArtifact, true);
+			final boolean appWins = appWins(conflicts, appArtifact.getVersion(), appDepth, pluginArtifact.getVersion(), pluginDepth);
+			final Artifact winner = appWins ? appArtifact : pluginArtifact;
+			final Artifact loser = appWins ? pluginArtifact : appArtifact;
+			losers.add(coords(loser));
+			info("\t[Conflict] " + library + " " + winner.getVersion() + " (" + (appWins ? "app" : "plugin") + ", depth " + (appWins ? appDepth : pluginDepth) + ") "
+					+ (embedded ? "embedded" : "resolved") + " over " + loser.getVersion() + " (" + (appWins ? "plugin" : "app") + ", depth "
+					+ (appWins ? pluginDepth : appDepth) + "), " + conflicts + " wins");
+		}
+		return losers;
+	}
+
+	/**
+	 * Whether the app's version of a library wins over the plugin's, as the conflicts policy says (the app's on a tie).
+	 */
+	static boolean appWins(final Conflicts conflicts, final String appVersion, final int appDepth, final String pluginVersion, final int pluginDepth) {
+		switch (conflicts) {
+			case highest: return new ComparableVersion(appVersion).compareTo(new ComparableVersion(pluginVersion)) >= 0;
+			case app: return true;
+			default: return appDepth <= pluginDepth; // as the app comes first
+		}
 	}
 
 	// HELPER OBJECTS
@@ -997,6 +1950,23 @@ public class CapsuleMojo extends Mojo {
 		empty, thin, fat;
 	}
 
+	public enum AppCache {
+		dir, tar;
+	}
+
+	public enum Conflicts {
+		nearest, // the version nearest to its root (the app or the plugin), the app's on a tie, as maven does
+		highest, // the highest version
+		app, // the app's version
+		none; // both versions (the default, as before)
+	}
+
+	public enum Duplicates {
+		report, // report what the embedded jars have in common
+		jars, // and leave out the jars whose every entry is in the others
+		entries; // and also the entries of a jar shadowed by the same bytes earlier on the classpath
+	}
+
 	public static class Mode {
 		private String name = null;
 		private Pair<String, String>[] properties = null;
@@ -1010,6 +1980,7 @@ public class CapsuleMojo extends Mojo {
 		public String version;
 		public String outputDirectory = "/";
 		public String[] includes;
+		public String[] excludes;
 		public boolean unpack = false; // will unpack file of jar, zip, tar.gz, and tar.bz
 
 		public String toString() {
@@ -1021,6 +1992,31 @@ public class CapsuleMojo extends Mojo {
 		public String directory;
 		public String outputDirectory;
 		public String[] includes;
+		public String[] excludes;
+	}
+
+	public static class Shrink {
+		public String[] keep; // classes kept whatever the analysis finds, i.e those loaded by names built at runtime (com.example.plugins.**)
+		public String[] keepArtifacts; // dependencies kept whole (groupId:artifactId, i.e org.example:*)
+
+		public String toString() {
+			return (keep != null ? Arrays.toString(keep) : "") + " " + (keepArtifacts != null ? Arrays.toString(keepArtifacts) : "");
+		}
+	}
+
+	public static class Training {
+		public String java; // java home or executable to train with (defaults to that of the build)
+		public String[] jvmArgs;
+		public String[] args; // the workload
+		public long timeout = 60; // seconds the app is given before it is stopped
+		public boolean appCds = true; // record the classes loaded, for a class data sharing archive
+		public boolean classLoadOrder = false; // record the order classes are loaded in, to order the jars and the app by it
+		public String mode; // use the archive in this mode only
+
+		public String toString() {
+			return java + " " + (jvmArgs != null ? Arrays.toString(jvmArgs) : "") + " " + (args != null ? Arrays.toString(args) : "")
+					+ " " + timeout + " " + appCds + " " + classLoadOrder + " " + mode;
+		}
 	}
 
 }
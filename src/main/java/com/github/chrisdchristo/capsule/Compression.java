@@ -0,0 +1,121 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compression policy for the entries of the capsule (configured with the <compression> tag)
+ */
+public class Compression {
+
+	// extensions of formats that are already compressed (deflating these again costs time and saves nothing)
+	private static final Set<String> COMPRESSED_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"jar", "war", "ear", "zip", "gz", "tgz", "bz2", "xz", "7z", "lz4", "zst",
+			"png", "jpg", "jpeg", "gif", "webp", "mp3", "mp4", "ogg", "woff", "woff2"));
+
+	// extensions of formats that (almost) always compress, deflated without sampling them first
+	private static final Set<String> COMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+			"class", "properties", "xml", "mf"));
+
+	static final int SAMPLE_SIZE = 64 * 1024;
+	private static final int MIN_SAMPLE_SIZE = 1024;
+	private static final double INCOMPRESSIBLE_RATIO = 0.9;
+
+	public int level = Deflater.DEFAULT_COMPRESSION; // global deflate level (0-9, -1 for the default)
+	public boolean storeJars = true; // store nested jars and other known compressed formats as-is
+	public String[] stored = null; // extensions to always store
+	public String[] deflated = null; // extensions to always deflate (overrides all else)
+	public boolean detect = true; // sample the content of other entries and store them if they don't compress
+
+	public String toString() {
+		return "level=" + level + " storeJars=" + storeJars + " stored=" + Arrays.toString(stored)
+				+ " deflated=" + Arrays.toString(deflated) + " detect=" + detect;
+	}
+
+	/**
+	 * Fails the build on a level the deflater would only reject once the entries are being written.
+	 */
+	void validate() throws MojoExecutionException {
+		if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+			throw new MojoExecutionException("Invalid compression level " + level + ", expected 0-9 (or -1 for the default)");
+	}
+
+	/**
+	 * The method (ZipEntry.STORED or ZipEntry.DEFLATED) for the entry, based on its name only.
+	 * Returns -1 if the name doesn't decide it and the content should be sampled.
+	 */
+	int methodFor(final String name) {
+		if (name.endsWith("/")) return ZipEntry.DEFLATED;
+		final String extension = extension(name);
+		if (contains(deflated, extension)) return ZipEntry.DEFLATED;
+		if (contains(stored, extension)) return ZipEntry.STORED;
+		if (storeJars && COMPRESSED_EXTENSIONS.contains(extension)) return ZipEntry.STORED;
+		if (COMPRESSIBLE_EXTENSIONS.contains(extension)) return ZipEntry.DEFLATED;
+		return detect ? -1 : ZipEntry.DEFLATED;
+	}
+
+	/**
+	 * The method for a file entry, sampling the head of the file if the name doesn't decide it.
+	 */
+	int methodFor(final String name, final File file) throws IOException {
+		final int method = methodFor(name);
+		if (method != -1) return method;
+		if (file.length() < MIN_SAMPLE_SIZE) return ZipEntry.DEFLATED;
+		final byte[] sample = new byte[(int) Math.min(SAMPLE_SIZE, file.length())];
+		try (final InputStream input = new FileInputStream(file)) {
+			return methodFor(sample, read(input, sample));
+		}
+	}
+
+	/**
+	 * The method for an entry which has already been sampled.
+	 */
+	int methodFor(final byte[] sample, final int length) {
+		if (length < MIN_SAMPLE_SIZE) return ZipEntry.DEFLATED;
+		final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+		try {
+			deflater.setInput(sample, 0, length);
+			deflater.finish();
+			final byte[] buffer = new byte[8192];
+			long compressed = 0;
+			while (!deflater.finished())
+				compressed += deflater.deflate(buffer);
+			return compressed > length * INCOMPRESSIBLE_RATIO ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	// read until the buffer is full or the stream ends
+	static int read(final InputStream input, final byte[] buffer) throws IOException {
+		int length = 0;
+		int read;
+		while (length < buffer.length && (read = input.read(buffer, length, buffer.length - length)) != -1)
+			length += read;
+		return length;
+	}
+
+	private static String extension(final String name) {
+		final int slash = name.lastIndexOf('/');
+		final int dot = name.lastIndexOf('.');
+		return dot > slash ? name.substring(dot + 1).toLowerCase(Locale.ENGLISH) : "";
+	}
+
+	private static boolean contains(final String[] extensions, final String extension) {
+		if (extensions == null) return false;
+		for (final String e : extensions)
+			if (e != null && e.replaceFirst("^\\*?\\.", "").equalsIgnoreCase(extension)) return true;
+		return false;
+	}
+
+}
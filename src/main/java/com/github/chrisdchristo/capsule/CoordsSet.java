@@ -0,0 +1,81 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Dependency;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Set of artifacts or dependencies keyed by their coords, so duplicates (e.g. the same artifact from both the app and
+ * the plugin) are dropped in constant time. The first one added wins and the insertion order is kept.
+ */
+abstract class CoordsSet<T> extends AbstractSet<T> {
+
+	private final Map<String, T> elements = new LinkedHashMap<>();
+	private final Class<T> type;
+
+	CoordsSet(final Class<T> type) {
+		this.type = type;
+	}
+
+	abstract String coords(T element);
+
+	static CoordsSet<Artifact> artifacts() {
+		return new CoordsSet<Artifact>(Artifact.class) {
+			String coords(final Artifact artifact) { return Mojo.coords(artifact); }
+		};
+	}
+
+	static CoordsSet<Dependency> dependencies() {
+		return new CoordsSet<Dependency>(Dependency.class) {
+			String coords(final Dependency dependency) { return Mojo.coords(dependency); }
+		};
+	}
+
+	/**
+	 * Adds the elements of both collections (each only if included), the elements of the first winning.
+	 */
+	CoordsSet<T> merge(final Collection<T> a, final boolean includeA, final Collection<T> b, final boolean includeB) {
+		if (includeA) addAll(a);
+		if (includeB) addAll(b);
+		return this;
+	}
+
+	/**
+	 * Removes the elements of the given coords.
+	 */
+	CoordsSet<T> without(final Collection<String> coords) {
+		elements.keySet().removeAll(coords);
+		return this;
+	}
+
+	@Override
+	public boolean add(final T element) {
+		if (element == null) return false;
+		final String coords = coords(element);
+		if (elements.containsKey(coords)) return false;
+		elements.put(coords, element);
+		return true;
+	}
+
+	// by coords, like add (and so never an element of another type)
+	@Override
+	public boolean contains(final Object element) {
+		return type.isInstance(element) && elements.containsKey(coords(type.cast(element)));
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return elements.values().iterator();
+	}
+
+	@Override
+	public int size() {
+		return elements.size();
+	}
+
+}
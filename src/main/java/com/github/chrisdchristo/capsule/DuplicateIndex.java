@@ -0,0 +1,227 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * An index of the entries of the jars on the classpath of the app (in classpath order) by name and content, to find
+ * what they have in common: the entries of the same name in several jars, identical (the later copies never loaded) or
+ * not (only the first one loaded), the jars with nothing but entries found in the others, and the entries shadowed by
+ * the same bytes earlier on the classpath.
+ * <p>
+ * Entries are matched by the crc-32 and size in the central directory of the jars, and those that match by the
+ * sha-256 of their content. The manifest, the maven metadata, the signatures and module-info aren't compared, as each
+ * jar has its own.
+ */
+final class DuplicateIndex implements Closeable {
+
+	private static final Pattern OWN_ENTRY = Pattern.compile("META-INF/(MANIFEST\\.MF|INDEX\\.LIST|maven/.*|[^/]+\\.(SF|RSA|DSA|EC))|(.*/)?module-info\\.class");
+	private static final Pattern SIGNATURE = Pattern.compile("META-INF/[^/]+\\.(SF|RSA|DSA|EC)");
+
+	private final List<Jar> jars = new ArrayList<>();
+	private final Map<String, List<Jar>> byName = new HashMap<>(); // entry name -> the jars with it, in classpath order
+
+	/**
+	 * Add the next jar on the classpath, which may be left out (or copied without some entries) unless it is fixed
+	 * (i.e the app, or a jar referenced in a library capsule) or signed.
+	 */
+	void add(final String name, final File file, final boolean fixed) throws IOException {
+		final Jar jar = new Jar(name, new JarReader(file), fixed);
+		jars.add(jar);
+		for (final JarReader.Entry entry : jar.reader.entries()) {
+			if (entry.isDirectory()) continue;
+			if (SIGNATURE.matcher(entry.getName()).matches()) jar.signed = true;
+			if (OWN_ENTRY.matcher(entry.getName()).matches() || jar.entries.containsKey(entry.getName())) continue;
+			jar.entries.put(entry.getName(), entry);
+			List<Jar> with = byName.get(entry.getName());
+			if (with == null) byName.put(entry.getName(), with = new ArrayList<>(1));
+			with.add(jar);
+		}
+	}
+
+	/**
+	 * The entries each pair of jars has in common (the pairs with a class in common), the first jar of a pair being
+	 * the earlier on the classpath.
+	 */
+	List<Overlap> overlaps() throws IOException {
+		final Map<String, Overlap> overlaps = new LinkedHashMap<>();
+		for (final Jar jar : jars)
+			for (final String name : jar.entries.keySet()) {
+				final List<Jar> with = byName.get(name);
+				for (final Jar other : with.subList(with.indexOf(jar) + 1, with.size())) {
+					final String key = jar.name + "\u0000" + other.name;
+					Overlap overlap = overlaps.get(key);
+					if (overlap == null) overlaps.put(key, overlap = new Overlap(jar.name, other.name));
+					if (identical(jar, other, name)) overlap.identical++;
+					else if (name.endsWith(".class")) overlap.differingClasses.add(name);
+					else overlap.differingResources++;
+					if (name.endsWith(".class")) overlap.classes++;
+				}
+			}
+		final List<Overlap> withClasses = new ArrayList<>();
+		for (final Overlap overlap : overlaps.values())
+			if (overlap.classes > 0) withClasses.add(overlap);
+		return withClasses;
+	}
+
+	/**
+	 * The jars (by name) whose every entry is also, with the very same content, in the other jars (those left), so
+	 * leaving them out changes nothing. The later jars on the classpath are left out first.
+	 */
+	Set<String> redundantJars() throws IOException {
+		final Set<Jar> redundant = new HashSet<>();
+		for (int i = jars.size() - 1; i >= 0; i--) {
+			final Jar jar = jars.get(i);
+			if (jar.fixed || jar.signed || !hasContent(jar)) continue;
+			boolean covered = true;
+			for (final String name : jar.entries.keySet())
+				if (!inOther(jar, name, redundant)) {
+					covered = false;
+					break;
+				}
+			if (covered) redundant.add(jar);
+		}
+		final Set<String> names = new LinkedHashSet<>();
+		for (final Jar jar : jars)
+			if (redundant.contains(jar)) names.add(jar.name);
+		return names;
+	}
+
+	/**
+	 * The entries of each jar (by name) the same bytes of which are in a jar earlier on the classpath, and so never
+	 * loaded from it, those under META-INF (where the copies of every jar may be read) left aside.
+	 */
+	Map<String, Set<String>> shadowedEntries(final Set<String> redundantJars) throws IOException {
+		final Map<String, Set<String>> shadowed = new LinkedHashMap<>();
+		for (final Jar jar : jars) {
+			if (jar.fixed || jar.signed || redundantJars.contains(jar.name)) continue;
+			final Set<String> names = new LinkedHashSet<>();
+			for (final String name : jar.entries.keySet()) {
+				if (name.startsWith("META-INF/")) continue;
+				for (final Jar earlier : byName.get(name)) {
+					if (earlier == jar) break;
+					if (!redundantJars.contains(earlier.name) && identical(earlier, jar, name)) {
+						names.add(name);
+						break;
+					}
+				}
+			}
+			if (!names.isEmpty()) shadowed.put(jar.name, names);
+		}
+		return shadowed;
+	}
+
+	/**
+	 * The entries of the jar with the same content (of at least minSize bytes) under different names, i.e added by
+	 * the fileSets and dependencySets as well as in another form, by their sha-256: the names -> the size of each.
+	 */
+	static Map<List<String>, Long> sameContent(final File file, final long minSize) throws IOException {
+		final Map<String, List<JarReader.Entry>> candidates = new HashMap<>(); // crc and size -> entries
+		final Map<List<String>, Long> same = new LinkedHashMap<>();
+		try (final JarReader reader = new JarReader(file)) {
+			for (final JarReader.Entry entry : reader.entries()) {
+				if (entry.isDirectory() || entry.size < minSize || !entry.isCopyable() || OWN_ENTRY.matcher(entry.getName()).matches()) continue;
+				final String key = entry.crc + ":" + entry.size;
+				List<JarReader.Entry> entries = candidates.get(key);
+				if (entries == null) candidates.put(key, entries = new ArrayList<>(1));
+				entries.add(entry);
+			}
+			for (final List<JarReader.Entry> entries : candidates.values()) {
+				if (entries.size() < 2) continue;
+				final Map<String, List<String>> bySha = new LinkedHashMap<>();
+				for (final JarReader.Entry entry : entries) {
+					final String sha = sha256(reader, entry);
+					List<String> names = bySha.get(sha);
+					if (names == null) bySha.put(sha, names = new ArrayList<>());
+					names.add(entry.getName());
+				}
+				for (final Map.Entry<String, List<String>> names : bySha.entrySet())
+					if (names.getValue().size() > 1) same.put(names.getValue(), entries.get(0).size);
+			}
+		}
+		return same;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final Jar jar : jars)
+			jar.reader.close();
+	}
+
+	private static boolean hasContent(final Jar jar) {
+		for (final String name : jar.entries.keySet())
+			if (!name.startsWith("META-INF/")) return true;
+		return false;
+	}
+
+	// whether another jar (not left out) has the entry with the same content
+	private boolean inOther(final Jar jar, final String name, final Set<Jar> redundant) throws IOException {
+		for (final Jar other : byName.get(name))
+			if (other != jar && !redundant.contains(other) && identical(jar, other, name)) return true;
+		return false;
+	}
+
+	private static boolean identical(final Jar a, final Jar b, final String name) throws IOException {
+		final JarReader.Entry entryA = a.entries.get(name);
+		final JarReader.Entry entryB = b.entries.get(name);
+		if (entryA.crc != entryB.crc || entryA.size != entryB.size || !entryA.isCopyable() || !entryB.isCopyable()) return false;
+		return a.sha256(name).equals(b.sha256(name));
+	}
+
+	private static String sha256(final JarReader reader, final JarReader.Entry entry) throws IOException {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		try (final InputStream in = new DigestInputStream(reader.open(entry), digest)) {
+			final byte[] buffer = new byte[8192];
+			while (in.read(buffer) != -1) ;
+		}
+		return Mojo.hex(digest.digest());
+	}
+
+	/**
+	 * What two jars have in common.
+	 */
+	static final class Overlap {
+		final String first; // the one earlier on the classpath, whose entries are loaded
+		final String second;
+		int classes = 0;
+		int identical = 0;
+		int differingResources = 0;
+		final Set<String> differingClasses = new TreeSet<>();
+
+		Overlap(final String first, final String second) {
+			this.first = first;
+			this.second = second;
+		}
+	}
+
+	private static final class Jar {
+		final String name;
+		final JarReader reader;
+		final boolean fixed;
+		boolean signed = false;
+		final Map<String, JarReader.Entry> entries = new LinkedHashMap<>();
+		final Map<String, String> sha256 = new HashMap<>(); // computed as needed
+
+		Jar(final String name, final JarReader reader, final boolean fixed) {
+			this.name = name;
+			this.reader = reader;
+			this.fixed = fixed;
+		}
+
+		String sha256(final String name) throws IOException {
+			String sha = sha256.get(name);
+			if (sha == null) sha256.put(name, sha = DuplicateIndex.sha256(reader, entries.get(name)));
+			return sha;
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the entries extracted from a jar (e.g. the Capsule classes), kept still compressed so they can be copied
+ * into each capsule as-is. The entries are held in memory for the whole reactor, and in a jar of their own on disk
+ * for later builds.
+ */
+final class EntryCache {
+
+	// shared by all the executions of the plugin in the reactor
+	private static final Map<String, List<Raw>> ENTRIES = new ConcurrentHashMap<>();
+
+	interface Filter {
+		boolean accept(String name);
+	}
+
+	static final class Raw {
+		final JarReader.Entry entry;
+		final byte[] data;
+		Raw(final JarReader.Entry entry, final byte[] data) {
+			this.entry = entry;
+			this.data = data;
+		}
+	}
+
+	private EntryCache() {}
+
+	/**
+	 * The entries of the source jar accepted by the filter, from memory, the cache dir or else the source jar itself.
+	 * The key must identify the content of the source jar (i.e. a release version) and the entries the filter accepts.
+	 */
+	static List<Raw> get(final String key, final File source, final File cacheDir, final Filter filter) throws IOException {
+		List<Raw> entries = ENTRIES.get(key);
+		if (entries != null) return entries;
+
+		final File cached = new File(cacheDir, key + ".jar");
+		if (cached.isFile()) {
+			try {
+				entries = read(cached, null);
+			} catch (final IOException | RuntimeException e) {
+				entries = null; // corrupt, so extract again
+			}
+		}
+		if (entries == null) {
+			entries = read(source, filter);
+			try {
+				write(cached, entries);
+			} catch (final IOException ignore) {} // e.g. a read-only local repo, the memory cache still applies
+		}
+		ENTRIES.put(key, entries);
+		return entries;
+	}
+
+	/**
+	 * The entries of the source jar accepted by the filter, without any caching.
+	 */
+	static List<Raw> read(final File source, final Filter filter) throws IOException {
+		final List<Raw> entries = new ArrayList<>();
+		try (final JarReader reader = new JarReader(source)) {
+			for (final JarReader.Entry entry : reader.entries())
+				if ((filter == null || filter.accept(entry.getName())) && entry.isCopyable())
+					entries.add(new Raw(entry, reader.read(entry)));
+		}
+		return Collections.unmodifiableList(entries);
+	}
+
+	// written to a temporary file and then moved into place, so concurrent builds never see a partial cache
+	private static void write(final File cached, final List<Raw> entries) throws IOException {
+		final File cacheDir = cached.getParentFile();
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) return;
+		final File temp = File.createTempFile(cached.getName(), ".tmp", cacheDir);
+		try {
+			try (final JarWriter jar = new JarWriter(new BufferedOutputStream(new FileOutputStream(temp)), new Compression(), 1)) {
+				for (final Raw raw : entries)
+					jar.add(raw.entry.getName(), raw.entry, raw.data);
+			}
+			try {
+				Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (final IOException e) {
+				Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+}
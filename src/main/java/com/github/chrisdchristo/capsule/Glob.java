@@ -0,0 +1,124 @@
+package com.github.chrisdchristo.capsule;
+
+import java.util.regex.Pattern;
+
+/**
+ * Ant style include/exclude patterns (i.e <includes> and <excludes> of the file and dependency sets), compiled once
+ * into a single regex each, so a path is matched against all the patterns in one go.
+ * <p>
+ * {@code **} matches any number of directories, {@code *} any characters but '/' and {@code ?} a single one.
+ * A pattern ending with '/' matches everything under that directory.
+ */
+final class Glob {
+
+	private final Pattern includes; // null matches everything
+	private final Pattern excludes; // null matches nothing
+	private final String prefix; // literal prefix of every path the includes match
+
+	private Glob(final Pattern includes, final Pattern excludes, final String prefix) {
+		this.includes = includes;
+		this.excludes = excludes;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Compiles the patterns, no (or empty) includes meaning everything. With {@code spanningStar}, a pattern with a
+	 * single '*' (and no '**' or '?') matches across directories, as the includes of the dependency sets always have
+	 * (e.g META-INF/* matches META-INF/maven/pom.xml).
+	 */
+	static Glob compile(final String[] includes, final String[] excludes, final boolean spanningStar) {
+		return new Glob(compile(includes, spanningStar), compile(excludes, spanningStar), prefix(includes));
+	}
+
+	static Glob compile(final String[] includes, final String[] excludes) {
+		return compile(includes, excludes, false);
+	}
+
+	boolean matches(final String path) {
+		return (includes == null || includes.matcher(path).matches()) && (excludes == null || !excludes.matcher(path).matches());
+	}
+
+	/**
+	 * The literal prefix shared by all the paths this matches (e.g "META-INF/" for META-INF/*.MF), so the paths
+	 * without it can be skipped up front. Empty if there's none.
+	 */
+	String prefix() {
+		return prefix;
+	}
+
+	private static String prefix(final String[] includes) {
+		if (includes == null) return "";
+		String prefix = null;
+		for (final String include : includes) {
+			if (include == null || include.trim().isEmpty()) continue;
+			final String glob = normalize(include.trim());
+			int wildcard = 0;
+			while (wildcard < glob.length() && glob.charAt(wildcard) != '*' && glob.charAt(wildcard) != '?') wildcard++;
+			final String literal = glob.substring(0, wildcard);
+			if (prefix == null) prefix = literal;
+			else {
+				int common = 0;
+				while (common < prefix.length() && common < literal.length() && prefix.charAt(common) == literal.charAt(common)) common++;
+				prefix = prefix.substring(0, common);
+			}
+		}
+		return prefix != null ? prefix : "";
+	}
+
+	private static String normalize(final String pattern) {
+		String glob = pattern.replace('\\', '/');
+		while (glob.startsWith("/")) glob = glob.substring(1);
+		if (glob.endsWith("/")) glob += "**";
+		return glob;
+	}
+
+	private static Pattern compile(final String[] patterns, final boolean spanningStar) {
+		if (patterns == null) return null;
+		final StringBuilder regex = new StringBuilder();
+		for (final String pattern : patterns) {
+			if (pattern == null || pattern.trim().isEmpty()) continue;
+			if (regex.length() > 0) regex.append('|');
+			regex.append("(?:").append(toRegex(pattern.trim(), spanningStar)).append(')');
+		}
+		return regex.length() > 0 ? Pattern.compile(regex.toString()) : null;
+	}
+
+	private static String toRegex(final String pattern, final boolean spanningStar) {
+		final String glob = normalize(pattern);
+		final boolean spanning = spanningStar && !glob.contains("**") && !glob.contains("?") && glob.indexOf('*') == glob.lastIndexOf('*');
+		final StringBuilder regex = new StringBuilder();
+		final StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < glob.length()) {
+			final char c = glob.charAt(i);
+			if (c != '*' && c != '?') {
+				literal.append(c);
+				i++;
+				continue;
+			}
+			if (literal.length() > 0) {
+				regex.append(Pattern.quote(literal.toString()));
+				literal.setLength(0);
+			}
+			if (c == '?') {
+				regex.append("[^/]");
+				i++;
+			} else if (glob.startsWith("**", i)) {
+				final boolean segmentStart = i == 0 || glob.charAt(i - 1) == '/';
+				if (segmentStart && glob.startsWith("**/", i)) {
+					regex.append("(?:.*/)?"); // zero or more directories
+					i += 3;
+				} else {
+					regex.append(".*");
+					i += 2;
+				}
+			} else {
+				regex.append(spanning ? ".*" : "[^/]*");
+				i++;
+			}
+		}
+		if (literal.length() > 0) regex.append(Pattern.quote(literal.toString()));
+		return regex.toString();
+	}
+
+}
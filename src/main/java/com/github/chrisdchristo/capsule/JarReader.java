@@ -0,0 +1,294 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the entries of a jar from its central directory, and copies their (still compressed) content as-is (or reads
+ * it inflated).
+ * Only the raw central directory is held, the entries are parsed as they are iterated (so the memory used doesn't
+ * grow with objects per entry), and nothing is mapped, so the file is released as soon as the reader is closed.
+ */
+final class JarReader implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+	private static final int ZIP64_EXTRA = 0x0001;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int FLAG_ENCRYPTED = 0x0001;
+
+	final File file;
+	private final FileChannel channel;
+	private ByteBuffer directory;
+	private long count;
+
+	JarReader(final File file) throws IOException {
+		this.file = file;
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			readCentralDirectory();
+		} catch (final IOException | RuntimeException e) {
+			channel.close();
+			throw e instanceof IOException ? (IOException) e : new IOException(file + " is not a valid jar", e);
+		}
+	}
+
+	/**
+	 * All the entries, in the order of the central directory.
+	 */
+	Iterable<Entry> entries() {
+		return entries(null);
+	}
+
+	/**
+	 * The entries whose name starts with the prefix, in the order of the central directory. The names of the other
+	 * entries are compared as bytes and never decoded.
+	 */
+	Iterable<Entry> entries(final String prefix) {
+		final byte[] prefixBytes = prefix != null && !prefix.isEmpty() ? prefix.getBytes(UTF8) : null;
+		return new Iterable<Entry>() {
+			@Override
+			public Iterator<Entry> iterator() {
+				return new EntryIterator(directory.duplicate().order(ByteOrder.LITTLE_ENDIAN), prefixBytes);
+			}
+		};
+	}
+
+	/**
+	 * Copy the raw (compressed) content of the entry.
+	 */
+	void copy(final Entry entry, final OutputStream out) throws IOException {
+		final long start = dataOffset(entry);
+		final WritableByteChannel target = Channels.newChannel(out);
+		long position = start;
+		final long end = start + entry.compressedSize;
+		while (position < end) {
+			final long transferred = channel.transferTo(position, end - position, target);
+			if (transferred <= 0) throw new EOFException(file + " is truncated at " + entry.name);
+			position += transferred;
+		}
+	}
+
+	/**
+	 * The raw (compressed) content of the entry.
+	 */
+	byte[] read(final Entry entry) throws IOException {
+		if (entry.compressedSize > Integer.MAX_VALUE) throw new IOException(entry.name + " in " + file + " is too large");
+		return read(dataOffset(entry), (int) entry.compressedSize).array();
+	}
+
+	/**
+	 * The (uncompressed) content of the entry, read from the jar as the stream is read.
+	 */
+	InputStream open(final Entry entry) throws IOException {
+		if (!entry.isCopyable()) throw new IOException("Unsupported compression of " + entry.name + " in " + file);
+		final InputStream raw = new BufferedInputStream(new EntryInputStream(dataOffset(entry), entry.compressedSize), 64 * 1024);
+		if (entry.method == ZipEntry.STORED) return raw;
+		final Inflater inflater = new Inflater(true);
+		return new InflaterInputStream(raw, inflater, 64 * 1024) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end(); // not ended by the stream, as it was given one
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	// reads a range of the jar (without moving the position of the channel, shared by the streams)
+	private final class EntryInputStream extends InputStream {
+		private long position;
+		private final long end;
+
+		EntryInputStream(final long position, final long length) {
+			this.position = position;
+			this.end = position + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (position >= end) return -1;
+			final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (read == -1) throw new EOFException(file + " is truncated");
+			position += read;
+			return read;
+		}
+	}
+
+	// the content starts after the local header, whose name and extra field may differ from the central directory
+	private long dataOffset(final Entry entry) throws IOException {
+		final ByteBuffer header = read(entry.localHeaderOffset, 30);
+		if (header.getInt(0) != LOCAL_HEADER) throw new IOException(file + " has an invalid local header for " + entry.name);
+		return entry.localHeaderOffset + 30 + (header.getShort(26) & 0xffff) + (header.getShort(28) & 0xffff);
+	}
+
+	private void readCentralDirectory() throws IOException {
+		final long size = channel.size();
+
+		// find the end of central directory record (followed by a comment of up to 64k)
+		final int tail = (int) Math.min(size, 22 + 0xffff);
+		final ByteBuffer end = read(size - tail, tail);
+		int endPosition = -1;
+		for (int i = tail - 22; i >= 0; i--) {
+			if (end.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+				endPosition = i;
+				break;
+			}
+		}
+		if (endPosition == -1) throw new IOException(file + " is not a valid jar (no central directory)");
+		long count = end.getShort(endPosition + 10) & 0xffff;
+		long directorySize = end.getInt(endPosition + 12) & ZIP64_MAGIC;
+		long directoryOffset = end.getInt(endPosition + 16) & ZIP64_MAGIC;
+
+		// zip64
+		final long locatorPosition = size - tail + endPosition - 20;
+		if (locatorPosition >= 0 && read(locatorPosition, 4).getInt(0) == ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR) {
+			final ByteBuffer zip64End = read(read(locatorPosition, 20).getLong(8), 56);
+			if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) throw new IOException(file + " has an invalid zip64 record");
+			count = zip64End.getLong(32);
+			directorySize = zip64End.getLong(40);
+			directoryOffset = zip64End.getLong(48);
+		}
+
+		if (directorySize > Integer.MAX_VALUE) throw new IOException(file + " has a central directory too large to read");
+		this.directory = read(directoryOffset, (int) directorySize);
+		this.count = count;
+		if (count > 0 && directory.getInt(0) != CENTRAL_HEADER) throw new IOException(file + " has an invalid central directory");
+	}
+
+	private final class EntryIterator implements Iterator<Entry> {
+		private final ByteBuffer directory;
+		private final byte[] prefix;
+		private long index = 0;
+		private Entry next;
+
+		EntryIterator(final ByteBuffer directory, final byte[] prefix) {
+			this.directory = directory;
+			this.prefix = prefix;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (next == null && index < count) {
+				index++;
+				next = readEntry();
+			}
+			return next != null;
+		}
+
+		@Override
+		public Entry next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			final Entry entry = next;
+			next = null;
+			return entry;
+		}
+
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		// the entry at the current position (or null if it doesn't have the prefix), moving on to the next one
+		private Entry readEntry() {
+			final int position = directory.position();
+			if (directory.getInt(position) != CENTRAL_HEADER) throw new IllegalStateException(file + " has an invalid central directory");
+			final int nameLength = directory.getShort(position + 28) & 0xffff;
+			final int extraLength = directory.getShort(position + 30) & 0xffff;
+			final int commentLength = directory.getShort(position + 32) & 0xffff;
+			((Buffer) directory).position(position + 46 + nameLength + extraLength + commentLength); // see read()
+			if (prefix != null && !startsWith(position + 46, nameLength)) return null;
+
+			final Entry entry = new Entry();
+			entry.flags = directory.getShort(position + 8) & 0xffff;
+			entry.method = directory.getShort(position + 10) & 0xffff;
+			entry.time = directory.getInt(position + 12);
+			entry.crc = directory.getInt(position + 16) & ZIP64_MAGIC;
+			entry.compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+			entry.size = directory.getInt(position + 24) & ZIP64_MAGIC;
+			entry.localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+
+			final byte[] name = new byte[nameLength];
+			for (int i = 0; i < nameLength; i++)
+				name[i] = directory.get(position + 46 + i);
+			entry.name = new String(name, UTF8);
+
+			// zip64 extra field holds the values that didn't fit
+			int extra = position + 46 + nameLength;
+			final int extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd) {
+				final int id = directory.getShort(extra) & 0xffff;
+				final int length = directory.getShort(extra + 2) & 0xffff;
+				if (id == ZIP64_EXTRA) {
+					int field = extra + 4;
+					if (entry.size == ZIP64_MAGIC) { entry.size = directory.getLong(field); field += 8; }
+					if (entry.compressedSize == ZIP64_MAGIC) { entry.compressedSize = directory.getLong(field); field += 8; }
+					if (entry.localHeaderOffset == ZIP64_MAGIC) entry.localHeaderOffset = directory.getLong(field);
+				}
+				extra += 4 + length;
+			}
+			return entry;
+		}
+
+		private boolean startsWith(final int name, final int nameLength) {
+			if (nameLength < prefix.length) return false;
+			for (int i = 0; i < prefix.length; i++)
+				if (directory.get(name + i) != prefix[i]) return false;
+			return true;
+		}
+	}
+
+	private ByteBuffer read(final long position, final int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) == -1) throw new EOFException(file + " is truncated");
+		((Buffer) buffer).flip(); // as a Buffer, as ByteBuffer.flip() only exists from java 9
+		return buffer;
+	}
+
+	static final class Entry {
+		String name;
+		int flags;
+		int method;
+		int time; // dos time and date
+		long crc;
+		long compressedSize;
+		long size;
+		long localHeaderOffset;
+
+		String getName() { return name; }
+		boolean isDirectory() { return name.endsWith("/"); }
+
+		// only stored and deflated entries (that aren't encrypted) can be copied into another jar
+		boolean isCopyable() {
+			return (flags & FLAG_ENCRYPTED) == 0 && (method == ZipEntry.STORED || method == ZipEntry.DEFLATED);
+		}
+	}
+
+}
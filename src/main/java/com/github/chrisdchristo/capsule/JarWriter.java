@@ -0,0 +1,645 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes the capsule jar. Entries are compressed in parallel on a fork-join pool and then written in the order they
+ * were added, followed by a single central directory. The same pass can also write variants of the jar behind a
+ * prefix (the executable capsules). Optionally, the writing itself is left to a writer thread (see {@link WriteBehind}),
+ * so reading, compressing and writing all overlap. Large entries are deflated to temp files rather than held in memory.
+ */
+final class JarWriter implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+	private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR = 0x07064b50;
+	private static final int ZIP64_EXTRA = 0x0001;
+	private static final int JAR_MAGIC_EXTRA = 0xCAFE;
+	private static final int FLAG_UTF8 = 0x0800;
+	private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+	private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+	private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024; // bound on the input held by queued entries
+	static final long SPILL_SIZE = 4 * 1024 * 1024; // entries at least this long are deflated to a temp file, not memory
+
+	private final List<Variant> variants = new ArrayList<>();
+	private final OutputStream tee = new Tee(); // the entries are written to all of the variants
+	private OutputStream out = tee;
+	private WriteBehind writeBehind = null;
+	private int transferSize = 0; // stored files at least this long are transferred rather than copied
+	private BuildMetrics metrics = null;
+	private final Compression compression;
+	private final ForkJoinPool pool;
+	private final int maxPending;
+	private final int time; // dos time and date of all the entries
+
+	private final Deque<Pending> pending = new ArrayDeque<>();
+	private long pendingBytes = 0;
+	private final Set<String> names = new HashSet<>();
+	private final List<Entry> entries = new ArrayList<>();
+	private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+	private final Set<File> spills = Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>()); // not written yet
+	private final ThreadLocal<Deflater> deflater = new ThreadLocal<Deflater>() {
+		@Override
+		protected Deflater initialValue() {
+			final Deflater deflater = new Deflater(compression.level, true);
+			deflaters.add(deflater);
+			return deflater;
+		}
+	};
+	private long offset = 0;
+	private boolean closed = false;
+
+	JarWriter(final OutputStream out, final Compression compression, final int threads) {
+		this(out, compression, threads, null);
+	}
+
+	/**
+	 * With a fixed time (e.g. project.build.outputTimestamp) all the entries are dated to it in UTC, rather than to
+	 * the current local time, so the same inputs produce the same bytes wherever and whenever they are built.
+	 */
+	JarWriter(final OutputStream out, final Compression compression, final int threads, final Long time) {
+		this.variants.add(new Variant(out, 0));
+		this.compression = compression;
+		this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+		this.maxPending = Math.max(1, threads) * 4;
+		this.time = time != null
+				? dosTime(time, TimeZone.getTimeZone("UTC"))
+				: dosTime(System.currentTimeMillis(), TimeZone.getDefault());
+	}
+
+	/**
+	 * Also write the jar to another output, behind the given prefix (e.g. a shell script). The central directory of
+	 * the variant accounts for the prefix, so its offsets are correct too. Must be called before any entry is added.
+	 */
+	void addVariant(final OutputStream out, final byte[] prefix) throws IOException {
+		if (!names.isEmpty()) throw new IllegalStateException("Variants must be added before any entry");
+		out.write(prefix);
+		variants.add(new Variant(out, prefix.length));
+	}
+
+	/**
+	 * Hand the writing over to a writer thread, with up to {@code queueDepth} buffers of {@code bufferSize} bytes
+	 * waiting to be written. Must be called after the variants are added and before any entry is.
+	 */
+	void writeBehind(final int bufferSize, final int queueDepth) throws IOException {
+		if (!names.isEmpty()) throw new IllegalStateException("Write-behind must be set before any entry is added");
+		final List<WritableByteChannel> channels = new ArrayList<>();
+		for (final Variant variant : variants) {
+			variant.out.flush(); // e.g. the prefix
+			channels.add(variant.out instanceof FileOutputStream
+					? ((FileOutputStream) variant.out).getChannel()
+					: Channels.newChannel(variant.out));
+		}
+		this.writeBehind = new WriteBehind(channels, bufferSize, queueDepth);
+		this.out = writeBehind;
+		this.transferSize = Math.max(bufferSize, 8 * 1024);
+	}
+
+	/**
+	 * Record the entries written in the metrics, under the phase they were added in.
+	 */
+	void metrics(final BuildMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Add an entry for the file, returns false if an entry of the same name was already added.
+	 */
+	boolean add(final String name, final File file) throws IOException {
+		if (!file.isFile()) throw new FileNotFoundException(file.getPath());
+		if (!names.add(name)) return false;
+		submit(file.length(), new Callable<Entry>() {
+			@Override
+			public Entry call() throws IOException {
+				return compress(name, file);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Add an entry with the given content, returns false if an entry of the same name was already added.
+	 */
+	boolean add(final String name, final byte[] data) throws IOException {
+		if (!names.add(name)) return false;
+		submit(data.length, new Callable<Entry>() {
+			@Override
+			public Entry call() throws IOException {
+				return compress(name, data);
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Add an entry copied as-is (still compressed) from another jar, returns false if an entry of the same name was
+	 * already added. As the content is copied straight away (while the reader is open), the pending entries are
+	 * written out first.
+	 */
+	boolean add(final String name, final JarReader reader, final JarReader.Entry source) throws IOException {
+		if (!names.add(name)) return false;
+		drain();
+		final Entry entry = new Entry(name, source.method);
+		entry.crc = source.crc;
+		entry.size = source.size;
+		entry.compressedSize = source.compressedSize;
+		entry.reader = reader;
+		entry.source = source;
+		entry.phase = phase();
+		write(entry);
+		return true;
+	}
+
+	/**
+	 * Add an entry with content that is already compressed as described by the source entry, returns false if an
+	 * entry of the same name was already added.
+	 */
+	boolean add(final String name, final JarReader.Entry source, final byte[] raw) throws IOException {
+		if (!names.add(name)) return false;
+		final Entry entry = new Entry(name, source.method);
+		entry.crc = source.crc;
+		entry.size = source.size;
+		entry.compressedSize = raw.length;
+		entry.data = raw;
+		entry.phase = phase();
+		submit(raw.length, entry);
+		return true;
+	}
+
+	/**
+	 * The names of the entries added so far.
+	 */
+	Set<String> names() {
+		return Collections.unmodifiableSet(names);
+	}
+
+	boolean addDirectory(final String name) throws IOException {
+		return add(name.endsWith("/") ? name : name + "/", new byte[0]);
+	}
+
+	/**
+	 * Write out all the pending entries followed by the central directory.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) return;
+		closed = true;
+		IOException failure = null;
+		try {
+			try {
+				drain();
+			} catch (final IOException e) {
+				failure = e;
+			} finally {
+				if (writeBehind != null) failure = close(writeBehind, failure); // wait for the entries to be written
+			}
+			if (failure == null) {
+				for (final Variant variant : variants)
+					writeCentralDirectory(variant.out, variant.base);
+				for (final Variant variant : variants)
+					variant.out.flush();
+			}
+		} catch (final IOException e) {
+			failure = e;
+		} finally {
+			if (pool != null) shutdown(pool); // the entries still being compressed (on a failure) use the deflaters
+			for (final Deflater d : deflaters)
+				d.end();
+			for (final File spill : spills)
+				delete(spill);
+			failure = close(tee, failure);
+		}
+		if (failure != null) throw failure;
+	}
+
+	// QUEUE
+
+	private void submit(final long size, final Callable<Entry> task) throws IOException {
+		final Pending next = new Pending(size, pool != null ? pool.submit(task) : null, pool == null ? call(task) : null);
+		next.phase = phase();
+		submit(next);
+	}
+
+	private void submit(final long size, final Entry entry) throws IOException {
+		final Pending next = new Pending(size, null, entry);
+		next.phase = entry.phase;
+		submit(next);
+	}
+
+	private void submit(final Pending next) throws IOException {
+		final long size = next.size;
+		pending.addLast(next);
+		pendingBytes += size;
+
+		// write out the head of the queue (in order) while too much is held in memory
+		while (pending.size() > maxPending || (pendingBytes > MAX_PENDING_BYTES && pending.size() > 1) || (pending.peekFirst().isDone())) {
+			final Pending head = pending.removeFirst();
+			pendingBytes -= head.size;
+			write(join(head));
+			if (pending.isEmpty()) break;
+		}
+	}
+
+	private void drain() throws IOException {
+		while (!pending.isEmpty()) {
+			final Pending head = pending.removeFirst();
+			pendingBytes -= head.size;
+			write(join(head));
+		}
+	}
+
+	private static Entry call(final Callable<Entry> task) throws IOException {
+		try {
+			return task.call();
+		} catch (final IOException | RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static Entry join(final Pending pending) throws IOException {
+		final Entry entry = pending.future != null ? get(pending.future) : pending.entry;
+		entry.phase = pending.phase;
+		return entry;
+	}
+
+	private static Entry get(final Future<Entry> future) throws IOException {
+		try {
+			return future.get();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	// COMPRESSION (runs on the pool)
+
+	private Entry compress(final String name, final File file) throws IOException {
+		final int method = compression.methodFor(name, file);
+		final Entry entry = new Entry(name, method);
+		if (method == ZipEntry.STORED) {
+			// stored entries need the crc and size up front, so stream through the file to get them (copied when written)
+			final CRC32 crc = new CRC32();
+			try (final InputStream input = new CheckedInputStream(new FileInputStream(file), crc)) {
+				final byte[] buffer = new byte[8192];
+				while (input.read(buffer) != -1) ;
+			}
+			entry.crc = crc.getValue();
+			entry.size = entry.compressedSize = file.length();
+			entry.file = file;
+		} else {
+			try (final InputStream input = new FileInputStream(file)) {
+				deflate(entry, input, file.length());
+			}
+		}
+		return entry;
+	}
+
+	private Entry compress(final String name, final byte[] data) throws IOException {
+		int method = compression.methodFor(name);
+		if (method == -1) method = compression.methodFor(data, Math.min(data.length, Compression.SAMPLE_SIZE));
+		final Entry entry = new Entry(name, method);
+		if (method == ZipEntry.STORED) {
+			final CRC32 crc = new CRC32();
+			crc.update(data, 0, data.length);
+			entry.crc = crc.getValue();
+			entry.size = entry.compressedSize = data.length;
+			entry.data = data;
+		} else {
+			deflate(entry, new ByteArrayInputStream(data), data.length);
+		}
+		return entry;
+	}
+
+	private void deflate(final Entry entry, final InputStream input, final long length) throws IOException {
+		if (length < SPILL_SIZE) {
+			final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+			deflate(entry, input, compressed);
+			entry.data = compressed.toByteArray();
+			entry.compressedSize = entry.data.length;
+			return;
+		}
+
+		// a large entry is deflated to a temp file (and copied from it when written), so the heap held by the queued
+		// entries doesn't grow with their size
+		final File spill = File.createTempFile("capsule-", ".deflated");
+		spills.add(spill);
+		try (final OutputStream compressed = new BufferedOutputStream(new FileOutputStream(spill), 64 * 1024)) {
+			deflate(entry, input, compressed);
+		} catch (final IOException | RuntimeException e) {
+			delete(spill);
+			throw e;
+		}
+		entry.file = spill;
+		entry.spilled = true;
+		entry.compressedSize = spill.length();
+	}
+
+	private void deflate(final Entry entry, final InputStream input, final OutputStream compressed) throws IOException {
+		final Deflater deflater = this.deflater.get();
+		deflater.reset();
+		final CRC32 crc = new CRC32();
+		final byte[] in = new byte[8192];
+		final byte[] buffer = new byte[8192];
+		long size = 0;
+		int read;
+		while ((read = input.read(in)) != -1) {
+			crc.update(in, 0, read);
+			size += read;
+			deflater.setInput(in, 0, read);
+			while (!deflater.needsInput())
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+		}
+		deflater.finish();
+		while (!deflater.finished())
+			compressed.write(buffer, 0, deflater.deflate(buffer));
+		entry.crc = crc.getValue();
+		entry.size = size;
+	}
+
+	// WRITING (runs on the calling thread, in order)
+
+	private void write(final Entry entry) throws IOException {
+		entry.offset = offset;
+		final byte[] name = entry.name.getBytes(UTF8);
+		final boolean zip64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+		final ByteArrayOutputStream extra = new ByteArrayOutputStream();
+		if (entries.isEmpty()) { // marks the file as a jar
+			writeShort(extra, JAR_MAGIC_EXTRA);
+			writeShort(extra, 0);
+		}
+		if (zip64) {
+			writeShort(extra, ZIP64_EXTRA);
+			writeShort(extra, 16);
+			writeLong(extra, entry.size);
+			writeLong(extra, entry.compressedSize);
+		}
+
+		final ByteArrayOutputStream header = new ByteArrayOutputStream(30 + name.length + extra.size());
+		writeInt(header, LOCAL_HEADER);
+		writeShort(header, zip64 ? 45 : 20);
+		writeShort(header, FLAG_UTF8);
+		writeShort(header, entry.method);
+		writeInt(header, time);
+		writeInt(header, (int) entry.crc);
+		writeInt(header, zip64 ? ZIP64_MAGIC : entry.compressedSize);
+		writeInt(header, zip64 ? ZIP64_MAGIC : entry.size);
+		writeShort(header, name.length);
+		writeShort(header, extra.size());
+		header.write(name);
+		extra.writeTo(header);
+		header.writeTo(out);
+		offset += header.size();
+
+		if (entry.file != null && !entry.spilled && writeBehind != null && entry.compressedSize >= transferSize) {
+			if (entry.file.length() != entry.compressedSize) throw new IOException(entry.file + " changed while being added to the jar");
+			writeBehind.transfer(entry.file, 0, entry.compressedSize);
+		} else if (entry.file != null) {
+			try (final InputStream input = new FileInputStream(entry.file)) {
+				final byte[] buffer = new byte[64 * 1024];
+				long remaining = entry.compressedSize;
+				int read;
+				while (remaining > 0 && (read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+					out.write(buffer, 0, read);
+					remaining -= read;
+				}
+				if (remaining != 0) throw new IOException(entry.file + " changed while being added to the jar");
+			}
+		} else if (entry.source != null) {
+			entry.reader.copy(entry.source, out);
+		} else {
+			out.write(entry.data);
+		}
+		offset += entry.compressedSize;
+		if (entry.spilled) delete(entry.file); // copied (not transferred later on by the writer thread)
+		if (metrics != null) metrics.entry(entry.phase, entry.source != null ? entry.compressedSize : entry.size, header.size() + entry.compressedSize);
+		entry.data = null; // written, let it go
+		entry.reader = null;
+		entry.source = null;
+		entries.add(entry);
+	}
+
+	// the central directory of a variant, whose entries are all shifted by the length of its prefix
+	private void writeCentralDirectory(final OutputStream out, final long base) throws IOException {
+		final long start = base + offset;
+		final ByteArrayOutputStream directory = new ByteArrayOutputStream();
+		for (final Entry entry : entries) {
+			final byte[] name = entry.name.getBytes(UTF8);
+			final long entryOffset = base + entry.offset;
+			final boolean sizes64 = entry.size >= ZIP64_MAGIC || entry.compressedSize >= ZIP64_MAGIC;
+			final boolean offset64 = entryOffset >= ZIP64_MAGIC;
+			final ByteArrayOutputStream extra = new ByteArrayOutputStream();
+			if (sizes64 || offset64) {
+				writeShort(extra, ZIP64_EXTRA);
+				writeShort(extra, (sizes64 ? 16 : 0) + (offset64 ? 8 : 0));
+				if (sizes64) {
+					writeLong(extra, entry.size);
+					writeLong(extra, entry.compressedSize);
+				}
+				if (offset64) writeLong(extra, entryOffset);
+			}
+			final int version = sizes64 || offset64 ? 45 : 20;
+			writeInt(directory, CENTRAL_HEADER);
+			writeShort(directory, version);
+			writeShort(directory, version);
+			writeShort(directory, FLAG_UTF8);
+			writeShort(directory, entry.method);
+			writeInt(directory, time);
+			writeInt(directory, (int) entry.crc);
+			writeInt(directory, sizes64 ? ZIP64_MAGIC : entry.compressedSize);
+			writeInt(directory, sizes64 ? ZIP64_MAGIC : entry.size);
+			writeShort(directory, name.length);
+			writeShort(directory, extra.size());
+			writeShort(directory, 0); // comment
+			writeShort(directory, 0); // disk
+			writeShort(directory, 0); // internal attributes
+			writeInt(directory, 0); // external attributes
+			writeInt(directory, offset64 ? ZIP64_MAGIC : entryOffset);
+			directory.write(name);
+			extra.writeTo(directory);
+		}
+		final long size = directory.size();
+
+		final boolean zip64 = entries.size() >= ZIP64_MAGIC_COUNT || start >= ZIP64_MAGIC || size >= ZIP64_MAGIC;
+		if (zip64) {
+			final long zip64End = start + size;
+			writeInt(directory, ZIP64_END_OF_CENTRAL_DIRECTORY);
+			writeLong(directory, 44);
+			writeShort(directory, 45);
+			writeShort(directory, 45);
+			writeInt(directory, 0);
+			writeInt(directory, 0);
+			writeLong(directory, entries.size());
+			writeLong(directory, entries.size());
+			writeLong(directory, size);
+			writeLong(directory, start);
+			writeInt(directory, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR);
+			writeInt(directory, 0);
+			writeLong(directory, zip64End);
+			writeInt(directory, 1);
+		}
+		writeInt(directory, END_OF_CENTRAL_DIRECTORY);
+		writeShort(directory, 0);
+		writeShort(directory, 0);
+		writeShort(directory, zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+		writeShort(directory, zip64 ? ZIP64_MAGIC_COUNT : entries.size());
+		writeInt(directory, zip64 ? ZIP64_MAGIC : size);
+		writeInt(directory, zip64 ? ZIP64_MAGIC : start);
+		writeShort(directory, 0); // comment
+		directory.writeTo(out);
+	}
+
+	// HELPERS
+
+	// closes the stream, keeping the first failure (any later one suppressed by it)
+	private static IOException close(final Closeable closeable, final IOException failure) {
+		try {
+			closeable.close();
+			return failure;
+		} catch (final IOException e) {
+			if (failure == null) return e;
+			failure.addSuppressed(e);
+			return failure;
+		}
+	}
+
+	// waits for the running tasks, which are left to finish their entry
+	private static void shutdown(final ForkJoinPool pool) {
+		pool.shutdownNow();
+		try {
+			while (!pool.awaitTermination(1, TimeUnit.SECONDS)) ;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void delete(final File spill) {
+		spills.remove(spill);
+		if (!spill.delete()) spill.deleteOnExit();
+	}
+
+	private String phase() {
+		return metrics != null ? metrics.current() : null;
+	}
+
+	private static int dosTime(final long time, final TimeZone timeZone) {
+		final Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.setTimeInMillis(time);
+		final int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) return (1 << 21) | (1 << 16); // 1980-01-01 00:00
+		return (year - 1980) << 25
+				| (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16
+				| calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5
+				| calendar.get(Calendar.SECOND) >> 1;
+	}
+
+	private static void writeShort(final ByteArrayOutputStream out, final int value) {
+		out.write(value & 0xff);
+		out.write((value >>> 8) & 0xff);
+	}
+
+	private static void writeInt(final ByteArrayOutputStream out, final long value) {
+		writeShort(out, (int) (value & 0xffff));
+		writeShort(out, (int) ((value >>> 16) & 0xffff));
+	}
+
+	private static void writeLong(final ByteArrayOutputStream out, final long value) {
+		writeInt(out, value & 0xffffffffL);
+		writeInt(out, value >>> 32);
+	}
+
+	private static final class Variant {
+		final OutputStream out;
+		final long base; // length of the prefix
+		Variant(final OutputStream out, final long base) {
+			this.out = out;
+			this.base = base;
+		}
+	}
+
+	private final class Tee extends OutputStream {
+		@Override
+		public void write(final int b) throws IOException {
+			for (final Variant variant : variants)
+				variant.out.write(b);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			for (final Variant variant : variants)
+				variant.out.write(b, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			for (final Variant variant : variants)
+				variant.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			IOException failure = null;
+			for (final Variant variant : variants) {
+				try {
+					variant.out.close();
+				} catch (final IOException e) {
+					failure = e;
+				}
+			}
+			if (failure != null) throw failure;
+		}
+	}
+
+	private static final class Pending {
+		final long size;
+		final Future<Entry> future;
+		final Entry entry;
+		String phase;
+		Pending(final long size, final Future<Entry> future, final Entry entry) {
+			this.size = size;
+			this.future = future;
+			this.entry = entry;
+		}
+		boolean isDone() { return future == null || future.isDone(); }
+	}
+
+	private static final class Entry {
+		final String name;
+		final int method;
+		long crc;
+		long size;
+		long compressedSize;
+		long offset;
+		byte[] data; // compressed (or stored) content
+		File file; // or the file to copy as-is
+		boolean spilled; // the file is a temp file of deflated content, deleted once written
+		JarReader reader; // or the entry of another jar to copy as-is
+		JarReader.Entry source;
+		String phase; // of the build it was added in (see BuildMetrics)
+		Entry(final String name, final int method) {
+			this.name = name;
+			this.method = method;
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * The index of a library capsule (written next to it by the library goal): the file name of the library capsule, the
+ * digest of its content, and the jars in it by the sha-256 of their content, so a capsule references a jar of the
+ * library only if it is the very same jar it would embed.
+ * <p>
+ * The digest is the sha-256 of the lines "(entry name) (sha-256 of the jar)" of the jars, sorted by entry name, as
+ * checked again by the LibraryCapsule caplet when it extracts the library.
+ */
+final class LibraryIndex {
+
+	private static final String HEADER = "# capsule library index";
+
+	final String file; // file name of the library capsule
+	final String digest;
+	final Map<String, String> jars; // sha-256 of the jar -> entry name in the library
+
+	private LibraryIndex(final String file, final String digest, final Map<String, String> jars) {
+		this.file = file;
+		this.digest = digest;
+		this.jars = Collections.unmodifiableMap(jars);
+	}
+
+	/**
+	 * The index of the given jars (entry name -> sha-256), for a library capsule named after its digest.
+	 */
+	static LibraryIndex of(final String name, final Map<String, String> entries) throws IOException {
+		final Map<String, String> sorted = new TreeMap<>(entries);
+		final StringBuilder lines = new StringBuilder();
+		final Map<String, String> jars = new LinkedHashMap<>();
+		for (final Map.Entry<String, String> entry : sorted.entrySet()) {
+			lines.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+			jars.put(entry.getValue(), entry.getKey());
+		}
+		final String digest;
+		try {
+			digest = Mojo.hex(MessageDigest.getInstance("SHA-256").digest(lines.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		return new LibraryIndex(name + "-" + digest.substring(0, 16) + ".jar", digest, jars);
+	}
+
+	static LibraryIndex read(final File index) throws IOException {
+		final List<String> lines = Files.readAllLines(index.toPath(), StandardCharsets.UTF_8);
+		if (lines.size() < 2 || !lines.get(0).equals(HEADER)) throw new IOException(index + " is not a capsule library index");
+		final String[] library = lines.get(1).split(" ");
+		if (library.length != 2) throw new IOException(index + " is not a capsule library index");
+		final Map<String, String> jars = new LinkedHashMap<>();
+		for (final String line : lines.subList(2, lines.size())) {
+			final String[] jar = line.split(" ");
+			if (jar.length == 2) jars.put(jar[0], jar[1]);
+		}
+		return new LibraryIndex(library[1], library[0], jars);
+	}
+
+	/**
+	 * Write the index, unless it is already there as is (the capsules referencing it are rebuilt when it changes).
+	 */
+	void write(final File index) throws IOException {
+		final StringBuilder content = new StringBuilder(HEADER).append('\n');
+		content.append(digest).append(' ').append(file).append('\n');
+		for (final Map.Entry<String, String> jar : jars.entrySet())
+			content.append(jar.getKey()).append(' ').append(jar.getValue()).append('\n');
+		final byte[] bytes = content.toString().getBytes(StandardCharsets.UTF_8);
+		if (index.isFile() && Arrays.equals(bytes, Files.readAllBytes(index.toPath()))) return;
+		Files.write(index.toPath(), bytes);
+	}
+
+}
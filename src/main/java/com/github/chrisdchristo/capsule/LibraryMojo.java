@@ -0,0 +1,152 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.model.Dependency;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * Mojo to generate a library capsule: the runtime dependencies of all the modules of the reactor, each jar stored once,
+ * in a jar named after the digest of its content. The capsules of the modules (built with the library set to its
+ * index) then reference the jars they have in common with it instead of embedding them. It is an aggregator, run once
+ * for the reactor by the root project of the build.
+ */
+@org.apache.maven.plugins.annotations.Mojo(name = "library", defaultPhase = LifecyclePhase.PACKAGE, aggregator = true)
+public class LibraryMojo extends Mojo {
+
+	@Parameter(defaultValue = "${reactorProjects}", readonly = true)
+	private List<MavenProject> reactorProjects = null;
+	@Parameter(property = "capsule.outputDir", defaultValue = "${project.build.directory}")
+	private File outputDir = null;
+	@Parameter(property = "capsule.libraryName", defaultValue = "${project.artifactId}-library")
+	private String libraryName = null; // the library capsule is named (libraryName)-(digest).jar, its index (libraryName).library
+
+	@Override
+	public void execute() throws MojoExecutionException, MojoFailureException {
+		// one library for the whole reactor, built by the project maven was run on (e.g if the execution is inherited)
+		if (!project.isExecutionRoot()) {
+			info("[Library]: Skipped, " + project.getArtifactId() + " is not the root of the build");
+			return;
+		}
+		if (!outputDir.exists() && !outputDir.mkdirs()) throw new MojoFailureException("Failed to build outputDir path");
+		try {
+			outputTime(); // fail early on an invalid outputTimestamp
+		} catch (final IllegalArgumentException e) {
+			throw new MojoFailureException(e.getMessage());
+		}
+		compression.validate();
+		try {
+			build();
+		} catch (final IOException e) {
+			e.printStackTrace();
+			throw new MojoFailureException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Build the library capsule of the reactor (unless one with the same content is already there) and its index.
+	 */
+	public void build() throws IOException {
+
+		// the modules of the reactor are embedded by their own capsules (and may not be built yet)
+		final Set<String> modules = new HashSet<>();
+		for (final MavenProject module : reactorProjects)
+			modules.add(module.getGroupId() + ":" + module.getArtifactId());
+
+		// the jars by entry name (group/file), the first one of a name kept
+		final Map<String, Artifact> artifacts = new TreeMap<>();
+		for (final MavenProject module : reactorProjects) {
+			final Set<Dependency> declared = set(module.getDependencies());
+			final Set<Dependency> dependencies = new LinkedHashSet<>();
+			for (final Dependency dependency : declared)
+				if (isRuntime(dependency.getScope(), dependency.isOptional()) && !modules.contains(dependency.getGroupId() + ":" + dependency.getArtifactId()))
+					dependencies.add(dependency);
+			final Plugin plugin = module.getPlugin(pluginKey());
+			if (plugin != null) dependencies.addAll(set(plugin.getDependencies())); // embedded by a fat capsule too
+			final Set<Dependency> managed = module.getDependencyManagement() != null
+					? set(module.getDependencyManagement().getDependencies()) : Collections.<Dependency>emptySet();
+
+			int jars = 0;
+			for (final Artifact artifact : resolveDependencyArtifacts(dependencies, managed)) {
+				if (!isRuntime(artifact.getScope(), artifact.isOptional()) || artifact.getFile() == null) continue;
+				if (modules.contains(artifact.getGroupId() + ":" + artifact.getArtifactId())) continue;
+				if (artifact.getGroupId().equalsIgnoreCase(CAPSULE_GROUP) && artifact.getArtifactId().equalsIgnoreCase("capsule")) continue;
+				final String name = artifact.getGroupId() + "/" + artifact.getFile().getName();
+				final Artifact previous = artifacts.get(name);
+				if (previous == null) artifacts.put(name, artifact);
+				else if (!previous.getFile().equals(artifact.getFile()))
+					warn("\t[Library] " + coords(artifact) + " has the same name as " + coords(previous) + ", only the latter is in the library");
+				jars++;
+			}
+			info("[Library]: " + module.getArtifactId() + " (" + jars + " jars)");
+		}
+
+		// content addressed: the same jars give the same library (and file name), whichever modules they came from
+		final Map<String, String> entries = new TreeMap<>();
+		long bytes = 0;
+		for (final Map.Entry<String, Artifact> artifact : artifacts.entrySet()) {
+			entries.put(artifact.getKey(), sha256(artifact.getValue().getFile()));
+			bytes += artifact.getValue().getFile().length();
+		}
+		final LibraryIndex index = LibraryIndex.of(libraryName, entries);
+		final File libraryFile = new File(outputDir, index.file);
+		final File indexFile = new File(outputDir, libraryName + ".library");
+
+		if (libraryFile.isFile()) info("UP-TO-DATE - " + libraryFile.getName() + " (same content, skipping build)");
+		else {
+			final File temp = new File(outputDir, libraryFile.getName() + ".tmp");
+			try (final JarWriter jar = new JarWriter(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024), compression, threads, outputTime())) {
+				addToJar(JarFile.MANIFEST_NAME, new ByteArrayInputStream(manifest(index, artifacts.values())), jar);
+				for (final Map.Entry<String, Artifact> artifact : artifacts.entrySet()) {
+					addDirectoryToJar(jar, artifact.getKey().substring(0, artifact.getKey().indexOf('/') + 1));
+					addToJar(artifact.getKey(), artifact.getValue().getFile(), jar);
+				}
+			}
+			// moved into place in one step, so a concurrent build or launch never sees a missing or partial library
+			try {
+				Files.move(temp.toPath(), libraryFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (final AtomicMoveNotSupportedException e) {
+				Files.move(temp.toPath(), libraryFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			info("[Library Capsule]: " + libraryFile.getName() + " (" + artifacts.size() + " jars, " + bytes / 1024 + " KB)");
+		}
+		index.write(indexFile);
+		info("[Library Index]: " + indexFile.getPath());
+
+		info("[Maven Artifact]: Attached library capsule artifact to maven (" + libraryFile.getName() + ").");
+		attach(libraryFile, "jar", "capsule-library");
+	}
+
+	private static byte[] manifest(final LibraryIndex index, final Collection<Artifact> artifacts) throws IOException {
+		final Manifest manifest = new Manifest();
+		final Attributes mainAttributes = manifest.getMainAttributes();
+		mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		mainAttributes.put(new Attributes.Name("Library-Digest"), index.digest);
+		final StringBuilder coords = new StringBuilder();
+		for (final Artifact artifact : artifacts)
+			coords.append(coords(artifact)).append(" ");
+		mainAttributes.put(new Attributes.Name("Library-Artifacts"), coords.toString().trim());
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		manifest.write(out);
+		return out.toByteArray();
+	}
+
+	// what a fat capsule embeds: non optional compile and runtime dependencies
+	private static boolean isRuntime(final String scope, final boolean optional) {
+		return !optional && (scope == null || scope.isEmpty() || scope.equals("compile") || scope.equals("runtime"));
+	}
+
+}
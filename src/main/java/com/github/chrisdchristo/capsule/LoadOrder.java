@@ -0,0 +1,191 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The order a training run loaded the classes of the app in (and so the order it first needed each jar in), read from
+ * the -verbose:class output of the run, used to put what is needed first at startup first in the capsule and on the
+ * classpath.
+ * <p>
+ * Jars are only moved ahead of jars they have no entry in common with, so the same class (or resource) is still found
+ * in the same jar as before.
+ */
+final class LoadOrder {
+
+	private static final Pattern LOADED = Pattern.compile("\\[class,load\\s*\\] (\\S+) source: (file:\\S+)$"); // java 9+
+	private static final Pattern LOADED_8 = Pattern.compile("^\\[Loaded (\\S+) from (file:\\S+)\\]$");
+
+	private final Map<String, Integer> jars = new HashMap<>(); // jar file name -> rank of the first class loaded from it
+	private final Map<String, Integer> classes = new HashMap<>(); // class entry name -> rank
+	private final Map<List<File>, List<Integer>> sorted = new HashMap<>(); // jars (in their order) -> their sorted order
+
+	/**
+	 * The classes loaded from jars (in the -verbose:class format of java 8 or later), the rest of the output ignored.
+	 */
+	static LoadOrder read(final File log) throws IOException {
+		final LoadOrder order = new LoadOrder();
+		if (!log.isFile()) return order;
+		try (final BufferedReader reader = Files.newBufferedReader(log.toPath(), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				Matcher loaded = LOADED.matcher(line);
+				if (!loaded.find()) {
+					loaded = LOADED_8.matcher(line);
+					if (!loaded.find()) continue;
+				}
+				final String source = loaded.group(2);
+				if (!source.endsWith(".jar")) continue;
+				try {
+					final String jar = Paths.get(new URI(source)).getFileName().toString();
+					final String entry = loaded.group(1).replace('.', '/') + ".class";
+					if (!order.jars.containsKey(jar)) order.jars.put(jar, order.jars.size());
+					if (!order.classes.containsKey(entry)) order.classes.put(entry, order.classes.size());
+				} catch (final URISyntaxException | IllegalArgumentException e) {
+					// not a plain file
+				}
+			}
+		}
+		return order;
+	}
+
+	boolean isEmpty() {
+		return classes.isEmpty();
+	}
+
+	int jars() {
+		return jars.size();
+	}
+
+	int classes() {
+		return classes.size();
+	}
+
+	/**
+	 * The jar (or file) of an item to sort, null if unknown.
+	 */
+	interface Key<T> {
+		File file(T item);
+	}
+
+	/**
+	 * The items with the jars loaded from first ahead, each kept behind the items before it that share an entry with
+	 * it (or when either can't be read). Items not loaded from keep their order, after the others (unless they hold
+	 * one back). The order of the same jars is only worked out once, as the sites listing them (the manifest, the
+	 * embedded jars...) sort the same ones.
+	 */
+	<T> List<T> sort(final Collection<T> items, final Key<T> key) {
+		final List<T> list = new ArrayList<>(items);
+		final List<File> files = new ArrayList<>(list.size());
+		for (final T item : list)
+			files.add(key.file(item));
+		List<Integer> order = sorted.get(files);
+		if (order == null) sorted.put(files, order = sort(files));
+		final List<T> result = new ArrayList<>(list.size());
+		for (final int i : order)
+			result.add(list.get(i));
+		return result;
+	}
+
+	// the indexes of the files in their sorted order
+	private List<Integer> sort(final List<File> files) {
+		final int n = files.size();
+		final List<Set<Integer>> after = new ArrayList<>(n); // item -> items that must stay after it
+		final int[] before = new int[n]; // item -> number of items that must stay before it
+		final Map<String, List<Integer>> owners = new HashMap<>(); // entry name -> items with it
+		final List<Integer> unreadable = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			after.add(new HashSet<Integer>());
+			final Set<Integer> previous = new HashSet<>(unreadable);
+			final Set<String> entries = entries(files.get(i));
+			if (entries == null) {
+				for (int j = 0; j < i; j++) previous.add(j);
+				unreadable.add(i);
+			} else {
+				for (final String entry : entries) {
+					List<Integer> entryOwners = owners.get(entry);
+					if (entryOwners == null) owners.put(entry, entryOwners = new ArrayList<>());
+					previous.addAll(entryOwners);
+					entryOwners.add(i);
+				}
+			}
+			for (final int j : previous)
+				if (after.get(j).add(i)) before[i]++;
+		}
+
+		// the free items by rank (and then by their original order), an item holding others back taking on their rank
+		final int[] ranks = new int[n];
+		for (int i = n - 1; i >= 0; i--) {
+			final File file = files.get(i);
+			final Integer rank = file != null ? jars.get(file.getName()) : null;
+			ranks[i] = rank != null ? rank : Integer.MAX_VALUE;
+			for (final int j : after.get(i))
+				ranks[i] = Math.min(ranks[i], ranks[j]);
+		}
+		final PriorityQueue<Integer> free = new PriorityQueue<>(Math.max(n, 1), new Comparator<Integer>() {
+			@Override
+			public int compare(final Integer a, final Integer b) {
+				return ranks[a] != ranks[b] ? Integer.compare(ranks[a], ranks[b]) : Integer.compare(a, b);
+			}
+		});
+		for (int i = 0; i < n; i++)
+			if (before[i] == 0) free.add(i);
+		final List<Integer> sorted = new ArrayList<>(n);
+		while (!free.isEmpty()) {
+			final int i = free.poll();
+			sorted.add(i);
+			for (final int j : after.get(i))
+				if (--before[j] == 0) free.add(j);
+		}
+		return sorted;
+	}
+
+	/**
+	 * The entry names with the classes loaded first ahead (in the order they were loaded), the manifest and its
+	 * directory kept first and the rest in the order given.
+	 */
+	List<String> sortEntries(final Collection<String> names) {
+		final List<String> first = new ArrayList<>();
+		final List<String> loaded = new ArrayList<>();
+		final List<String> rest = new ArrayList<>();
+		for (final String name : names) {
+			if (name.equals("META-INF/") || name.equalsIgnoreCase("META-INF/MANIFEST.MF")) first.add(name);
+			else if (classes.containsKey(name)) loaded.add(name);
+			else rest.add(name);
+		}
+		Collections.sort(loaded, new Comparator<String>() {
+			@Override
+			public int compare(final String a, final String b) {
+				return Integer.compare(classes.get(a), classes.get(b));
+			}
+		});
+		first.addAll(loaded);
+		first.addAll(rest);
+		return first;
+	}
+
+	// the file entries of a jar, leaving out those that don't decide where a class (or resource) is loaded from
+	private static Set<String> entries(final File file) {
+		if (file == null || !file.isFile()) return null;
+		final Set<String> entries = new HashSet<>();
+		try (final JarReader reader = new JarReader(file)) {
+			for (final JarReader.Entry entry : reader.entries()) {
+				final String name = entry.getName();
+				if (entry.isDirectory() || name.equals("module-info.class") || name.endsWith("/module-info.class")) continue;
+				if (name.startsWith("META-INF/") && !name.startsWith("META-INF/versions/")) continue; // manifests, services, ...
+				entries.add(name);
+			}
+		} catch (final IOException e) {
+			return null;
+		}
+		return entries;
+	}
+
+}
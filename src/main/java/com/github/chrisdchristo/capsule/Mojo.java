@@ -1,6 +1,7 @@
 package com.github.chrisdchristo.capsule;
 
 import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
 import org.apache.maven.model.Dependency;
 import org.apache.maven.model.Exclusion;
 import org.apache.maven.model.Plugin;
@@ -15,18 +16,21 @@ import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.collection.CollectRequest;
+import org.eclipse.aether.graph.DependencyNode;
 import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.resolution.*;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.jar.Attributes;
-import java.util.jar.JarOutputStream;
 import java.util.jar.Manifest;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipException;
 
 /**
  * Super class with generic methods
@@ -48,6 +52,16 @@ public abstract class Mojo extends AbstractMojo {
 	File buildDir = null;
 	@Parameter(defaultValue = "${project.basedir}")
 	File baseDir = null;
+	@Parameter
+	Compression compression = new Compression(); // compression policy for the entries of the jar
+	@Parameter(property = "capsule.threads")
+	int threads = Runtime.getRuntime().availableProcessors(); // threads used to compress the entries of the jar
+	@Parameter(defaultValue = "${project.build.outputTimestamp}", property = "capsule.outputTimestamp")
+	String outputTimestamp = null; // fixed time of the entries of the jar (i.e a reproducible build)
+	@Parameter(property = "capsule.writeBufferSize")
+	int writeBufferSize = 256 * 1024; // size of the buffers handed to the writer thread
+	@Parameter(property = "capsule.writeQueueDepth")
+	int writeQueueDepth = 16; // buffers waiting for the writer thread (0 to write on the calling thread)
 
 
 	/**
@@ -58,8 +72,15 @@ public abstract class Mojo extends AbstractMojo {
 
 	final MavenProjectHelper helper = new DefaultMavenProjectHelper();
 
-	abstract String pluginKey();
-	abstract String logPrefix();
+	static final String CAPSULE_GROUP = "co.paralleluniverse";
+
+	public final String pluginKey() {
+		return "com.github.chrisdchristo:capsule-maven-plugin";
+	}
+
+	public final String logPrefix() {
+		return "[CapsuleMavenPlugin] ";
+	}
 
 	// DEPENDENCIES
 
@@ -68,22 +89,52 @@ public abstract class Mojo extends AbstractMojo {
 	Set<Artifact> appDependencyArtifacts() { return project.getArtifacts(); }
 	Set<Artifact> appDirectDependencyArtifacts() { return project.getDependencyArtifacts(); }
 
-	Set<Dependency> pluginDependencies() { return getDependenciesOf(set(plugin().getDependencies()), true); }
+	Set<Dependency> pluginDependencies() { resolvePluginDependencies(); return pluginDependencies; }
 	Set<Dependency> pluginDirectDependencies() { return set(plugin().getDependencies()); }
-	Set<Artifact> pluginDependencyArtifacts() { return getDependencyArtifactsOf(set(plugin().getDependencies()), true); }
-	Set<Artifact> pluginDirectDependencyArtifacts() { return toArtifacts(set(plugin().getDependencies())); }
+	Set<Artifact> pluginDependencyArtifacts() { resolvePluginDependencies(); return pluginDependencyArtifacts; }
+	Set<Artifact> pluginDirectDependencyArtifacts() {
+		if (pluginDirectDependencyArtifacts == null)
+			pluginDirectDependencyArtifacts = Collections.unmodifiableSet(toArtifacts(pluginDirectDependencies()));
+		return pluginDirectDependencyArtifacts;
+	}
+
+	// the plugin's dependencies are resolved once per execution (maven creates a mojo for each), and the same snapshot
+	// is shared by the manifest and the embedding
+	private Set<Dependency> pluginDependencies = null;
+	private Set<Artifact> pluginDependencyArtifacts = null;
+	private Set<Artifact> pluginDirectDependencyArtifacts = null;
+	private Map<String, Integer> pluginDependencyDepths = null; // coords -> depth in the tree (1 for the direct ones)
+
+	private void resolvePluginDependencies() {
+		if (pluginDependencies != null) return;
+		final Set<Dependency> dependencies = pluginDirectDependencies();
+		final DependencyNode root = resolveDependencies(dependencies, Collections.<Dependency>emptySet());
+		pluginDependencyArtifacts = Collections.unmodifiableSet(getDependencyArtifactsOf(root, true));
+		pluginDependencies = Collections.unmodifiableSet(getDependenciesOf(dependencies, root, true));
+		pluginDependencyDepths = depthsOf(root);
+	}
+
+	/**
+	 * How deep the dependency is in the tree it comes from: 1 for the direct dependencies (of the app or the plugin),
+	 * 2 for theirs, and so on.
+	 */
+	int depthOf(final Artifact artifact, final boolean plugin) {
+		if (plugin) {
+			resolvePluginDependencies();
+			final Integer depth = pluginDependencyDepths.get(coords(artifact));
+			return depth != null ? depth : 1;
+		}
+		final List<String> trail = artifact.getDependencyTrail(); // the project, then each dependency down to the artifact
+		return trail != null && trail.size() > 1 ? trail.size() - 1 : 1;
+	}
 
 
 	// RESOLVERS
 
-	private Plugin plugin() {
+	Plugin plugin() {
 		return project.getPlugin(pluginKey());
 	}
 
-	private ArtifactResult resolve(final Dependency dependency) {
-		return resolve(dependency.getGroupId(), dependency.getArtifactId(), dependency.getClassifier(), dependency.getVersion());
-	}
-
 	ArtifactResult resolve(final String groupId, final String artifactId, final String classifier, final String version) {
 		return resolve(coords(groupId, artifactId, classifier, version));
 	}
@@ -97,40 +148,87 @@ public abstract class Mojo extends AbstractMojo {
 		}
 	}
 
-	private Set<ArtifactResult> resolveDependencies(final Dependency dependency) {
+	// resolves all the artifacts in one call, so the repo connector can download the missing ones in parallel
+	private List<ArtifactResult> resolve(final Collection<Dependency> dependencies) {
+		final List<ArtifactRequest> requests = new ArrayList<>();
+		for (final Dependency dependency : dependencies)
+			requests.add(new ArtifactRequest(toAetherDependency(dependency).getArtifact(), remoteRepos, null));
+		List<ArtifactResult> results;
 		try {
-			final CollectRequest collectRequest = new CollectRequest(new org.eclipse.aether.graph.Dependency(resolve(dependency).getArtifact(), ""), remoteRepos);
-			return set(repoSystem.resolveDependencies(repoSession, new DependencyRequest(collectRequest, null)).getArtifactResults());
+			results = repoSystem.resolveArtifacts(repoSession, requests);
+		} catch (final ArtifactResolutionException e) {
+			results = e.getResults();
+		}
+		final List<ArtifactResult> resolved = new ArrayList<>();
+		for (final ArtifactResult result : results) {
+			if (result.isResolved()) resolved.add(result);
+			else warn("\t\t[Resolve] Failed to resolve: [" + result.getRequest().getArtifact() + "]");
+		}
+		return resolved;
+	}
+
+	/**
+	 * The given dependencies and their transitive dependencies (in the scope of their root), with the versions of the
+	 * managed dependencies applied to them as in the project that declares them.
+	 */
+	Set<Artifact> resolveDependencyArtifacts(final Collection<Dependency> dependencies, final Collection<Dependency> managed) {
+		return getDependencyArtifactsOf(resolveDependencies(dependencies, managed), true);
+	}
+
+	// collects and resolves the trees of all the dependencies with a single request (the children of the returned root)
+	private DependencyNode resolveDependencies(final Collection<Dependency> dependencies, final Collection<Dependency> managed) {
+		if (dependencies.isEmpty()) return null;
+		final CollectRequest collectRequest = new CollectRequest();
+		collectRequest.setRepositories(remoteRepos);
+		for (final Dependency dependency : dependencies)
+			collectRequest.addDependency(toAetherDependency(dependency));
+		for (final Dependency dependency : managed)
+			collectRequest.addManagedDependency(toAetherDependency(dependency));
+		try {
+			return repoSystem.resolveDependencies(repoSession, new DependencyRequest(collectRequest, null)).getRoot();
 		} catch (final DependencyResolutionException e) {
-			warn("\t\t[Resolve] Failed to resolve: [" + coords(dependency) + "]");
-			return new HashSet<>();
+			for (final Dependency dependency : dependencies)
+				warn("\t\t[Resolve] Failed to resolve: [" + coords(dependency) + "]");
+			return e.getResult() != null ? e.getResult().getRoot() : null;
 		}
 	}
 
+	private static org.eclipse.aether.graph.Dependency toAetherDependency(final Dependency dependency) {
+		final List<org.eclipse.aether.graph.Exclusion> exclusions = new ArrayList<>();
+		for (final Exclusion exclusion : dependency.getExclusions())
+			exclusions.add(new org.eclipse.aether.graph.Exclusion(exclusion.getGroupId(), exclusion.getArtifactId(), "*", "*"));
+		return new org.eclipse.aether.graph.Dependency(
+				new DefaultArtifact(dependency.getGroupId(), dependency.getArtifactId(), dependency.getClassifier(), "jar", dependency.getVersion()),
+				scopeOf(dependency),
+				dependency.isOptional(),
+				exclusions);
+	}
+
+	private static String scopeOf(final Dependency dependency) {
+		return dependency.getScope() == null || dependency.getScope().isEmpty() ? "compile" : dependency.getScope();
+	}
+
 	Artifact toArtifact(final ArtifactResult ar) {
 		if (ar == null) return null;
+		final DependencyNode node = ar.getRequest().getDependencyNode();
+		return toArtifact(ar.getArtifact(), node != null ? node.getDependency() : null);
+	}
+
+	private Artifact toArtifact(final org.eclipse.aether.artifact.Artifact a, final org.eclipse.aether.graph.Dependency dependency) {
 		final Artifact artifact = new org.apache.maven.artifact.DefaultArtifact(
-				ar.getArtifact().getGroupId(),
-				ar.getArtifact().getArtifactId(),
-				ar.getArtifact().getVersion(),
+				a.getGroupId(),
+				a.getArtifactId(),
+				a.getVersion(),
 				null,
 				"jar",
-				ar.getArtifact().getClassifier(),
+				a.getClassifier(),
 				null);
-		if (ar.getRequest().getDependencyNode() != null && ar.getRequest().getDependencyNode().getDependency() != null) {
-			artifact.setScope(ar.getRequest().getDependencyNode().getDependency().getScope());
-			artifact.setOptional(ar.getRequest().getDependencyNode().getDependency().isOptional());
+		if (dependency != null) {
+			artifact.setScope(dependency.getScope());
+			artifact.setOptional(dependency.isOptional());
 		}
 		if (artifact.getScope() == null || artifact.getScope().isEmpty()) artifact.setScope("compile");
-		artifact.setFile(ar.getArtifact().getFile());
-		return artifact;
-	}
-
-	private Artifact toArtifact(final Dependency dependency) {
-		if (dependency == null) return null;
-		final Artifact artifact = toArtifact(resolve(dependency));
-		artifact.setScope(dependency.getScope());
-		if (artifact.getScope() == null || artifact.getScope().isEmpty()) artifact.setScope("compile");
+		artifact.setFile(a.getFile());
 		return artifact;
 	}
 
@@ -147,68 +245,109 @@ public abstract class Mojo extends AbstractMojo {
 		return dependency;
 	}
 
-	private Dependency toDependency(final ArtifactResult ar) {
-		return toDependency(toArtifact(ar));
+	// the transitive dependencies of each root, in the scope of their root (e.g. all of a provided dependency is provided)
+	private Set<Artifact> getDependencyArtifactsOf(final DependencyNode root, final boolean includeRoot) {
+		final Set<Artifact> artifacts = CoordsSet.artifacts();
+		if (root == null) return artifacts;
+		for (final DependencyNode node : root.getChildren()) {
+			final String scope = scopeOf(node.getDependency());
+			if (includeRoot && isResolved(node)) artifacts.add(toArtifact(node.getArtifact(), node.getDependency()));
+			for (final DependencyNode child : descendantsOf(node)) {
+				if (!isResolved(child)) continue;
+				final Artifact artifact = toArtifact(child.getArtifact(), child.getDependency());
+
+				// skip any deps that aren't compile or runtime (aether derives provided from a provided root etc.)
+				if (!artifact.getScope().equals("compile") && !artifact.getScope().equals("runtime") && !artifact.getScope().equals(scope)) continue;
+
+				// set direct-scope on transitive deps
+				if (scope.equals("provided")) artifact.setScope("provided");
+				if (scope.equals("system")) artifact.setScope("system");
+				if (scope.equals("test")) artifact.setScope("test");
+
+				artifacts.add(artifact);
+			}
+		}
+		return artifacts;
 	}
 
-	private Set<Artifact> getDependencyArtifactsOf(final Dependency dependency, final boolean includeRoot) {
-		final Set<Artifact> artifacts = new HashSet<>();
-		if (includeRoot) artifacts.add(toArtifact(dependency));
-		for (final ArtifactResult ar : resolveDependencies(dependency)) {
-			final Artifact artifact = toArtifact(ar);
-
-			// if null set to default compile
-			if (artifact.getScope() == null || artifact.getScope().isEmpty()) artifact.setScope("compile");
-
-			// skip any deps that aren't compile or runtime
-			if (!artifact.getScope().equals("compile") && !artifact.getScope().equals("runtime")) continue;
-
-			// set direct-scope on transitive deps
-			if (dependency.getScope().equals("provided")) artifact.setScope("provided");
-			if (dependency.getScope().equals("system")) artifact.setScope("system");
-			if (dependency.getScope().equals("test")) artifact.setScope("test");
+	private Set<Dependency> getDependenciesOf(final Set<Dependency> dependencies, final DependencyNode root, final boolean includeRoot) {
+		final Set<Dependency> dependenciesAll = CoordsSet.dependencies();
+		if (includeRoot) dependenciesAll.addAll(dependencies);
+		if (root == null) return dependenciesAll;
+		for (final DependencyNode node : root.getChildren())
+			for (final DependencyNode child : descendantsOf(node))
+				if (isResolved(child)) dependenciesAll.add(toDependency(toArtifact(child.getArtifact(), child.getDependency())));
+		return dependenciesAll;
+	}
 
-			artifacts.add(toArtifact(ar));
+	private Set<Artifact> toArtifacts(final Set<Dependency> dependencies) {
+		final Set<Artifact> artifacts = CoordsSet.artifacts();
+		if (dependencies.isEmpty()) return artifacts;
+		final Map<String, Dependency> byCoords = new LinkedHashMap<>();
+		for (final Dependency dependency : dependencies)
+			byCoords.put(coords(dependency), dependency);
+		for (final ArtifactResult ar : resolve(byCoords.values())) {
+			final Artifact artifact = toArtifact(ar.getArtifact(), null);
+			final Dependency dependency = byCoords.get(coords(artifact));
+			if (dependency != null) {
+				artifact.setScope(scopeOf(dependency));
+				artifact.setOptional(dependency.isOptional());
+			}
+			artifacts.add(artifact);
 		}
-		return cleanArtifacts(artifacts);
+		return artifacts;
 	}
 
-	private Set<Artifact> getDependencyArtifactsOf(final Set<Dependency> dependencies, final boolean includeRoot) {
-		final Set<Artifact> artifacts = new HashSet<>();
-		for (final Dependency dependency : dependencies) {
-			artifacts.addAll(getDependencyArtifactsOf(dependency, includeRoot));
-		}
-		return cleanArtifacts(artifacts);
+	private static String scopeOf(final org.eclipse.aether.graph.Dependency dependency) {
+		return dependency == null || dependency.getScope().isEmpty() ? "compile" : dependency.getScope();
 	}
 
-	private Set<Dependency> getDependenciesOf(final Dependency dependency, final boolean includeRoot) {
-		final Set<Dependency> dependencies = new HashSet<>();
-		if (includeRoot) dependencies.add(dependency);
-		for (final ArtifactResult ar : resolveDependencies(dependency)) {
-			dependencies.add(toDependency(ar));
-		}
-		return cleanDependencies(dependencies);
+	private static boolean isResolved(final DependencyNode node) {
+		return node.getArtifact() != null && node.getArtifact().getFile() != null;
 	}
 
-	private Set<Dependency> getDependenciesOf(final Set<Dependency> dependencies, final boolean includeRoot) {
-		final Set<Dependency> dependenciesAll = new HashSet<>();
-		for (final Dependency dependency : dependencies) {
-			dependenciesAll.addAll(getDependenciesOf(dependency, includeRoot));
+	// the depth of each node of the tree (breadth first, so the shallowest wins where the graph shares nodes)
+	private static Map<String, Integer> depthsOf(final DependencyNode root) {
+		final Map<String, Integer> depths = new HashMap<>();
+		if (root == null) return depths;
+		List<DependencyNode> level = root.getChildren();
+		for (int depth = 1; !level.isEmpty(); depth++) {
+			final List<DependencyNode> next = new ArrayList<>();
+			for (final DependencyNode node : level) {
+				if (node.getArtifact() == null) continue;
+				final org.eclipse.aether.artifact.Artifact a = node.getArtifact();
+				final String coords = coords(a.getGroupId(), a.getArtifactId(), a.getClassifier(), a.getVersion());
+				if (depths.containsKey(coords)) continue;
+				depths.put(coords, depth);
+				next.addAll(node.getChildren());
+			}
+			level = next;
 		}
-		return cleanDependencies(dependenciesAll);
+		return depths;
 	}
 
-	private Set<Artifact> toArtifacts(final Set<Dependency> dependencies) {
-		final Set<Artifact> artifacts = new HashSet<>();
-		for (final Dependency dependency : dependencies) {
-			artifacts.add(toArtifact(dependency));
+	// all the nodes below the given one (depth first, in declaration order)
+	private static List<DependencyNode> descendantsOf(final DependencyNode node) {
+		final List<DependencyNode> descendants = new ArrayList<>();
+		final Deque<DependencyNode> stack = new ArrayDeque<>();
+		final List<DependencyNode> children = new ArrayList<>(node.getChildren());
+		Collections.reverse(children);
+		for (final DependencyNode child : children) stack.push(child);
+		final Set<DependencyNode> seen = Collections.newSetFromMap(new IdentityHashMap<DependencyNode, Boolean>());
+		while (!stack.isEmpty()) {
+			final DependencyNode current = stack.pop();
+			if (!seen.add(current)) continue; // the graph may share nodes
+			descendants.add(current);
+			final List<DependencyNode> next = new ArrayList<>(current.getChildren());
+			Collections.reverse(next);
+			for (final DependencyNode child : next) stack.push(child);
 		}
-		return cleanArtifacts(artifacts);
+		return descendants;
 	}
 
 	// JAR & FILE HELPERS
 
-	String addDirectoryToJar(final JarOutputStream jar, final String outputDirectory) throws IOException {
+	String addDirectoryToJar(final JarWriter jar, final String outputDirectory) throws IOException {
 
 		// format the output directory
 		String formattedOutputDirectory = "";
@@ -220,27 +359,101 @@ public abstract class Mojo extends AbstractMojo {
 			}
 		}
 
-		if (!formattedOutputDirectory.isEmpty()) {
-			try {
-				jar.putNextEntry(new ZipEntry(formattedOutputDirectory));
-				jar.closeEntry();
-			} catch (final ZipException ignore) {} // ignore duplicate entries and other errors
-		}
+		if (!formattedOutputDirectory.isEmpty())
+			jar.addDirectory(formattedOutputDirectory); // duplicate entries are ignored
 		return formattedOutputDirectory;
 	}
 
-	JarOutputStream addToJar(final String name, final InputStream input, final JarOutputStream jar) throws IOException {
+	JarWriter addToJar(final String name, final File file, final JarWriter jar) throws IOException {
+		debug("\t[Added to Jar]: " + name);
+		jar.add(name, file); // duplicate entries are ignored
+		return jar;
+	}
+
+	// copies the entry as-is, without inflating and deflating it again
+	JarWriter addToJar(final String name, final JarReader reader, final JarReader.Entry entry, final JarWriter jar) throws IOException {
+		if (!entry.isCopyable()) {
+			warn("\t[Added to Jar]: Unsupported compression of " + entry.getName() + " in " + reader.file.getName() + ", skipping...");
+			return jar;
+		}
+		debug("\t[Added to Jar]: " + name);
+		jar.add(name, reader, entry); // duplicate entries are ignored
+		return jar;
+	}
+
+	// copies the cached entry as-is
+	JarWriter addToJar(final EntryCache.Raw raw, final JarWriter jar) throws IOException {
+		debug("\t[Added to Jar]: " + raw.entry.getName());
+		jar.add(raw.entry.getName(), raw.entry, raw.data); // duplicate entries are ignored
+		return jar;
+	}
+
+	JarWriter addToJar(final String name, final InputStream input, final JarWriter jar) throws IOException {
 		try {
 			debug("\t[Added to Jar]: " + name);
-			jar.putNextEntry(new ZipEntry(name));
-			IOUtil.copy(input, jar);
-			jar.closeEntry();
-		} catch (final ZipException ignore) {} // ignore duplicate entries and other errors
-		IOUtil.close(input);
+			jar.add(name, IOUtil.toByteArray(input)); // duplicate entries are ignored
+		} finally {
+			IOUtil.close(input);
+		}
 		return jar;
 	}
 
 
+	// the helper has no artifact handlers of its own (it isn't injected), so the artifact is attached with one made for it
+	void attach(final File file, final String type, final String classifier) {
+		final Artifact artifact = new org.apache.maven.artifact.DefaultArtifact(project.getGroupId(), project.getArtifactId(),
+				project.getVersion(), null, type, classifier, new DefaultArtifactHandler(type));
+		artifact.setFile(file);
+		project.addAttachedArtifact(artifact);
+	}
+
+	// hex of the sha-256 of the content of the file
+	static String sha256(final File file) throws IOException {
+		try (final InputStream in = new FileInputStream(file)) {
+			final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			final byte[] buffer = new byte[64 * 1024];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				digest.update(buffer, 0, read);
+			return hex(digest.digest());
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+	}
+
+	static String hex(final byte[] bytes) {
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : bytes)
+			hex.append(String.format("%02x", b));
+		return hex.toString();
+	}
+
+	/**
+	 * The time set by outputTimestamp, in millis (or null if none), which is either an ISO 8601 date time
+	 * (e.g 2020-01-01T00:00:00Z) or seconds since the epoch. As with the other maven plugins, a single character
+	 * (i.e the default of an inherited property) means none. Anything else (trailing text included) is rejected.
+	 */
+	Long outputTime() {
+		if (outputTimestamp == null || outputTimestamp.trim().length() < 2) return null;
+		final String timestamp = outputTimestamp.trim();
+		if (timestamp.matches("\\d{1,18}")) return Long.parseLong(timestamp) * 1000;
+		for (final String format : new String[] { "yyyy-MM-dd'T'HH:mm:ssXXX", "yyyy-MM-dd'T'HH:mm:ss.SSSXXX" }) {
+			final SimpleDateFormat dateFormat = new SimpleDateFormat(format, Locale.ENGLISH);
+			dateFormat.setLenient(false);
+			final ParsePosition position = new ParsePosition(0);
+			final Date date = dateFormat.parse(timestamp, position);
+			if (date != null && position.getIndex() == timestamp.length()) return date.getTime(); // the whole of it
+		}
+		throw new IllegalArgumentException("Invalid outputTimestamp '" + timestamp
+				+ "', expected an ISO 8601 date time with an offset (e.g 2020-01-01T00:00:00Z) or seconds since the epoch");
+	}
+
+	// cache shared by all the builds on this machine, kept in the local repo
+	File cacheDir() {
+		return new File(repoSession.getLocalRepository().getBasedir(), "com/github/chrisdchristo/capsule-maven-plugin/cache");
+	}
+
+
 	// LOG
 
 	void debug(final String message) { getLog().debug(logPrefix() + message); }
@@ -276,11 +489,11 @@ public abstract class Mojo extends AbstractMojo {
 	}
 
 	static <T> Set<T> set(final List<T> list) {
-		return new HashSet<>(list);
+		return new LinkedHashSet<>(list);
 	}
 
 	static <T> Set<T> set(final Enumeration<T> enumeration) {
-		final Set<T> set = new HashSet<>();
+		final Set<T> set = new LinkedHashSet<>();
 		while (enumeration.hasMoreElements())
 			set.add(enumeration.nextElement());
 		return set;
@@ -327,48 +540,24 @@ public abstract class Mojo extends AbstractMojo {
 
 	// clean any duplicates
 	static Set<Dependency> cleanDependencies(final Set<Dependency> dependencies) {
-		final Set<Dependency> dependenciesClean = new HashSet<>();
-		for (final Dependency dependencyA : dependencies) {
-			boolean found = false;
-			for (final Dependency dependencyB : dependenciesClean) {
-				if (coords(dependencyA).equals(coords(dependencyB))) {
-					found = true;
-					break;
-				}
-			}
-			if (!found) dependenciesClean.add(dependencyA);
-		}
+		final Set<Dependency> dependenciesClean = CoordsSet.dependencies();
+		dependenciesClean.addAll(dependencies);
 		return dependenciesClean;
 	}
 
 	// clean any duplicates
 	static Set<Artifact> cleanArtifacts(final Set<Artifact> artifacts) {
-		final Set<Artifact> artifactsClean = new HashSet<>();
-		for (final Artifact artifactA : artifacts) {
-			boolean found = false;
-			for (final Artifact artifactB : artifactsClean) {
-				if (coords(artifactA).equals(coords(artifactB))){
-					found = true;
-					break;
-				}
-			}
-			if (!found) artifactsClean.add(artifactA);
-		}
+		final Set<Artifact> artifactsClean = CoordsSet.artifacts();
+		artifactsClean.addAll(artifacts);
 		return artifactsClean;
 	}
 
-	static Set<Dependency> cleanDependencies(final Set<Dependency> setA, final boolean includeA, final Set<Dependency> setB, final boolean includeB) {
-		final Set<Dependency> set = new HashSet<>();
-		if (includeA) set.addAll(setA);
-		if (includeB) set.addAll(setB);
-		return cleanDependencies(set);
+	static CoordsSet<Dependency> cleanDependencies(final Set<Dependency> setA, final boolean includeA, final Set<Dependency> setB, final boolean includeB) {
+		return CoordsSet.dependencies().merge(setA, includeA, setB, includeB);
 	}
 
-	static Set<Artifact> cleanArtifacts(final Set<Artifact> setA, final boolean includeA, final Set<Artifact> setB, final boolean includeB) {
-		final Set<Artifact> set = new HashSet<>();
-		if (includeA) set.addAll(setA);
-		if (includeB) set.addAll(setB);
-		return cleanArtifacts(set);
+	static CoordsSet<Artifact> cleanArtifacts(final Set<Artifact> setA, final boolean includeA, final Set<Artifact> setB, final boolean includeB) {
+		return CoordsSet.artifacts().merge(setA, includeA, setB, includeB);
 	}
 
 }
@@ -0,0 +1,248 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the classes of the dependencies the app can reach: those referenced (transitively) by the roots, i.e the
+ * classes of the app, the service providers and reflection hints of the jars and the classes kept by name.
+ * <p>
+ * The references of a class are read from its constant pool, which names every class it uses: as a class, in the
+ * descriptors and signatures of its fields, methods and annotations, and (as a hint of reflection) in the strings that
+ * look like class names. Whole classes are kept (or not), so this errs on the side of keeping too much, but classes
+ * only loaded by names built at runtime have to be kept by name.
+ */
+final class Shrinker implements Closeable {
+
+	private static final Pattern DESCRIPTOR_CLASS = Pattern.compile("L([^;<>()\\[\\].:\\s]+)[;<]");
+	private static final Pattern CLASS_NAME = Pattern.compile("[\\p{L}_$][\\p{L}\\p{N}_$]*([./][\\p{L}_$][\\p{L}\\p{N}_$]*)+");
+	private static final Pattern HINT_NAME = Pattern.compile("\"name\"\\s*:\\s*\"([^\"]+)\""); // native-image reflection configs
+	private static final Pattern SIGNATURE = Pattern.compile("META-INF/[^/]+\\.(SF|RSA|DSA|EC)");
+	private static final String VERSIONS = "META-INF/versions/";
+
+	private final Map<String, List<Source>> classes = new HashMap<>(); // class (internal name) -> its class files
+	private final List<JarReader> readers = new ArrayList<>();
+	private final Set<File> wholeJars = new HashSet<>();
+	private final Set<String> reachable = new HashSet<>();
+	private final Deque<String> pending = new ArrayDeque<>();
+
+	/**
+	 * Add a jar to the classes looked up by the analysis (its service providers and reflection hints becoming roots),
+	 * all its classes reachable if it is kept whole, as are signed jars (whose signature covers every entry).
+	 */
+	void addJar(final File jar, boolean whole) throws IOException {
+		final JarReader reader = new JarReader(jar);
+		readers.add(reader);
+		final List<String> names = new ArrayList<>();
+		for (final JarReader.Entry entry : reader.entries()) {
+			final String name = entry.getName();
+			if (entry.isDirectory()) continue;
+			if (name.endsWith(".class")) {
+				List<Source> sources = classes.get(className(name));
+				if (sources == null) classes.put(className(name), sources = new ArrayList<>(1));
+				sources.add(new Source(reader, entry));
+				names.add(className(name));
+			} else if (SIGNATURE.matcher(name).matches()) {
+				whole = true;
+			} else if (name.startsWith("META-INF/services/")) {
+				for (final String line : lines(reader, entry)) {
+					final String provider = line.replaceFirst("#.*", "").trim();
+					if (!provider.isEmpty()) root(provider);
+				}
+			} else if (name.startsWith("META-INF/native-image/") && name.endsWith(".json")) {
+				final Matcher hint = HINT_NAME.matcher(new String(read(reader, entry), StandardCharsets.UTF_8));
+				while (hint.find()) root(hint.group(1));
+			}
+		}
+		if (whole) {
+			wholeJars.add(jar);
+			for (final String name : names)
+				root(name);
+		}
+	}
+
+	/**
+	 * Whether the classes the app can't reach are left out of the jar (i.e it isn't kept whole).
+	 */
+	boolean shrinks(final File jar) {
+		return !wholeJars.contains(jar);
+	}
+
+	/**
+	 * Make the class (by its binary or internal name) reachable.
+	 */
+	void root(final String name) {
+		final String className = name.replace('.', '/');
+		if (reachable.add(className)) pending.add(className);
+	}
+
+	/**
+	 * Make the classes matching the pattern (of internal names) reachable.
+	 */
+	void root(final Glob keep) {
+		for (final String name : classes.keySet())
+			if (keep.matches(name)) root(name);
+	}
+
+	/**
+	 * Make the classes the classes of the app (a jar or a directory of classes) refer to reachable.
+	 */
+	void rootApp(final File app) throws IOException {
+		if (app.isFile()) {
+			try (final JarReader reader = new JarReader(app)) {
+				for (final JarReader.Entry entry : reader.entries())
+					if (entry.getName().endsWith(".class"))
+						try (final InputStream in = reader.open(entry)) {
+							rootReferences(in);
+						}
+			}
+		} else if (app.isDirectory()) {
+			Files.walkFileTree(app.toPath(), new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(final Path path, final BasicFileAttributes attrs) throws IOException {
+					if (path.toString().endsWith(".class")) rootClass(path.toFile());
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+	}
+
+	/**
+	 * Make the classes the class file (i.e of a caplet) refers to reachable.
+	 */
+	void rootClass(final File classFile) throws IOException {
+		try (final InputStream in = new FileInputStream(classFile)) {
+			rootReferences(in);
+		}
+	}
+
+	/**
+	 * Follow the references of the reachable classes until no more are found.
+	 */
+	void analyze() throws IOException {
+		while (!pending.isEmpty()) {
+			final List<Source> sources = classes.get(pending.poll());
+			if (sources == null) continue; // not in the jars (i.e of the jdk, or not a class)
+			for (final Source source : sources)
+				try (final InputStream in = source.reader.open(source.entry)) {
+					rootReferences(in);
+				} catch (final IOException e) {
+					throw new IOException("Failed to read " + source.entry.getName() + " in " + source.reader.file.getName() + " (" + e.getMessage() + ")", e);
+				}
+		}
+	}
+
+	/**
+	 * Whether the entry of a jar is kept: anything but the class files of unreachable classes.
+	 */
+	boolean keeps(final String name) {
+		if (!name.endsWith(".class") || name.endsWith("module-info.class") || name.endsWith("package-info.class")) return true;
+		return reachable.contains(className(name));
+	}
+
+	int classes() {
+		return classes.size();
+	}
+
+	int reachable() {
+		int count = 0;
+		for (final String name : classes.keySet())
+			if (reachable.contains(name)) count++;
+		return count;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (final JarReader reader : readers)
+			reader.close();
+	}
+
+	private void rootReferences(final InputStream classFile) throws IOException {
+		for (final String reference : references(classFile))
+			root(reference);
+	}
+
+	// the class an entry defines (the versioned classes of a multi-release jar included)
+	private static String className(String name) {
+		if (name.startsWith(VERSIONS) && name.indexOf('/', VERSIONS.length()) > 0)
+			name = name.substring(name.indexOf('/', VERSIONS.length()) + 1);
+		return name.substring(0, name.length() - ".class".length());
+	}
+
+	// the classes named in the constant pool of the class file
+	private static Set<String> references(final InputStream classFile) throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(classFile));
+		if (in.readInt() != 0xCAFEBABE) throw new IOException("Not a class file");
+		in.readUnsignedShort(); // minor version
+		in.readUnsignedShort(); // major version
+		final int count = in.readUnsignedShort();
+		final String[] utf8 = new String[count];
+		final List<Integer> classNames = new ArrayList<>();
+		final List<Integer> strings = new ArrayList<>();
+		for (int i = 1; i < count; i++) {
+			final int tag = in.readUnsignedByte();
+			switch (tag) {
+				case 1: utf8[i] = in.readUTF(); break; // utf8
+				case 7: classNames.add(in.readUnsignedShort()); break; // class
+				case 8: strings.add(in.readUnsignedShort()); break; // string
+				case 16: case 19: case 20: in.readUnsignedShort(); break; // method type, module, package
+				case 15: in.readUnsignedByte(); in.readUnsignedShort(); break; // method handle
+				case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18: in.readInt(); break; // 4 bytes
+				case 5: case 6: in.readLong(); i++; break; // long and double take two slots
+				default: throw new IOException("Unknown constant pool tag " + tag);
+			}
+		}
+
+		final Set<String> references = new HashSet<>();
+		for (final int index : classNames) {
+			final String name = utf8[index];
+			if (name != null && !name.startsWith("[")) references.add(name);
+		}
+		// descriptors and signatures (of fields, methods, annotations, arrays...) are utf8 entries of their own
+		for (final String value : utf8) {
+			if (value == null || value.indexOf('L') < 0) continue;
+			final Matcher descriptor = DESCRIPTOR_CLASS.matcher(value);
+			while (descriptor.find()) references.add(descriptor.group(1));
+		}
+		// strings naming a class, as loaded by reflection
+		for (final int index : strings) {
+			final String value = utf8[index];
+			if (value != null && value.length() < 256 && CLASS_NAME.matcher(value).matches()) references.add(value.replace('.', '/'));
+		}
+		return references;
+	}
+
+	private static List<String> lines(final JarReader reader, final JarReader.Entry entry) throws IOException {
+		return Arrays.asList(new String(read(reader, entry), StandardCharsets.UTF_8).split("\r?\n"));
+	}
+
+	private static byte[] read(final JarReader reader, final JarReader.Entry entry) throws IOException {
+		try (final InputStream in = reader.open(entry)) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				out.write(buffer, 0, read);
+			return out.toByteArray();
+		}
+	}
+
+	private static final class Source {
+		final JarReader reader;
+		final JarReader.Entry entry;
+
+		Source(final JarReader reader, final JarReader.Entry entry) {
+			this.reader = reader;
+			this.entry = entry;
+		}
+	}
+
+}
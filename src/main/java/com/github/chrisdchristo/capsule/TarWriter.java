@@ -0,0 +1,114 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a tar (ustar, with pax headers for the names and sizes that don't fit) of directories and files, all owned
+ * by root and readable by everyone, as tar would when run by root on a umask of 022.
+ */
+final class TarWriter implements Closeable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int BLOCK = 512;
+	private static final long MAX_SIZE = 077777777777L; // 11 octal digits
+
+	private final OutputStream out;
+
+	TarWriter(final OutputStream out) {
+		this.out = out;
+	}
+
+	void addDirectory(final String name, final long time) throws IOException {
+		header(name.endsWith("/") ? name : name + "/", 0755, 0, time, '5');
+	}
+
+	/**
+	 * Add a file of the given size, its content read from the stream (which must have at least that much).
+	 */
+	void add(final String name, final long size, final long time, final InputStream content) throws IOException {
+		header(name, 0644, size, time, '0');
+		final byte[] buffer = new byte[64 * 1024];
+		long remaining = size;
+		while (remaining > 0) {
+			final int read = content.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+			if (read == -1) throw new EOFException(name + " is shorter than " + size + " bytes");
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+		pad(size);
+	}
+
+	/**
+	 * Write the end of the archive (two empty blocks) and close the stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			out.write(new byte[2 * BLOCK]);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void header(final String name, final int mode, final long size, final long time, final char type) throws IOException {
+		final byte[] nameBytes = name.getBytes(UTF8);
+		final boolean longName = nameBytes.length > 100;
+		if (longName || size > MAX_SIZE) {
+			final StringBuilder pax = new StringBuilder();
+			if (longName) pax.append(paxRecord("path", name));
+			if (size > MAX_SIZE) pax.append(paxRecord("size", Long.toString(size)));
+			final byte[] paxBytes = pax.toString().getBytes(UTF8);
+			out.write(block("PaxHeaders/" + Math.abs(name.hashCode()), 0644, paxBytes.length, time, 'x'));
+			out.write(paxBytes);
+			pad(paxBytes.length);
+		}
+		out.write(block(longName ? name.substring(0, Math.min(name.length(), 90)) : name, mode, size > MAX_SIZE ? 0 : size, time, type));
+	}
+
+	private static byte[] block(final String name, final int mode, final long size, final long time, final char type) {
+		final byte[] header = new byte[BLOCK];
+		final byte[] nameBytes = name.getBytes(UTF8);
+		System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+		octal(header, 100, 8, mode);
+		octal(header, 108, 8, 0); // uid
+		octal(header, 116, 8, 0); // gid
+		octal(header, 124, 12, size);
+		octal(header, 136, 12, TimeUnit.MILLISECONDS.toSeconds(time));
+		header[156] = (byte) type;
+		System.arraycopy("ustar\u000000".getBytes(UTF8), 0, header, 257, 8);
+		System.arraycopy("root".getBytes(UTF8), 0, header, 265, 4); // uname
+		System.arraycopy("root".getBytes(UTF8), 0, header, 297, 4); // gname
+
+		// the checksum is of the header with spaces in place of the checksum itself
+		for (int i = 148; i < 156; i++) header[i] = ' ';
+		long checksum = 0;
+		for (final byte b : header) checksum += b & 0xff;
+		octal(header, 148, 7, checksum);
+		return header;
+	}
+
+	// zero padded octal, followed by a nul
+	private static void octal(final byte[] header, final int offset, final int length, final long value) {
+		final String digits = Long.toOctalString(value);
+		final int width = length - 1;
+		for (int i = 0; i < width; i++)
+			header[offset + i] = (byte) (i < width - digits.length() ? '0' : digits.charAt(i - (width - digits.length())));
+		header[offset + width] = 0;
+	}
+
+	// "<length> <key>=<value>\n", the length counting itself
+	private static String paxRecord(final String key, final String value) {
+		final int content = key.getBytes(UTF8).length + value.getBytes(UTF8).length + 3; // space, = and newline
+		int length = content + Integer.toString(content).length();
+		if (Integer.toString(length).length() != Integer.toString(content).length()) length++;
+		return length + " " + key + "=" + value + "\n";
+	}
+
+	private void pad(final long size) throws IOException {
+		final int padding = (int) ((BLOCK - size % BLOCK) % BLOCK);
+		if (padding > 0) out.write(new byte[padding]);
+	}
+
+}
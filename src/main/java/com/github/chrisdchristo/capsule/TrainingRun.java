@@ -0,0 +1,159 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A training run of a built capsule: its app is launched (with the command capsule would launch it with, as given by
+ * the trampoline) with extra jvm args that record what the app does, until it exits or the timeout is reached.
+ * <p>
+ * The app is extracted to a cache dir of its own, so the training never touches the user's capsule cache.
+ */
+final class TrainingRun {
+
+	private static final Pattern TOKEN = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"");
+	private static final long GRACE_PERIOD = 10; // seconds the app is given to exit once stopped, before it is killed
+
+	private final File java;
+	private final File capsule;
+	private final File dir;
+	private final long timeout; // seconds
+
+	TrainingRun(final File java, final File capsule, final File dir, final long timeout) {
+		this.java = java;
+		this.capsule = capsule;
+		this.dir = dir;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Run the app with the given jvm args (ahead of its classpath) and args, its output going to the log. Returns the
+	 * exit code of the app, or null if it was stopped at the timeout (as it would be for a server). The options are
+	 * those of capsule itself (e.g. -Dcapsule.log=verbose).
+	 */
+	Integer run(final List<String> options, final List<String> jvmArgs, final String[] args, final File log) throws IOException {
+		final List<String> command = command(options, args);
+		final int classPath = command.indexOf("-classpath");
+		if (classPath < 0) throw new IOException("No classpath in the launch command " + command);
+		command.addAll(classPath, jvmArgs);
+
+		final ProcessBuilder builder = new ProcessBuilder(command).directory(dir).redirectErrorStream(true);
+		builder.redirectOutput(ProcessBuilder.Redirect.appendTo(log));
+		final Process process = builder.start();
+		process.getOutputStream().close(); // no input
+		try {
+			if (waitFor(process, TimeUnit.SECONDS.toMillis(timeout))) return process.exitValue();
+			stop(process);
+			return null;
+		} catch (final InterruptedException e) {
+			kill(process, descendants(process));
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Training run interrupted");
+		}
+	}
+
+	// a normal exit (shutdown hooks run), so whatever is recorded gets written, or else killed after the grace period
+	private void stop(final Process process) throws IOException, InterruptedException {
+		final List<Object> descendants = descendants(process); // before they are orphaned by the app
+		process.destroy();
+		for (final Object descendant : descendants)
+			destroy(descendant, false);
+		final boolean exited = waitFor(process, TimeUnit.SECONDS.toMillis(GRACE_PERIOD));
+		kill(process, descendants); // whatever the app started and left running
+		if (!exited) throw new IOException("App still running " + GRACE_PERIOD + "s after being stopped at the " + timeout + "s timeout, killed it");
+	}
+
+	// waits for the process to exit, up to the given time, returns whether it did
+	private static boolean waitFor(final Process process, final long millis) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+		while (true) {
+			try {
+				process.exitValue();
+				return true;
+			} catch (final IllegalThreadStateException e) {
+				if (System.nanoTime() >= deadline) return false;
+				Thread.sleep(50);
+			}
+		}
+	}
+
+	private static void kill(final Process process, final List<Object> descendants) {
+		destroy(process, true);
+		for (final Object descendant : descendants)
+			destroy(descendant, true);
+	}
+
+	// PROCESSES (through reflection, as java 7 has neither Process.destroyForcibly nor ProcessHandle)
+
+	// the processes started by the app (java 9 and later, otherwise none)
+	private static List<Object> descendants(final Process process) {
+		try {
+			final Object handle = Process.class.getMethod("toHandle").invoke(process);
+			final Object descendants = Class.forName("java.lang.ProcessHandle").getMethod("descendants").invoke(handle);
+			return Arrays.asList((Object[]) Class.forName("java.util.stream.Stream").getMethod("toArray").invoke(descendants));
+		} catch (final ReflectiveOperationException e) {
+			return Collections.emptyList();
+		}
+	}
+
+	// a Process or a ProcessHandle, forcibly (i.e. SIGKILL) where the java version has it
+	private static void destroy(final Object process, final boolean forcibly) {
+		try {
+			final Class<?> type = process instanceof Process ? Process.class : Class.forName("java.lang.ProcessHandle");
+			type.getMethod(forcibly ? "destroyForcibly" : "destroy").invoke(process);
+		} catch (final ReflectiveOperationException e) {
+			if (process instanceof Process) ((Process) process).destroy();
+		}
+	}
+
+	// the command of the app, as printed by the trampoline (every token quoted)
+	private List<String> command(final List<String> options, final String[] args) throws IOException {
+		final List<String> trampoline = new ArrayList<>(Arrays.asList(java.getPath(), "-Dcapsule.trampoline"));
+		trampoline.addAll(options);
+		trampoline.addAll(Arrays.asList("-jar", capsule.getPath()));
+		if (args != null) trampoline.addAll(Arrays.asList(args));
+		final ProcessBuilder builder = new ProcessBuilder(trampoline).directory(dir);
+		builder.environment().put("CAPSULE_CACHE_DIR", new File(dir, "cache").getAbsolutePath());
+		builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+		final Process process = builder.start();
+		process.getOutputStream().close();
+
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try (final InputStream in = process.getInputStream()) {
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1)
+				output.write(buffer, 0, read);
+		}
+		try {
+			if (process.waitFor() != 0) throw new IOException("Capsule trampoline failed (" + process.exitValue() + "): " + output.toString().trim());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Training run interrupted");
+		}
+
+		final List<String> command = new ArrayList<>();
+		final Matcher token = TOKEN.matcher(output.toString());
+		while (token.find())
+			command.add(token.group(1).replaceAll("\\\\(.)", "$1"));
+		if (command.isEmpty()) throw new IOException("No launch command from the capsule trampoline: " + output.toString().trim());
+		return command;
+	}
+
+	/**
+	 * The java executable of the given path (a java home or the executable itself), or of the build when null.
+	 */
+	static File java(final String path) {
+		final File file = new File(path != null ? path : System.getProperty("java.home"));
+		if (!file.isDirectory()) return file;
+		final File java = new File(file, "bin" + File.separatorChar + "java");
+		return java.exists() ? java : new File(file, "bin" + File.separatorChar + "java.exe");
+	}
+
+}
@@ -0,0 +1,99 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the versions resolved from a version range (e.g. the latest Capsule), so the remote metadata isn't fetched
+ * again by every module of the reactor and every build. The versions are held in memory (saving the modules of the
+ * reactor reading them back), and in a properties file of their own on disk (with the time they were resolved) for
+ * later builds.
+ */
+final class VersionCache {
+
+	// shared by all the executions of the plugin in the jvm (i.e the reactor, or every build of a daemon)
+	private static final Map<String, Entry> VERSIONS = new ConcurrentHashMap<>();
+
+	static final class Entry {
+		final String version;
+		final long resolved; // time it was resolved from the repos
+		Entry(final String version, final long resolved) {
+			this.version = version;
+			this.resolved = resolved;
+		}
+
+		/**
+		 * Whether the version was resolved within the ttl, or since the build started (so it is resolved once per
+		 * reactor build even with no ttl). The memory cache outlives the build in a long-lived jvm, so it is never
+		 * fresh only for being in memory.
+		 */
+		boolean isFresh(final long ttl, final Date buildStart) {
+			return (buildStart != null && resolved >= buildStart.getTime()) || System.currentTimeMillis() - resolved < ttl;
+		}
+	}
+
+	private VersionCache() {}
+
+	/**
+	 * The cached version for the key, however old (or null if there is none).
+	 */
+	static Entry get(final String key, final File cacheDir) {
+		final Entry entry = VERSIONS.get(key);
+		if (entry != null) return entry;
+
+		final File cached = file(key, cacheDir);
+		if (!cached.isFile()) return null;
+		final Properties properties = new Properties();
+		try (final InputStream input = new FileInputStream(cached)) {
+			properties.load(input);
+			final String version = properties.getProperty("version");
+			final String resolved = properties.getProperty("resolved");
+			return version != null && resolved != null ? new Entry(version, Long.parseLong(resolved)) : null;
+		} catch (final IOException | NumberFormatException e) {
+			return null; // corrupt, so resolve again
+		}
+	}
+
+	/**
+	 * Caches the version just resolved for the key, for the rest of the build and later builds.
+	 */
+	static void put(final String key, final String version, final File cacheDir) {
+		final Entry entry = new Entry(version, System.currentTimeMillis());
+		VERSIONS.put(key, entry);
+		try {
+			write(file(key, cacheDir), entry);
+		} catch (final IOException ignore) {} // e.g. a read-only local repo, the memory cache still applies
+	}
+
+	private static File file(final String key, final File cacheDir) {
+		return new File(cacheDir, key.replace(':', '-') + ".version");
+	}
+
+	// written to a temporary file and then moved into place, so concurrent builds never see a partial cache
+	private static void write(final File cached, final Entry entry) throws IOException {
+		final File cacheDir = cached.getParentFile();
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) return;
+		final Properties properties = new Properties();
+		properties.setProperty("version", entry.version);
+		properties.setProperty("resolved", Long.toString(entry.resolved));
+		final File temp = File.createTempFile(cached.getName(), ".tmp", cacheDir);
+		try {
+			try (final OutputStream output = new FileOutputStream(temp)) {
+				properties.store(output, null);
+			}
+			try {
+				Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (final IOException e) {
+				Files.move(temp.toPath(), cached.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+}
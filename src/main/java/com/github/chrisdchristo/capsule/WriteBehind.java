@@ -0,0 +1,196 @@
+package com.github.chrisdchristo.capsule;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Output that hands what is written to it over to a writer thread, which writes it to the target channels while the
+ * caller goes on reading and compressing the next entries. The data is passed in a bounded number of pooled buffers,
+ * and large files are transferred from their own channel rather than copied through the buffers.
+ */
+final class WriteBehind extends OutputStream {
+
+	private static final Object END = new Object();
+
+	private final List<WritableByteChannel> targets;
+	private final int bufferSize;
+	private final BlockingQueue<Object> queue; // buffers and regions, in order, to be written
+	private final BlockingQueue<ByteBuffer> free; // buffers written and ready for reuse
+	private final Thread writer;
+	private final int maxBuffers;
+	private int allocated = 0;
+	private ByteBuffer buffer = null;
+	private volatile IOException failure = null;
+
+	// a part of a file, to be transferred as-is
+	private static final class Region {
+		final File file;
+		final long position;
+		final long length;
+		Region(final File file, final long position, final long length) {
+			this.file = file;
+			this.position = position;
+			this.length = length;
+		}
+	}
+
+	WriteBehind(final List<WritableByteChannel> targets, final int bufferSize, final int queueDepth) {
+		this.targets = targets;
+		this.bufferSize = Math.max(bufferSize, 8 * 1024);
+		this.queue = new ArrayBlockingQueue<>(Math.max(queueDepth, 1));
+		this.maxBuffers = Math.max(queueDepth, 1) + 1; // the queue full, and one being filled
+		this.free = new ArrayBlockingQueue<>(maxBuffers);
+		this.writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "capsule-write-behind");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public void write(final byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (buffer == null) buffer = take();
+			final int n = Math.min(length, buffer.remaining());
+			buffer.put(bytes, offset, n);
+			offset += n;
+			length -= n;
+			if (!buffer.hasRemaining()) flush();
+		}
+	}
+
+	/**
+	 * Write a part of the file, transferred from its channel by the writer thread.
+	 */
+	void transfer(final File file, final long position, final long length) throws IOException {
+		flush();
+		put(new Region(file, position, length));
+	}
+
+	/**
+	 * Hand the current buffer over to the writer thread (without waiting for it to be written).
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (buffer != null && buffer.position() > 0) {
+			((Buffer) buffer).flip(); // as a Buffer, as ByteBuffer.flip() only exists from java 9
+			put(buffer);
+			buffer = null;
+		}
+	}
+
+	/**
+	 * Wait for everything to be written. The targets are left open.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!writer.isAlive()) return;
+		try {
+			flush();
+		} finally {
+			try {
+				queue.put(END);
+				writer.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(e.getMessage());
+			}
+		}
+		if (failure != null) throw failure;
+	}
+
+	private ByteBuffer take() throws IOException {
+		check();
+		final ByteBuffer pooled = free.poll();
+		if (pooled != null) return pooled;
+		if (allocated < maxBuffers) {
+			allocated++;
+			return ByteBuffer.allocateDirect(bufferSize);
+		}
+		try {
+			return free.take(); // all the buffers are in the queue, wait for the writer
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	private void put(final Object item) throws IOException {
+		check();
+		try {
+			queue.put(item);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	private void check() throws IOException {
+		if (failure != null) throw new IOException("Failed to write the jar", failure);
+	}
+
+	// WRITER THREAD
+
+	private void write() {
+		try {
+			Object item;
+			while ((item = queue.take()) != END) {
+				try {
+					if (failure == null) {
+						if (item instanceof ByteBuffer) write((ByteBuffer) item);
+						else write((Region) item);
+					}
+				} catch (final IOException e) {
+					failure = e; // keep taking, so the caller isn't left waiting for a buffer
+				} catch (final Throwable e) {
+					failure = new IOException(e); // i.e. an error, which would otherwise end the thread and leave the caller waiting
+				} finally {
+					if (item instanceof ByteBuffer) {
+						((Buffer) item).clear();
+						free.offer((ByteBuffer) item);
+					}
+				}
+			}
+		} catch (final InterruptedException e) {
+			failure = new InterruptedIOException(e.getMessage());
+		}
+	}
+
+	private void write(final ByteBuffer buffer) throws IOException {
+		for (final WritableByteChannel target : targets) {
+			final ByteBuffer data = buffer.duplicate();
+			while (data.hasRemaining())
+				target.write(data);
+		}
+	}
+
+	private void write(final Region region) throws IOException {
+		try (final FileChannel channel = FileChannel.open(region.file.toPath(), StandardOpenOption.READ)) {
+			for (final WritableByteChannel target : targets) {
+				long position = region.position;
+				final long end = region.position + region.length;
+				while (position < end) {
+					final long transferred = channel.transferTo(position, end - position, target);
+					if (transferred <= 0) throw new EOFException(region.file + " changed while being added to the jar");
+					position += transferred;
+				}
+			}
+		}
+	}
+
+}
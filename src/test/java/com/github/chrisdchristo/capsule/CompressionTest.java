@@ -0,0 +1,94 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void knownExtensions() {
+		final Compression compression = new Compression();
+		assertEquals(ZipEntry.STORED, compression.methodFor("lib/a.jar"));
+		assertEquals(ZipEntry.STORED, compression.methodFor("images/LOGO.PNG")); // case insensitive
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("com/example/A.class"));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("META-INF/MANIFEST.MF"));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("com/example/"));
+		assertEquals(-1, compression.methodFor("data/app.bin")); // sampled
+		assertEquals(-1, compression.methodFor("a.jar/README")); // the extension is of the file name only
+	}
+
+	@Test
+	public void configuredExtensions() {
+		final Compression compression = new Compression();
+		compression.stored = new String[] { "bin", ".dat", "*.raw", null };
+		compression.deflated = new String[] { "png", "bin" };
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("a.bin")); // deflated overrides stored
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("a.png")); // and the known formats
+		assertEquals(ZipEntry.STORED, compression.methodFor("a.dat"));
+		assertEquals(ZipEntry.STORED, compression.methodFor("a.raw"));
+
+		compression.storeJars = false;
+		assertEquals(-1, compression.methodFor("lib/a.jar"));
+		compression.detect = false;
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("lib/a.jar"));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("data/app.txt"));
+	}
+
+	@Test
+	public void sampling() throws IOException {
+		final Compression compression = new Compression();
+		final byte[] random = new byte[Compression.SAMPLE_SIZE * 2];
+		new Random(42).nextBytes(random);
+		final byte[] text = new byte[Compression.SAMPLE_SIZE * 2];
+		Arrays.fill(text, (byte) 'a');
+
+		assertEquals(ZipEntry.STORED, compression.methodFor(random, random.length));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor(text, text.length));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor(random, 1023)); // too small to be worth sampling
+		assertEquals(ZipEntry.STORED, compression.methodFor(random, 1024));
+
+		assertEquals(ZipEntry.STORED, compression.methodFor("random.bin", file(random)));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("text.bin", file(text)));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("small.bin", file(Arrays.copyOf(random, 1023))));
+		assertEquals(ZipEntry.DEFLATED, compression.methodFor("random.class", file(random))); // decided by the name
+	}
+
+	@Test
+	public void levels() throws MojoExecutionException {
+		final Compression compression = new Compression();
+		for (int level = -1; level <= 9; level++) {
+			compression.level = level;
+			compression.validate();
+		}
+		for (final int level : new int[] { -2, 10, 100 }) {
+			compression.level = level;
+			try {
+				compression.validate();
+				fail("Accepted level " + level);
+			} catch (final MojoExecutionException e) {
+				assertTrue(e.getMessage(), e.getMessage().contains("level " + level));
+			}
+		}
+	}
+
+	private File file(final byte[] content) throws IOException {
+		final File file = folder.newFile();
+		Files.write(file.toPath(), content);
+		return file;
+	}
+
+}
@@ -0,0 +1,40 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Test;
+
+import static com.github.chrisdchristo.capsule.CapsuleMojo.Conflicts.*;
+import static com.github.chrisdchristo.capsule.CapsuleMojo.appWins;
+import static org.junit.Assert.*;
+
+public class ConflictsTest {
+
+	@Test
+	public void nearestWins() {
+		assertTrue(appWins(nearest, "1.0", 1, "2.0", 2));
+		assertFalse(appWins(nearest, "2.0", 3, "1.0", 1));
+		assertTrue(appWins(nearest, "3.0", 2, "1.0", 5)); // whatever the versions
+	}
+
+	@Test
+	public void appWinsATie() {
+		assertTrue(appWins(nearest, "1.0", 2, "2.0", 2));
+		assertTrue(appWins(nearest, "2.0", 2, "1.0", 2));
+		assertTrue(appWins(highest, "1.0", 1, "1.0.0", 1)); // the same version, as maven compares them
+	}
+
+	@Test
+	public void highestWins() {
+		assertTrue(appWins(highest, "2.0", 5, "1.9", 1));
+		assertFalse(appWins(highest, "1.9", 1, "2.0", 5));
+		assertFalse(appWins(highest, "1.9", 1, "1.10", 1)); // compared as versions, not strings
+		assertFalse(appWins(highest, "2.0-SNAPSHOT", 1, "2.0", 1)); // a release over its snapshot
+		assertTrue(appWins(highest, "2.0", 1, "2.0-beta-1", 1));
+	}
+
+	@Test
+	public void appAlwaysWins() {
+		assertTrue(appWins(app, "1.0", 5, "2.0", 1));
+		assertTrue(appWins(app, "2.0", 1, "1.0", 5));
+	}
+
+}
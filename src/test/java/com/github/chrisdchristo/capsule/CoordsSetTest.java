@@ -0,0 +1,81 @@
+package com.github.chrisdchristo.capsule;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.model.Dependency;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CoordsSetTest {
+
+	@Test
+	public void firstOneAddedWins() {
+		final Artifact app = artifact("com.example", "lib", "1.0", "compile");
+		final Artifact plugin = artifact("com.example", "lib", "1.0", "runtime");
+		final CoordsSet<Artifact> set = CoordsSet.artifacts();
+		assertTrue(set.add(app));
+		assertFalse(set.add(plugin));
+		assertFalse(set.add(null));
+		assertEquals(1, set.size());
+		assertSame(app, set.iterator().next());
+		assertTrue(set.contains(plugin)); // by coords
+	}
+
+	@Test
+	public void insertionOrderIsKept() {
+		final CoordsSet<Artifact> set = CoordsSet.artifacts();
+		final List<Artifact> artifacts = Arrays.asList(
+				artifact("c", "c", "1", null), artifact("a", "a", "1", null), artifact("b", "b", "1", null),
+				artifact("a", "a", "1", null), artifact("a", "a", "2", null));
+		set.addAll(artifacts);
+		assertEquals(Arrays.asList("c:c:1", "a:a:1", "b:b:1", "a:a:2"), coords(set));
+		assertEquals(Arrays.asList("c:c:1", "b:b:1", "a:a:2"), coords(set.without(Collections.singleton("a:a:1"))));
+	}
+
+	@Test
+	public void mergeOfTheIncludedOnly() {
+		final List<Artifact> app = Arrays.asList(artifact("g", "shared", "1", "compile"), artifact("g", "app", "1", null));
+		final List<Artifact> plugin = Arrays.asList(artifact("g", "plugin", "1", null), artifact("g", "shared", "1", "runtime"));
+		final CoordsSet<Artifact> both = CoordsSet.<Artifact>artifacts().merge(app, true, plugin, true);
+		assertEquals(Arrays.asList("g:shared:1", "g:app:1", "g:plugin:1"), coords(both));
+		assertEquals("compile", both.iterator().next().getScope()); // the app's
+		assertEquals(Arrays.asList("g:plugin:1", "g:shared:1"), coords(CoordsSet.<Artifact>artifacts().merge(app, false, plugin, true)));
+	}
+
+	@Test
+	public void containsIsFalseForOtherTypes() {
+		final CoordsSet<Dependency> set = CoordsSet.dependencies();
+		set.add(dependency("g", "a", "1"));
+		assertTrue(set.contains(dependency("g", "a", "1")));
+		assertFalse(set.contains(dependency("g", "a", "2")));
+		assertFalse(set.contains(artifact("g", "a", "1", null))); // the same coords
+		assertFalse(set.contains("g:a:1"));
+		assertFalse(set.contains(null));
+	}
+
+	// HELPERS
+
+	private static Artifact artifact(final String groupId, final String artifactId, final String version, final String scope) {
+		return new DefaultArtifact(groupId, artifactId, version, scope, "jar", null, new DefaultArtifactHandler("jar"));
+	}
+
+	private static Dependency dependency(final String groupId, final String artifactId, final String version) {
+		final Dependency dependency = new Dependency();
+		dependency.setGroupId(groupId);
+		dependency.setArtifactId(artifactId);
+		dependency.setVersion(version);
+		return dependency;
+	}
+
+	private static List<String> coords(final Collection<Artifact> artifacts) {
+		final List<String> coords = new ArrayList<>();
+		for (final Artifact artifact : artifacts)
+			coords.add(Mojo.coords(artifact));
+		return coords;
+	}
+
+}
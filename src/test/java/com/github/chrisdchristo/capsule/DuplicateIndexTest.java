@@ -0,0 +1,115 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class DuplicateIndexTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void overlapsAreReportedByPairInClasspathOrder() throws IOException {
+		try (final DuplicateIndex index = new DuplicateIndex()) {
+			index.add("app.jar", jar("app.jar", "a/A.class", "A1", "a/Own.class", "own"), true);
+			index.add("lib1.jar", jar("lib1.jar", "a/A.class", "A1", "b/B.class", "B", "a/res.txt", "one"), false);
+			index.add("lib2.jar", jar("lib2.jar", "a/A.class", "A2", "a/res.txt", "two"), false);
+			index.add("lib3.jar", jar("lib3.jar", "b/res.txt", "B"), false);
+
+			final Map<String, DuplicateIndex.Overlap> overlaps = new LinkedHashMap<>();
+			for (final DuplicateIndex.Overlap overlap : index.overlaps())
+				overlaps.put(overlap.first + " " + overlap.second, overlap);
+			assertEquals(Arrays.asList("app.jar lib1.jar", "app.jar lib2.jar", "lib1.jar lib2.jar"), new ArrayList<>(overlaps.keySet()));
+
+			final DuplicateIndex.Overlap identical = overlaps.get("app.jar lib1.jar");
+			assertEquals(1, identical.classes);
+			assertEquals(1, identical.identical);
+			assertTrue(identical.differingClasses.isEmpty());
+
+			final DuplicateIndex.Overlap differing = overlaps.get("lib1.jar lib2.jar");
+			assertEquals(1, differing.classes);
+			assertEquals(0, differing.identical);
+			assertEquals(Collections.singleton("a/A.class"), differing.differingClasses);
+			assertEquals(1, differing.differingResources);
+		}
+	}
+
+	@Test
+	public void jarsInTheOthersAreRedundant() throws IOException {
+		try (final DuplicateIndex index = new DuplicateIndex()) {
+			index.add("app.jar", jar("app.jar", "a/A.class", "A"), true);
+			index.add("lib1.jar", jar("lib1.jar", "a/A.class", "A", "b/B.class", "B"), false);
+			index.add("lib2.jar", jar("lib2.jar", "a/A.class", "A", "b/B.class", "B"), false); // its own manifest aside
+			index.add("lib3.jar", jar("lib3.jar", "a/A.class", "other", "b/B.class", "other"), false);
+			index.add("signed.jar", jar("signed.jar", "a/A.class", "A", "META-INF/SIGNER.SF", "signature"), false);
+			index.add("license.jar", jar("license.jar", "META-INF/LICENSE", "license"), false);
+			index.add("app-copy.jar", jar("app-copy.jar", "a/A.class", "A"), true);
+
+			// lib2 is left out before lib1 (the later first), and lib1 is then the only other jar with b/B.class
+			assertEquals(Collections.singleton("lib2.jar"), index.redundantJars());
+		}
+	}
+
+	@Test
+	public void entriesShadowedByTheSameBytesAreLeftOut() throws IOException {
+		try (final DuplicateIndex index = new DuplicateIndex()) {
+			index.add("app.jar", jar("app.jar", "a/A.class", "A", "META-INF/LICENSE", "license"), true);
+			index.add("lib1.jar", jar("lib1.jar", "a/A.class", "A", "b/B.class", "B", "META-INF/LICENSE", "license"), false);
+			index.add("lib2.jar", jar("lib2.jar", "b/B.class", "B"), false);
+			index.add("lib3.jar", jar("lib3.jar", "b/B.class", "other", "a/A.class", "A", "c/C.class", "C"), false);
+			index.add("signed.jar", jar("signed.jar", "a/A.class", "A", "d/D.class", "D", "META-INF/SIGNER.SF", "signature"), false);
+
+			final Set<String> redundant = index.redundantJars();
+			assertEquals(Collections.singleton("lib2.jar"), redundant);
+
+			final Map<String, Set<String>> shadowed = index.shadowedEntries(redundant);
+			assertEquals(Arrays.asList("lib1.jar", "lib3.jar"), new ArrayList<>(shadowed.keySet()));
+			assertEquals(Collections.singleton("a/A.class"), shadowed.get("lib1.jar")); // its META-INF left aside
+			assertEquals(Collections.singleton("a/A.class"), shadowed.get("lib3.jar")); // b/B.class differs from lib1's
+
+			// with nothing left out, the entries of the later jars are shadowed by the earlier ones
+			assertEquals(new HashSet<>(Arrays.asList("b/B.class")), index.shadowedEntries(Collections.<String>emptySet()).get("lib2.jar"));
+		}
+	}
+
+	@Test
+	public void sameContentUnderDifferentNames() throws IOException {
+		final String big = repeat("x", 2048);
+		final File jar = jar("capsule.jar", "lib/a.jar", big, "a.jar", big, "lib/b.jar", repeat("y", 2048), "small", "s", "small-copy", "s");
+		final Map<List<String>, Long> same = DuplicateIndex.sameContent(jar, 1024);
+		assertEquals(1, same.size());
+		assertEquals(Arrays.asList("lib/a.jar", "a.jar"), same.keySet().iterator().next());
+		assertEquals(Long.valueOf(2048), same.values().iterator().next());
+	}
+
+	// HELPERS
+
+	// a jar of a manifest of its own and the (name, content) entries
+	private File jar(final String name, final String... entries) throws IOException {
+		final File jar = new File(folder.getRoot(), name);
+		try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+			out.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			out.write(("Manifest-Version: 1.0\r\nImplementation-Title: " + name + "\r\n\r\n").getBytes("UTF-8"));
+			for (int i = 0; i < entries.length; i += 2) {
+				out.putNextEntry(new ZipEntry(entries[i]));
+				out.write(entries[i + 1].getBytes("UTF-8"));
+			}
+		}
+		return jar;
+	}
+
+	private static String repeat(final String s, final int times) {
+		final StringBuilder repeated = new StringBuilder();
+		for (int i = 0; i < times; i++) repeated.append(s);
+		return repeated.toString();
+	}
+
+}
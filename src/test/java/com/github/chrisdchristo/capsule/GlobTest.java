@@ -0,0 +1,144 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GlobTest {
+
+	@Test
+	public void star() {
+		final Glob glob = glob("*.yml");
+		assertTrue(glob.matches("app.yml"));
+		assertTrue(glob.matches(".yml"));
+		assertFalse(glob.matches("config/app.yml"));
+		assertFalse(glob.matches("app.yaml"));
+
+		final Glob middle = glob("config/my*.yml");
+		assertTrue(middle.matches("config/my.yml"));
+		assertTrue(middle.matches("config/myapp.yml"));
+		assertFalse(middle.matches("config/sub/myapp.yml"));
+		assertFalse(middle.matches("other/myapp.yml"));
+	}
+
+	@Test
+	public void questionMark() {
+		final Glob glob = glob("app-?.yml");
+		assertTrue(glob.matches("app-1.yml"));
+		assertFalse(glob.matches("app-.yml"));
+		assertFalse(glob.matches("app-12.yml"));
+		assertFalse(glob("a?b").matches("a/b"));
+	}
+
+	@Test
+	public void doubleStar() {
+		final Glob glob = glob("**/*.yml");
+		assertTrue(glob.matches("app.yml")); // zero directories
+		assertTrue(glob.matches("config/app.yml"));
+		assertTrue(glob.matches("config/env/app.yml"));
+		assertFalse(glob.matches("app.yaml"));
+
+		final Glob inner = glob("config/**/app.yml");
+		assertTrue(inner.matches("config/app.yml"));
+		assertTrue(inner.matches("config/a/b/app.yml"));
+		assertFalse(inner.matches("other/config/app.yml"));
+
+		final Glob trailing = glob("config/**");
+		assertTrue(trailing.matches("config/app.yml"));
+		assertTrue(trailing.matches("config/env/app.yml"));
+		assertFalse(trailing.matches("configs/app.yml"));
+
+		assertTrue(glob("com/**Test.class").matches("com/example/FooTest.class")); // not a whole segment, spans anyway
+	}
+
+	@Test
+	public void trailingSlashMatchesTheSubtree() {
+		final Glob glob = glob("data/");
+		assertTrue(glob.matches("data/a.bin"));
+		assertTrue(glob.matches("data/x/y/z.bin"));
+		assertFalse(glob.matches("data"));
+		assertFalse(glob.matches("database/a.bin"));
+		assertFalse(glob.matches("other/data/a.bin"));
+		assertTrue(Glob.compile(new String[] { "META-INF/maven/" }, null, true).matches("META-INF/maven/g/a/pom.xml"));
+	}
+
+	@Test
+	public void literalsAreNotRegex() {
+		final Glob glob = glob("a+b(1).txt");
+		assertTrue(glob.matches("a+b(1).txt"));
+		assertFalse(glob.matches("aab(1).txt"));
+		assertFalse(glob("a.txt").matches("abtxt"));
+	}
+
+	@Test
+	public void patternsAreNormalized() {
+		assertTrue(glob("/config/app.yml").matches("config/app.yml")); // leading slash
+		assertTrue(glob("config\\app.yml").matches("config/app.yml")); // windows separator
+		assertTrue(glob("  app.yml  ").matches("app.yml"));
+	}
+
+	@Test
+	public void anyOfSeveralIncludes() {
+		final Glob glob = Glob.compile(new String[] { "*.yml", null, "", "lib/**/*.jar" }, null);
+		assertTrue(glob.matches("app.yml"));
+		assertTrue(glob.matches("lib/x/a.jar"));
+		assertFalse(glob.matches("lib/a.txt"));
+	}
+
+	@Test
+	public void noIncludesMatchEverything() {
+		assertTrue(Glob.compile(null, null).matches("any/path"));
+		assertTrue(Glob.compile(new String[0], null).matches("any/path"));
+		assertTrue(Glob.compile(new String[] { " " }, null).matches("any/path"));
+	}
+
+	@Test
+	public void excludes() {
+		final Glob glob = Glob.compile(new String[] { "**/*.yml" }, new String[] { "**/*-dev.yml", "secret/" });
+		assertTrue(glob.matches("config/app.yml"));
+		assertFalse(glob.matches("config/app-dev.yml"));
+		assertFalse(glob.matches("app-dev.yml"));
+		assertFalse(glob.matches("secret/keys.yml"));
+
+		final Glob excludesOnly = Glob.compile(null, new String[] { "META-INF/*.SF" });
+		assertTrue(excludesOnly.matches("a/B.class"));
+		assertFalse(excludesOnly.matches("META-INF/SIGNER.SF"));
+	}
+
+	@Test
+	public void spanningStar() {
+		// a single '*' spans directories, as the includes of the dependency sets always have
+		final Glob glob = Glob.compile(new String[] { "META-INF/*" }, null, true);
+		assertTrue(glob.matches("META-INF/MANIFEST.MF"));
+		assertTrue(glob.matches("META-INF/maven/g/a/pom.xml"));
+		assertTrue(Glob.compile(new String[] { "*MANIFEST.MF" }, null, true).matches("META-INF/MANIFEST.MF"));
+		assertFalse(glob("META-INF/*").matches("META-INF/maven/g/a/pom.xml"));
+
+		// but not with '**', '?' or a second '*', which have their Ant meaning
+		assertFalse(Glob.compile(new String[] { "META-INF/*/*.xml" }, null, true).matches("META-INF/maven/g/a/pom.xml"));
+		assertFalse(Glob.compile(new String[] { "META-INF/?*" }, null, true).matches("META-INF/maven/pom.xml"));
+		assertTrue(Glob.compile(new String[] { "**/*.properties" }, null, true).matches("a/b/c.properties"));
+		assertFalse(Glob.compile(new String[] { "**/a*.properties" }, null, true).matches("x/b/a.txt/c.properties"));
+
+		// and excludes too
+		assertFalse(Glob.compile(null, new String[] { "META-INF/*" }, true).matches("META-INF/maven/pom.xml"));
+	}
+
+	@Test
+	public void prefix() {
+		assertEquals("META-INF/", Glob.compile(new String[] { "META-INF/*.MF" }, null).prefix());
+		assertEquals("META-INF/maven/", Glob.compile(new String[] { "META-INF/maven/" }, null).prefix());
+		assertEquals("META-INF/", Glob.compile(new String[] { "META-INF/*.MF", "META-INF/services/**" }, null).prefix());
+		assertEquals("com/example/a", Glob.compile(new String[] { "/com/example/a?.class" }, null).prefix());
+		assertEquals("a.txt", Glob.compile(new String[] { "a.txt" }, null).prefix());
+		assertEquals("", Glob.compile(new String[] { "*MANIFEST.MF" }, null).prefix());
+		assertEquals("", Glob.compile(new String[] { "META-INF/*", "lib/*" }, null).prefix());
+		assertEquals("", Glob.compile(null, new String[] { "x/" }).prefix());
+		assertEquals("", Glob.compile(new String[] { "" }, null).prefix());
+	}
+
+	private static Glob glob(final String include) {
+		return Glob.compile(new String[] { include }, null);
+	}
+
+}
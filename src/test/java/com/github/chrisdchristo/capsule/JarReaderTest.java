@@ -0,0 +1,203 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class JarReaderTest {
+
+	private static final long TIME = 1577934246000L;
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void copiesDataDescriptorEntriesVerbatim() throws IOException {
+		// ZipOutputStream writes the crc and sizes of deflated entries in a data descriptor after the content
+		final Map<String, byte[]> contents = new LinkedHashMap<>();
+		contents.put("a/", new byte[0]);
+		contents.put("a/deflated.txt", repeat("deflated content ", 500));
+		contents.put("a/stored.bin", repeat("stored", 100));
+		contents.put("a/empty.txt", new byte[0]);
+		final File source = folder.newFile();
+		try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source))) {
+			for (final Map.Entry<String, byte[]> content : contents.entrySet()) {
+				final ZipEntry entry = new ZipEntry(content.getKey());
+				if (content.getKey().endsWith(".bin")) {
+					entry.setMethod(ZipEntry.STORED);
+					entry.setSize(content.getValue().length);
+					entry.setCrc(crc(content.getValue()));
+				}
+				out.putNextEntry(entry);
+				out.write(content.getValue());
+				out.closeEntry();
+			}
+		}
+
+		try (final JarReader reader = new JarReader(source)) {
+			for (final JarReader.Entry entry : reader.entries())
+				if (entry.method == ZipEntry.DEFLATED && !entry.isDirectory())
+					assertEquals("data descriptor", 0x08, entry.flags & 0x08);
+		}
+		assertCopiedVerbatim(source, contents);
+	}
+
+	@Test
+	public void copiesZip64EntriesVerbatim() throws IOException {
+		final byte[] content = "hello zip64".getBytes("UTF-8");
+		final File source = folder.newFile();
+		Files.write(source.toPath(), zip64Jar("big.txt", content));
+		try (final ZipFile zip = new ZipFile(source)) { // a valid zip64 file to begin with
+			assertEquals(content.length, zip.getEntry("big.txt").getSize());
+		}
+
+		try (final JarReader reader = new JarReader(source)) {
+			final JarReader.Entry entry = reader.entries().iterator().next();
+			assertEquals(content.length, entry.size);
+			assertEquals(content.length, entry.compressedSize);
+			assertEquals(0, entry.localHeaderOffset);
+		}
+		assertCopiedVerbatim(source, Collections.singletonMap("big.txt", content));
+	}
+
+	@Test
+	public void copiesFromZip64EndOfCentralDirectory() throws IOException {
+		// past 0xFFFF entries the count (and so the central directory) is only in the zip64 end record
+		final Map<String, byte[]> contents = new LinkedHashMap<>();
+		for (int i = 0; i < 0x10001; i++)
+			contents.put("e" + i, i % 1000 == 0 ? repeat("entry " + i + " ", 50) : new byte[0]);
+		final File source = folder.newFile();
+		try (final ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(source)))) {
+			for (final Map.Entry<String, byte[]> content : contents.entrySet()) {
+				out.putNextEntry(new ZipEntry(content.getKey()));
+				out.write(content.getValue());
+				out.closeEntry();
+			}
+		}
+
+		try (final JarReader reader = new JarReader(source)) {
+			int count = 0;
+			for (final JarReader.Entry ignored : reader.entries())
+				count++;
+			assertEquals(contents.size(), count);
+		}
+		assertCopiedVerbatim(source, contents);
+	}
+
+	@Test
+	public void entriesWithPrefix() throws IOException {
+		final File source = folder.newFile();
+		try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(source))) {
+			for (final String name : Arrays.asList("META-INF/MANIFEST.MF", "a/b.class", "a/c.class", "ab.txt", "b/a.class")) {
+				out.putNextEntry(new ZipEntry(name));
+				out.closeEntry();
+			}
+		}
+		try (final JarReader reader = new JarReader(source)) {
+			final List<String> names = new ArrayList<>();
+			for (final JarReader.Entry entry : reader.entries("a/"))
+				names.add(entry.getName());
+			assertEquals(Arrays.asList("a/b.class", "a/c.class"), names);
+		}
+	}
+
+	// HELPERS
+
+	// copies every entry (both ways JarWriter takes raw entries), and checks the records and content are the same
+	private void assertCopiedVerbatim(final File source, final Map<String, byte[]> contents) throws IOException {
+		final File copied = folder.newFile();
+		final File read = folder.newFile();
+		try (final JarReader reader = new JarReader(source);
+			 final JarWriter copy = new JarWriter(new FileOutputStream(copied), new Compression(), 2, TIME);
+			 final JarWriter raw = new JarWriter(new FileOutputStream(read), new Compression(), 2, TIME)) {
+			for (final JarReader.Entry entry : reader.entries()) {
+				assertTrue(entry.isCopyable());
+				copy.add(entry.getName(), reader, entry);
+				raw.add(entry.getName(), entry, reader.read(entry));
+			}
+		}
+
+		for (final File target : Arrays.asList(copied, read)) {
+			try (final JarReader sourceReader = new JarReader(source); final JarReader targetReader = new JarReader(target)) {
+				final Iterator<JarReader.Entry> targetEntries = targetReader.entries().iterator();
+				for (final JarReader.Entry entry : sourceReader.entries()) {
+					final JarReader.Entry copy = targetEntries.next();
+					assertEquals(entry.getName(), copy.getName());
+					assertEquals(entry.getName(), entry.method, copy.method);
+					assertEquals(entry.getName(), entry.crc, copy.crc);
+					assertEquals(entry.getName(), entry.size, copy.size);
+					assertEquals(entry.getName(), entry.compressedSize, copy.compressedSize);
+					assertArrayEquals(entry.getName(), sourceReader.read(entry), targetReader.read(copy));
+					assertEquals(0, copy.flags & 0x08); // the sizes are known up front, no data descriptor
+				}
+				assertFalse(targetEntries.hasNext());
+			}
+			try (final ZipFile zip = new ZipFile(target)) { // inflated and crc checked by the jdk
+				assertEquals(contents.size(), zip.size());
+				for (final Map.Entry<String, byte[]> content : contents.entrySet())
+					try (final InputStream in = zip.getInputStream(zip.getEntry(content.getKey()))) {
+						assertArrayEquals(content.getKey(), content.getValue(), readAll(in));
+					}
+			}
+		}
+	}
+
+	// a jar of a single stored entry whose sizes and offset are all in zip64 extra fields
+	private static byte[] zip64Jar(final String name, final byte[] content) throws IOException {
+		final byte[] nameBytes = name.getBytes("UTF-8");
+		final ByteBuffer zip = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		zip.putInt(0x04034b50).putShort((short) 45).putShort((short) 0).putShort((short) ZipEntry.STORED).putInt(0)
+				.putInt((int) crc(content)).putInt(-1).putInt(-1)
+				.putShort((short) nameBytes.length).putShort((short) 20).put(nameBytes)
+				.putShort((short) 1).putShort((short) 16).putLong(content.length).putLong(content.length)
+				.put(content);
+		final int directory = zip.position();
+		zip.putInt(0x02014b50).putShort((short) 45).putShort((short) 45).putShort((short) 0).putShort((short) ZipEntry.STORED).putInt(0)
+				.putInt((int) crc(content)).putInt(-1).putInt(-1)
+				.putShort((short) nameBytes.length).putShort((short) 28).putShort((short) 0)
+				.putShort((short) 0).putShort((short) 0).putInt(0).putInt(-1).put(nameBytes)
+				.putShort((short) 1).putShort((short) 24).putLong(content.length).putLong(content.length).putLong(0);
+		final int zip64End = zip.position();
+		zip.putInt(0x06064b50).putLong(44).putShort((short) 45).putShort((short) 45).putInt(0).putInt(0)
+				.putLong(1).putLong(1).putLong(zip64End - directory).putLong(directory);
+		zip.putInt(0x07064b50).putInt(0).putLong(zip64End).putInt(1);
+		zip.putInt(0x06054b50).putShort((short) 0).putShort((short) 0).putShort((short) -1).putShort((short) -1)
+				.putInt(-1).putInt(-1).putShort((short) 0);
+		return Arrays.copyOf(zip.array(), zip.position());
+	}
+
+	private static byte[] repeat(final String s, final int times) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < times; i++)
+			out.write(s.getBytes("UTF-8"));
+		return out.toByteArray();
+	}
+
+	private static long crc(final byte[] data) {
+		final CRC32 crc = new CRC32();
+		crc.update(data, 0, data.length);
+		return crc.getValue();
+	}
+
+	private static byte[] readAll(final InputStream in) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) != -1)
+			out.write(buffer, 0, read);
+		return out.toByteArray();
+	}
+
+}
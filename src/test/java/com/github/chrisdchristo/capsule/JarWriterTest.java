@@ -0,0 +1,330 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.*;
+
+public class JarWriterTest {
+
+	private static final String EXEC_PREFIX = "#!/bin/sh\n\nexec java -jar \"$0\" \"$@\"\n\n";
+	private static final String EXEC_TRAMPOLINE_PREFIX = "#!/bin/sh\n\nexec java -Dcapsule.trampoline -jar \"$0\" \"$@\"\n\n";
+	private static final byte[] MANIFEST = "Manifest-Version: 1.0\r\nMain-Class: Capsule\r\n\r\n".getBytes();
+	private static final long TIME = 1577934246000L; // 2020-01-02T03:04:06Z
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void variantsWithAPrefixOpen() throws IOException {
+		for (final boolean writeBehind : new boolean[] { false, true }) {
+			final File jar = folder.newFile();
+			final File x = folder.newFile();
+			final File tx = folder.newFile();
+			try (final JarWriter writer = new JarWriter(new FileOutputStream(jar), new Compression(), 4, TIME)) {
+				writer.addVariant(new FileOutputStream(x), EXEC_PREFIX.getBytes("ASCII"));
+				writer.addVariant(new FileOutputStream(tx), EXEC_TRAMPOLINE_PREFIX.getBytes("ASCII"));
+				if (writeBehind) writer.writeBehind(8 * 1024, 4);
+				addEntries(writer, folder.newFolder());
+			}
+
+			assertEquals(jar.length() + EXEC_PREFIX.length(), x.length());
+			assertEquals(jar.length() + EXEC_TRAMPOLINE_PREFIX.length(), tx.length());
+			assertTrue(new String(Files.readAllBytes(x.toPath()), "ASCII").startsWith(EXEC_PREFIX));
+			for (final File file : Arrays.asList(jar, x, tx)) {
+				try (final JarFile jarFile = new JarFile(file)) {
+					assertEquals("Capsule", jarFile.getManifest().getMainAttributes().getValue("Main-Class"));
+					assertEntries(jarFile);
+				}
+				try (final JarReader reader = new JarReader(file)) {
+					for (final JarReader.Entry entry : reader.entries())
+						try (final InputStream in = reader.open(entry)) {
+							assertEquals(entry.size, drain(in));
+						}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void entryOrderIsDeterministic() throws IOException {
+		final File files = folder.newFolder();
+		byte[] expected = null;
+		for (final int threads : new int[] { 1, 2, 8 }) {
+			for (final boolean writeBehind : new boolean[] { false, true }) {
+				final File jar = folder.newFile();
+				try (final JarWriter writer = new JarWriter(new FileOutputStream(jar), new Compression(), threads, TIME)) {
+					if (writeBehind) writer.writeBehind(8 * 1024, 2);
+					addEntries(writer, files);
+				}
+				final byte[] bytes = Files.readAllBytes(jar.toPath());
+				if (expected == null) expected = bytes;
+				else assertArrayEquals("threads=" + threads + " writeBehind=" + writeBehind, expected, bytes);
+				try (final ZipFile zip = new ZipFile(jar)) {
+					assertEquals(entryNames(), names(zip));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void zip64SizesFromThreshold() throws IOException {
+		final long[] sizes = { 0xFFFFFFFEL, 0xFFFFFFFFL, 5L * 1024 * 1024 * 1024 };
+		final File jar = folder.newFile();
+		try (final JarWriter writer = new JarWriter(new FileOutputStream(jar), new Compression(), 1, TIME)) {
+			for (final long size : sizes) {
+				// only the sizes of the source are copied, the content itself is never read back
+				final JarReader.Entry source = new JarReader.Entry();
+				source.method = ZipEntry.DEFLATED;
+				source.size = size;
+				source.crc = 0;
+				writer.add("entry-" + size, source, new byte[] { 3, 0 });
+			}
+		}
+
+		try (final ZipFile zip = new ZipFile(jar)) {
+			for (final long size : sizes)
+				assertEquals(size, zip.getEntry("entry-" + size).getSize());
+		}
+		try (final JarReader reader = new JarReader(jar)) {
+			int i = 0;
+			for (final JarReader.Entry entry : reader.entries()) {
+				assertEquals(sizes[i++], entry.size);
+				assertEquals(2, entry.compressedSize);
+			}
+			assertEquals(sizes.length, i);
+		}
+		final byte[] bytes = Files.readAllBytes(jar.toPath());
+		assertEquals(20, versionNeeded(bytes, 0)); // 0xFFFFFFFE fits the header
+		assertTrue(versionNeeded(bytes, 1) >= 45);
+		assertTrue(versionNeeded(bytes, 2) >= 45);
+		assertFalse(hasZip64End(bytes));
+	}
+
+	@Test
+	public void zip64EndFromEntryCount() throws IOException {
+		for (final int count : new int[] { 0xFFFE, 0xFFFF }) {
+			final File jar = folder.newFile();
+			try (final JarWriter writer = new JarWriter(new BufferedOutputStream(new FileOutputStream(jar)), new Compression(), 1, TIME)) {
+				for (int i = 0; i < count; i++)
+					writer.add("e" + i, new byte[0]);
+			}
+
+			assertEquals(count == 0xFFFF, hasZip64End(Files.readAllBytes(jar.toPath())));
+			try (final ZipFile zip = new ZipFile(jar)) {
+				assertEquals(count, zip.size());
+			}
+			try (final JarReader reader = new JarReader(jar)) {
+				int read = 0;
+				for (final JarReader.Entry ignored : reader.entries())
+					read++;
+				assertEquals(count, read);
+			}
+		}
+	}
+
+	@Test
+	public void outputTimestampIsTheDosTimeInUtc() throws IOException {
+		final TimeZone timeZone = TimeZone.getDefault();
+		try {
+			TimeZone.setDefault(TimeZone.getTimeZone("America/Los_Angeles")); // not used for a fixed time
+			assertEquals(dosTime(2020, 1, 2, 3, 4, 6), entryTime(TIME));
+			assertEquals(dosTime(2020, 1, 2, 3, 4, 6), entryTime(TIME + 1999)); // dos time has a 2s resolution
+			assertEquals(dosTime(1980, 1, 1, 0, 0, 0), entryTime(0L)); // before dos time
+		} finally {
+			TimeZone.setDefault(timeZone);
+		}
+	}
+
+	@Test
+	public void closeTwice() throws IOException {
+		final File jar = folder.newFile();
+		final JarWriter writer = new JarWriter(new FileOutputStream(jar), new Compression(), 2, TIME);
+		writer.writeBehind(8 * 1024, 2);
+		writer.add("a", new byte[] { 1 });
+		writer.close();
+		final long length = jar.length();
+		writer.close();
+		assertEquals(length, jar.length());
+		try (final ZipFile zip = new ZipFile(jar)) {
+			assertEquals(1, zip.size());
+		}
+	}
+
+	@Test(timeout = 60_000)
+	public void writerThreadErrorsFailTheWrite() throws IOException {
+		final OutputStream broken = new OutputStream() {
+			@Override
+			public void write(final int b) {
+				throw new LinkageError("broken");
+			}
+		};
+		final JarWriter writer = new JarWriter(broken, new Compression(), 1, TIME);
+		writer.writeBehind(8 * 1024, 1);
+		final byte[] data = new byte[64 * 1024];
+		new Random(42).nextBytes(data); // stored, so many more bytes than the queued buffers hold
+		IOException failure = null;
+		try {
+			for (int i = 0; i < 100; i++)
+				writer.add("e" + i, data);
+		} catch (final IOException e) {
+			failure = e;
+		}
+		try {
+			writer.close();
+		} catch (final IOException e) {
+			if (failure == null) failure = e;
+		}
+		assertNotNull(failure);
+		Throwable cause = failure;
+		while (cause.getCause() != null)
+			cause = cause.getCause();
+		assertEquals("broken", cause.getMessage());
+	}
+
+	@Test
+	public void largeEntriesAreDeflatedThroughATempFile() throws IOException {
+		final byte[] large = new byte[(int) JarWriter.SPILL_SIZE + 1];
+		for (int i = 0; i < large.length; i++)
+			large[i] = (byte) ('a' + i % 7);
+		final File file = folder.newFile();
+		Files.write(file.toPath(), large);
+		final Set<String> spills = spills();
+		for (final boolean writeBehind : new boolean[] { false, true }) {
+			final File jar = folder.newFile();
+			try (final JarWriter writer = new JarWriter(new FileOutputStream(jar), new Compression(), 2, TIME)) {
+				if (writeBehind) writer.writeBehind(8 * 1024, 2);
+				writer.add("large-file.txt", file);
+				writer.add("small.txt", "small".getBytes());
+				writer.add("large-data.txt", large);
+			}
+
+			assertEquals(spills, spills()); // deleted once written
+			try (final ZipFile zip = new ZipFile(jar)) {
+				for (final String name : Arrays.asList("large-file.txt", "large-data.txt")) {
+					final ZipEntry entry = zip.getEntry(name);
+					assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+					assertTrue(entry.getCompressedSize() < large.length / 10);
+					try (final InputStream in = zip.getInputStream(entry)) {
+						assertEquals(large.length, drain(in)); // and the crc is checked when the stream ends
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void tempFilesAreDeletedOnAFailure() throws IOException {
+		final File file = folder.newFile();
+		Files.write(file.toPath(), new byte[(int) JarWriter.SPILL_SIZE]);
+		final Set<String> spills = spills();
+		final JarWriter writer = new JarWriter(new FileOutputStream(folder.newFile()), new Compression(), 2, TIME);
+		writer.add("large.txt", file);
+		try {
+			writer.add("missing.txt", new File(folder.getRoot(), "missing"));
+			fail();
+		} catch (final FileNotFoundException e) {
+			writer.close();
+		}
+		assertEquals(spills, spills());
+	}
+
+	// HELPERS
+
+	private static Set<String> spills() {
+		final Set<String> spills = new TreeSet<>();
+		final String[] names = new File(System.getProperty("java.io.tmpdir")).list();
+		for (final String name : names != null ? names : new String[0])
+			if (name.startsWith("capsule-") && name.endsWith(".deflated")) spills.add(name);
+		return spills;
+	}
+
+	private static List<String> entryNames() {
+		final List<String> names = new ArrayList<>();
+		names.add("META-INF/MANIFEST.MF");
+		names.add("dir/");
+		for (int i = 0; i < 40; i++)
+			names.add("dir/file-" + i + (i % 3 == 0 ? ".class" : i % 3 == 1 ? ".bin" : ".txt"));
+		names.add("data");
+		return names;
+	}
+
+	// entries of very different sizes (so they aren't compressed in the order they were added), of every kind
+	private static void addEntries(final JarWriter writer, final File dir) throws IOException {
+		final Random random = new Random(42);
+		writer.add("META-INF/MANIFEST.MF", MANIFEST);
+		writer.addDirectory("dir");
+		for (int i = 0; i < 40; i++) {
+			final String name = "dir/file-" + i + (i % 3 == 0 ? ".class" : i % 3 == 1 ? ".bin" : ".txt");
+			final byte[] data = new byte[(i * 7919) % 200_000];
+			if (name.endsWith(".bin")) random.nextBytes(data); // incompressible, stored
+			else Arrays.fill(data, (byte) ('a' + i % 26));
+			final File file = new File(dir, "file-" + i);
+			if (!file.exists()) Files.write(file.toPath(), data);
+			writer.add(name, file);
+		}
+		writer.add("data", "some data".getBytes());
+	}
+
+	private static void assertEntries(final ZipFile zip) throws IOException {
+		assertEquals(entryNames(), names(zip));
+		for (final ZipEntry entry : Collections.list(zip.entries()))
+			try (final InputStream in = zip.getInputStream(entry)) {
+				assertEquals(entry.getSize(), drain(in)); // and the crc is checked when the stream ends
+			}
+	}
+
+	private static List<String> names(final ZipFile zip) {
+		final List<String> names = new ArrayList<>();
+		for (final ZipEntry entry : Collections.list(zip.entries()))
+			names.add(entry.getName());
+		return names;
+	}
+
+	private static long drain(final InputStream in) throws IOException {
+		final byte[] buffer = new byte[8192];
+		long size = 0;
+		int read;
+		while ((read = in.read(buffer)) != -1)
+			size += read;
+		return size;
+	}
+
+	private int entryTime(final long time) throws IOException {
+		final File jar = folder.newFile();
+		try (final JarWriter writer = new JarWriter(new FileOutputStream(jar), new Compression(), 1, time)) {
+			writer.add("a", new byte[] { 1 });
+		}
+		try (final JarReader reader = new JarReader(jar)) {
+			return reader.entries().iterator().next().time;
+		}
+	}
+
+	private static int dosTime(final int year, final int month, final int day, final int hour, final int minute, final int second) {
+		return (year - 1980) << 25 | month << 21 | day << 16 | hour << 11 | minute << 5 | second >> 1;
+	}
+
+	// the version needed to extract of the n-th local header
+	private static int versionNeeded(final byte[] bytes, final int n) {
+		int found = 0;
+		for (int i = 0; i + 4 < bytes.length; i++)
+			if (bytes[i] == 'P' && bytes[i + 1] == 'K' && bytes[i + 2] == 3 && bytes[i + 3] == 4 && found++ == n)
+				return bytes[i + 4] & 0xff;
+		throw new AssertionError("No local header " + n);
+	}
+
+	private static boolean hasZip64End(final byte[] bytes) {
+		for (int i = bytes.length - 22; i >= 0 && i > bytes.length - 22 - 20 - 56 - 1; i--)
+			if (bytes[i] == 'P' && bytes[i + 1] == 'K' && bytes[i + 2] == 6 && bytes[i + 3] == 6) return true;
+		return false;
+	}
+
+}
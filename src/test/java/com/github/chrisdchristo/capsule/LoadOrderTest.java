@@ -0,0 +1,123 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+
+public class LoadOrderTest {
+
+	private static final LoadOrder.Key<File> FILE = new LoadOrder.Key<File>() {
+		@Override
+		public File file(final File file) {
+			return file;
+		}
+	};
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void jarsLoadedFromFirstAhead() throws IOException {
+		final File a = jar("a.jar", "a/A.class");
+		final File b = jar("b.jar", "b/B.class");
+		final File c = jar("c.jar", "c/C.class");
+		final LoadOrder order = read("c/C", "c.jar", "a/A", "a.jar");
+		assertEquals(Arrays.asList(c, a, b), order.sort(Arrays.asList(a, b, c), FILE));
+	}
+
+	@Test
+	public void jarsSharingAnEntryKeepTheirOrder() throws IOException {
+		final File a = jar("a.jar", "x/Shared.class", "a/A.class");
+		final File b = jar("b.jar", "x/Shared.class", "b/B.class");
+		final File c = jar("c.jar", "c/C.class");
+		final LoadOrder order = read("b/B", "b.jar", "c/C", "c.jar");
+		// b can't go ahead of a (x/Shared would be loaded from b), so a takes on its rank
+		assertEquals(Arrays.asList(a, b, c), order.sort(Arrays.asList(c, a, b), FILE));
+	}
+
+	@Test
+	public void unreadableJarsStayInPlace() throws IOException {
+		final File a = jar("a.jar", "a/A.class");
+		final File missing = new File(folder.getRoot(), "missing.jar");
+		final File b = jar("b.jar", "b/B.class");
+		final LoadOrder order = read("b/B", "b.jar");
+		assertEquals(Arrays.asList(a, missing, b), order.sort(Arrays.asList(a, missing, b), FILE));
+	}
+
+	@Test
+	public void theOrderOfTheSameJarsIsWorkedOutOnce() throws IOException {
+		final File a = jar("a.jar", "x/Shared.class");
+		final File b = jar("b.jar", "x/Shared.class", "b/B.class");
+		final File c = jar("c.jar", "c/C.class");
+		final LoadOrder order = read("c/C", "c.jar", "b/B", "b.jar");
+		final List<File> sorted = order.sort(Arrays.asList(a, b, c), FILE);
+		assertEquals(Arrays.asList(c, a, b), sorted);
+
+		// with the jars gone, they would be unreadable (and so kept in place) if they were read again
+		for (final File jar : Arrays.asList(a, b, c))
+			Files.delete(jar.toPath());
+		assertEquals(sorted, order.sort(new LinkedHashSet<>(Arrays.asList(a, b, c)), FILE));
+		// other items for the same jars
+		assertEquals(Arrays.asList("c", "a", "b"), order.sort(Arrays.asList("a", "b", "c"), new LoadOrder.Key<String>() {
+			@Override
+			public File file(final String name) {
+				return new File(folder.getRoot(), name + ".jar");
+			}
+		}));
+		// but another set of jars is worked out on its own
+		assertEquals(Arrays.asList(a, b), order.sort(Arrays.asList(a, b), FILE));
+	}
+
+	@Test
+	public void entriesLoadedFirstAhead() throws IOException {
+		final LoadOrder order = read("b/B", "app.jar", "a/A", "app.jar");
+		assertEquals(Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "b/B.class", "a/A.class", "a/", "c/C.class"),
+				order.sortEntries(Arrays.asList("META-INF/", "a/", "a/A.class", "b/B.class", "c/C.class", "META-INF/MANIFEST.MF")));
+	}
+
+	@Test
+	public void readsJava8AndLaterLogs() throws IOException {
+		final File log = folder.newFile();
+		Files.write(log.toPath(), Arrays.asList(
+				"[Loaded java.lang.Object from /usr/lib/jvm/java-8/jre/lib/rt.jar]",
+				"[Loaded a.A from file:" + folder.getRoot() + "/a.jar]",
+				"[0.010s][info][class,load] b.B source: file:" + folder.getRoot() + "/b.jar",
+				"[0.011s][info][class,load] c.C source: file:" + folder.getRoot() + "/classes/",
+				"[0.012s][info][class,load] java.lang.String source: jrt:/java.base",
+				"some output of the app"), StandardCharsets.UTF_8);
+		final LoadOrder order = LoadOrder.read(log);
+		assertEquals(2, order.jars());
+		assertEquals(2, order.classes());
+	}
+
+	private File jar(final String name, final String... entries) throws IOException {
+		final File jar = new File(folder.getRoot(), name);
+		try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+			for (final String entry : entries) {
+				out.putNextEntry(new ZipEntry(entry));
+				out.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+	// the log of a training run loading the classes (by internal name) from the jars, in pairs
+	private LoadOrder read(final String... loaded) throws IOException {
+		final List<String> lines = new ArrayList<>();
+		for (int i = 0; i < loaded.length; i += 2)
+			lines.add("[Loaded " + loaded[i].replace('/', '.') + " from file:" + new File(folder.getRoot(), loaded[i + 1]).getPath() + "]");
+		final File log = folder.newFile();
+		Files.write(log.toPath(), lines, StandardCharsets.UTF_8);
+		return LoadOrder.read(log);
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OutputTimestampTest {
+
+	@Test
+	public void none() {
+		assertNull(outputTime(null));
+		assertNull(outputTime(""));
+		assertNull(outputTime("1")); // the default of an inherited property
+	}
+
+	@Test
+	public void isoDateTime() {
+		assertEquals(Long.valueOf(1577836800000L), outputTime("2020-01-01T00:00:00Z"));
+		assertEquals(Long.valueOf(1577836800000L), outputTime(" 2020-01-01T01:00:00+01:00 "));
+		assertEquals(Long.valueOf(1577836800123L), outputTime("2020-01-01T00:00:00.123Z"));
+	}
+
+	@Test
+	public void secondsSinceTheEpoch() {
+		assertEquals(Long.valueOf(1577836800000L), outputTime("1577836800"));
+	}
+
+	@Test
+	public void trailingTextIsRejected() {
+		assertInvalid("2020-01-01T00:00:00Zjunk");
+		assertInvalid("2020-01-01T00:00:00Z 2021");
+		assertInvalid("2020-01-01T00:00:00.123Zjunk");
+	}
+
+	@Test
+	public void invalidDatesAreRejected() {
+		assertInvalid("2020-13-01T00:00:00Z"); // not rolled over into the next year
+		assertInvalid("2020-01-01T00:00:00"); // no offset
+		assertInvalid("2020-01-01");
+		assertInvalid("yesterday");
+		assertInvalid("99999999999999999999"); // too many seconds
+	}
+
+	private static Long outputTime(final String outputTimestamp) {
+		final CapsuleMojo mojo = new CapsuleMojo();
+		mojo.outputTimestamp = outputTimestamp;
+		return mojo.outputTime();
+	}
+
+	private static void assertInvalid(final String outputTimestamp) {
+		try {
+			fail("Accepted " + outputTimestamp + " as " + outputTime(outputTimestamp));
+		} catch (final IllegalArgumentException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("'" + outputTimestamp + "'"));
+		}
+	}
+
+}
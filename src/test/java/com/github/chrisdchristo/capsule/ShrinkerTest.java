@@ -0,0 +1,193 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+public class ShrinkerTest {
+
+	private static final String[][] SOURCES = {
+			{ "app/Main", "package app; public class Main { public static void main(String[] args) { new lib.Used(); } }" },
+			{ "lib/Used", "package lib; public class Used { lib.Field field; Object reflected() throws Exception { return Class.forName(\"lib.Reflected\"); } }" },
+			{ "lib/Field", "package lib; public class Field { java.util.List<lib.Generic> generics; }" },
+			{ "lib/Generic", "package lib; public class Generic {}" },
+			{ "lib/Reflected", "package lib; public class Reflected {}" },
+			{ "lib/Unused", "package lib; public class Unused { lib.UnusedToo unused; }" },
+			{ "lib/UnusedToo", "package lib; public class UnusedToo {}" },
+			{ "lib/Service", "package lib; public interface Service {}" },
+			{ "lib/ServiceImpl", "package lib; public class ServiceImpl implements Service { lib.ServiceHelper helper; }" },
+			{ "lib/ServiceHelper", "package lib; public class ServiceHelper {}" },
+			{ "lib/Hinted", "package lib; public class Hinted {}" },
+			{ "lib/KeptOne", "package lib; public class KeptOne { lib.KeptReference reference; }" },
+			{ "lib/KeptReference", "package lib; public class KeptReference {}" },
+	};
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	private File classes;
+
+	@Before
+	public void compile() throws IOException {
+		final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assumeNotNull(compiler); // not a jdk
+		final File sources = folder.newFolder("sources");
+		classes = folder.newFolder("classes");
+		final List<String> args = new ArrayList<>(Arrays.asList("-d", classes.getPath()));
+		for (final String[] source : SOURCES) {
+			final File file = new File(sources, source[0] + ".java");
+			Files.createDirectories(file.getParentFile().toPath());
+			Files.write(file.toPath(), source[1].getBytes("UTF-8"));
+			args.add(file.getPath());
+		}
+		assertEquals(0, compiler.run(null, null, null, args.toArray(new String[0])));
+	}
+
+	@Test
+	public void referencesInTheConstantPoolAreReachable() throws IOException {
+		final File lib = jar("lib.jar", Collections.<String, String>emptyMap());
+		try (final Shrinker shrinker = new Shrinker()) {
+			shrinker.addJar(lib, false);
+			shrinker.rootApp(appDir());
+			shrinker.analyze();
+
+			assertTrue(shrinker.shrinks(lib));
+			assertTrue(shrinker.keeps("lib/Used.class")); // a class of the app's
+			assertTrue(shrinker.keeps("lib/Field.class")); // a field descriptor
+			assertTrue(shrinker.keeps("lib/Generic.class")); // a signature
+			assertTrue(shrinker.keeps("lib/Reflected.class")); // a string naming a class
+			assertFalse(shrinker.keeps("lib/Unused.class"));
+			assertFalse(shrinker.keeps("lib/UnusedToo.class"));
+			assertFalse(shrinker.keeps("lib/ServiceImpl.class"));
+			assertFalse(shrinker.keeps("lib/KeptOne.class"));
+
+			// anything but classes is kept
+			assertTrue(shrinker.keeps("META-INF/MANIFEST.MF"));
+			assertTrue(shrinker.keeps("lib/config.properties"));
+			assertTrue(shrinker.keeps("lib/package-info.class"));
+			assertTrue(shrinker.keeps("module-info.class"));
+			assertEquals(12, shrinker.classes());
+			assertEquals(4, shrinker.reachable());
+		}
+	}
+
+	@Test
+	public void appJarsAreRootsToo() throws IOException {
+		final File lib = jar("lib.jar", Collections.<String, String>emptyMap());
+		final File app = jar("app.jar", Collections.<String, String>emptyMap(), "app/");
+		try (final Shrinker shrinker = new Shrinker()) {
+			shrinker.addJar(lib, false);
+			shrinker.rootApp(app);
+			shrinker.analyze();
+			assertTrue(shrinker.keeps("lib/Reflected.class"));
+			assertFalse(shrinker.keeps("lib/Unused.class"));
+		}
+	}
+
+	@Test
+	public void serviceProvidersAndReflectionHintsAreRoots() throws IOException {
+		final Map<String, String> resources = new HashMap<>();
+		resources.put("META-INF/services/lib.Service", "# providers\nlib.ServiceImpl # the one\n\n");
+		resources.put("META-INF/native-image/lib/reflect-config.json", "[ { \"name\" : \"lib.Hinted\", \"allDeclaredFields\" : true } ]");
+		final File lib = jar("lib.jar", resources);
+		try (final Shrinker shrinker = new Shrinker()) {
+			shrinker.addJar(lib, false);
+			shrinker.analyze();
+			assertTrue(shrinker.keeps("lib/ServiceImpl.class"));
+			assertTrue(shrinker.keeps("lib/ServiceHelper.class")); // referenced by the provider
+			assertTrue(shrinker.keeps("lib/Service.class")); // implemented by the provider
+			assertTrue(shrinker.keeps("lib/Hinted.class"));
+			assertFalse(shrinker.keeps("lib/Used.class"));
+		}
+	}
+
+	@Test
+	public void classesKeptByNameAreRoots() throws IOException {
+		final File lib = jar("lib.jar", Collections.<String, String>emptyMap());
+		try (final Shrinker shrinker = new Shrinker()) {
+			shrinker.addJar(lib, false);
+			shrinker.root(Glob.compile(new String[] { "lib/Kept*" }, null));
+			shrinker.root("lib.Reflected");
+			shrinker.analyze();
+			assertTrue(shrinker.keeps("lib/KeptOne.class"));
+			assertTrue(shrinker.keeps("lib/KeptReference.class"));
+			assertTrue(shrinker.keeps("lib/Reflected.class"));
+			assertFalse(shrinker.keeps("lib/Used.class"));
+		}
+	}
+
+	@Test
+	public void wholeAndSignedJarsAreKept() throws IOException {
+		final File whole = jar("whole.jar", Collections.<String, String>emptyMap());
+		final File signed = jar("signed.jar", Collections.singletonMap("META-INF/SIGNER.SF", "Signature-Version: 1.0\n"));
+		for (final boolean sign : new boolean[] { false, true }) {
+			try (final Shrinker shrinker = new Shrinker()) {
+				final File lib = sign ? signed : whole;
+				shrinker.addJar(lib, !sign);
+				shrinker.analyze();
+				assertFalse(shrinker.shrinks(lib));
+				assertTrue(shrinker.keeps("lib/Unused.class"));
+				assertTrue(shrinker.keeps("lib/UnusedToo.class"));
+				assertEquals(shrinker.classes(), shrinker.reachable());
+			}
+		}
+	}
+
+	@Test
+	public void versionedClassesFollowTheirClass() throws IOException {
+		final File lib = jar("lib.jar", Collections.<String, String>emptyMap());
+		try (final Shrinker shrinker = new Shrinker()) {
+			shrinker.addJar(lib, false);
+			shrinker.root("lib.Used");
+			shrinker.analyze();
+			assertTrue(shrinker.keeps("META-INF/versions/11/lib/Used.class"));
+			assertFalse(shrinker.keeps("META-INF/versions/11/lib/Unused.class"));
+		}
+	}
+
+	// HELPERS
+
+	// the app classes, on their own
+	private File appDir() throws IOException {
+		final File dir = folder.newFolder("app-classes");
+		final File main = new File(dir, "app/Main.class");
+		Files.createDirectories(main.getParentFile().toPath());
+		Files.copy(new File(classes, "app/Main.class").toPath(), main.toPath());
+		return dir;
+	}
+
+	// a jar of the compiled classes under the prefix, and the resources
+	private File jar(final String name, final Map<String, String> resources) throws IOException {
+		return jar(name, resources, "lib/");
+	}
+
+	private File jar(final String name, final Map<String, String> resources, final String prefix) throws IOException {
+		final File jar = new File(folder.getRoot(), name);
+		try (final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+			for (final File file : new File(classes, prefix).listFiles()) {
+				out.putNextEntry(new ZipEntry(prefix + file.getName()));
+				out.write(Files.readAllBytes(file.toPath()));
+				out.closeEntry();
+			}
+			for (final Map.Entry<String, String> resource : resources.entrySet()) {
+				out.putNextEntry(new ZipEntry(resource.getKey()));
+				out.write(resource.getValue().getBytes("UTF-8"));
+				out.closeEntry();
+			}
+		}
+		return jar;
+	}
+
+}
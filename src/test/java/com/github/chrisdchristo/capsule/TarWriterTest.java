@@ -0,0 +1,199 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class TarWriterTest {
+
+	private static final long TIME = 1577934246000L; // 2020-01-02T03:04:06Z
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void shortNamesAreUstarHeaders() throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final TarWriter tar = new TarWriter(out)) {
+			tar.addDirectory("apps", TIME);
+			tar.add("apps/hello.txt", 5, TIME, new ByteArrayInputStream("hello, world".getBytes("UTF-8")));
+		}
+		final byte[] bytes = out.toByteArray();
+		assertEquals(0, bytes.length % 512);
+		assertEquals(512 + 512 + 512 + 2 * 512, bytes.length);
+
+		final List<Header> headers = read(bytes);
+		assertEquals(2, headers.size());
+		assertEquals("apps/", headers.get(0).name);
+		assertEquals('5', headers.get(0).type);
+		assertEquals(0755, headers.get(0).mode);
+		assertEquals("apps/hello.txt", headers.get(1).name);
+		assertEquals('0', headers.get(1).type);
+		assertEquals(0644, headers.get(1).mode);
+		assertEquals("hello", new String(headers.get(1).content, "UTF-8"));
+		for (final Header header : headers) {
+			assertFalse(header.pax);
+			assertEquals(TimeUnit.MILLISECONDS.toSeconds(TIME), header.time);
+			assertEquals("root", header.owner);
+		}
+	}
+
+	@Test
+	public void longNamesHavePaxPathRecords() throws IOException {
+		final String name = "apps/" + repeat("long-directory/", 8) + "file.txt";
+		assertTrue(name.length() > 100);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (final TarWriter tar = new TarWriter(out)) {
+			tar.add(name, 3, TIME, new ByteArrayInputStream("abc".getBytes("UTF-8")));
+		}
+
+		final List<Header> headers = read(out.toByteArray());
+		assertEquals(1, headers.size());
+		assertTrue(headers.get(0).pax);
+		assertEquals(name, headers.get(0).name);
+		assertEquals("abc", new String(headers.get(0).content, "UTF-8"));
+	}
+
+	@Test
+	public void paxRecordLengthsCountThemselves() throws IOException {
+		// names around the lengths where the record length gains a digit
+		for (int length = 101; length < 1100; length++) {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (final TarWriter tar = new TarWriter(out)) {
+				tar.add(repeat("a", length), 0, TIME, new ByteArrayInputStream(new byte[0]));
+			}
+			assertEquals(repeat("a", length), read(out.toByteArray()).get(0).name); // checks each record's length
+		}
+	}
+
+	@Test
+	public void tarExtractsLongNames() throws IOException, InterruptedException {
+		assumeTrue(new File("/usr/bin/tar").canExecute() || new File("/bin/tar").canExecute());
+		final String name = "apps/" + repeat("long-directory/", 8) + "file.txt";
+		final File file = folder.newFile("cache.tar");
+		try (final TarWriter tar = new TarWriter(new FileOutputStream(file))) {
+			tar.addDirectory("apps/", TIME);
+			tar.add(name, 3, TIME, new ByteArrayInputStream("abc".getBytes("UTF-8")));
+		}
+		final File dir = folder.newFolder();
+		final Process process = new ProcessBuilder("tar", "-xf", file.getPath(), "-C", dir.getPath()).redirectErrorStream(true).start();
+		assertEquals(0, process.waitFor());
+
+		final File extracted = new File(dir, name);
+		assertEquals("abc", new String(Files.readAllBytes(extracted.toPath()), "UTF-8"));
+		assertEquals(TIME, extracted.lastModified());
+	}
+
+	@Test(expected = EOFException.class)
+	public void shortContentFails() throws IOException {
+		try (final TarWriter tar = new TarWriter(new ByteArrayOutputStream())) {
+			tar.add("file", 10, TIME, new ByteArrayInputStream(new byte[5]));
+		}
+	}
+
+	@Test
+	public void markerIsNotOlderThanAnyCapsule() throws IOException {
+		final File jar = folder.newFile("app-capsule.jar");
+		assertTrue(jar.setLastModified(TIME));
+		assertEquals(TIME, CapsuleMojo.markerTime(jar)); // already a whole second
+
+		assertTrue(jar.setLastModified(TIME - 500));
+		assertEquals(TIME, CapsuleMojo.markerTime(jar)); // rounded up, as a tar keeps seconds
+
+		final File x = folder.newFile("app-capsule.x");
+		assertTrue(x.setLastModified(TIME + 2000));
+		final File tx = folder.newFile("app-capsule.tx");
+		assertTrue(tx.setLastModified(TIME + 1000));
+		assertEquals(TIME + 2000, CapsuleMojo.markerTime(jar)); // the exec variants are written after the jar
+	}
+
+	// HELPERS
+
+	private static final class Header {
+		String name;
+		String owner;
+		char type;
+		int mode;
+		long time;
+		boolean pax;
+		byte[] content;
+	}
+
+	// the entries of a tar, checking the checksums, pax record lengths and end of archive
+	private static List<Header> read(final byte[] tar) throws IOException {
+		final List<Header> headers = new ArrayList<>();
+		String paxPath = null;
+		int offset = 0;
+		while (true) {
+			assertTrue("no end of archive", offset + 1024 <= tar.length);
+			if (isZero(tar, offset, 1024)) {
+				assertEquals(tar.length, offset + 1024);
+				return headers;
+			}
+			assertEquals("ustar\u000000", new String(tar, offset + 257, 8, "UTF-8"));
+			long checksum = 0;
+			for (int i = 0; i < 512; i++) checksum += i >= 148 && i < 156 ? ' ' : tar[offset + i] & 0xff;
+			assertEquals(checksum, octal(tar, offset + 148, 7));
+
+			final char type = (char) tar[offset + 156];
+			final int size = (int) octal(tar, offset + 124, 11);
+			final byte[] content = Arrays.copyOfRange(tar, offset + 512, offset + 512 + size);
+			if (type == 'x') {
+				final String records = new String(content, "UTF-8");
+				int start = 0;
+				while (start < records.length()) {
+					final int space = records.indexOf(' ', start);
+					final int length = Integer.parseInt(records.substring(start, space));
+					final String record = records.substring(start, start + length);
+					assertTrue(record.endsWith("\n"));
+					assertEquals(length, record.getBytes("UTF-8").length);
+					if (record.startsWith(length + " path=")) paxPath = record.substring((length + " path=").length(), record.length() - 1);
+					start += length;
+				}
+			} else {
+				final Header header = new Header();
+				header.name = paxPath != null ? paxPath : string(tar, offset, 100);
+				header.pax = paxPath != null;
+				header.owner = string(tar, offset + 265, 32);
+				header.type = type;
+				header.mode = (int) octal(tar, offset + 100, 7);
+				header.time = octal(tar, offset + 136, 11);
+				header.content = content;
+				headers.add(header);
+				paxPath = null;
+			}
+			offset += 512 + (size + 511) / 512 * 512;
+		}
+	}
+
+	private static long octal(final byte[] tar, final int offset, final int length) throws IOException {
+		return Long.parseLong(new String(tar, offset, length, "UTF-8").trim(), 8);
+	}
+
+	private static String string(final byte[] tar, final int offset, final int length) throws IOException {
+		int end = offset;
+		while (end < offset + length && tar[end] != 0) end++;
+		return new String(tar, offset, end - offset, "UTF-8");
+	}
+
+	private static boolean isZero(final byte[] bytes, final int offset, final int length) {
+		for (int i = offset; i < offset + length; i++)
+			if (bytes[i] != 0) return false;
+		return true;
+	}
+
+	private static String repeat(final String s, final int times) {
+		final StringBuilder repeated = new StringBuilder();
+		for (int i = 0; i < times; i++) repeated.append(s);
+		return repeated.toString();
+	}
+
+}
@@ -0,0 +1,46 @@
+package com.github.chrisdchristo.capsule;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class VersionCacheTest {
+
+	private static final long TTL = TimeUnit.MINUTES.toMillis(60);
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void freshWithinTheTtl() {
+		final long now = System.currentTimeMillis();
+		assertTrue(new VersionCache.Entry("1.0.3", now - TTL / 2).isFresh(TTL, new Date(now)));
+		assertFalse(new VersionCache.Entry("1.0.3", now - TTL * 2).isFresh(TTL, new Date(now)));
+		assertFalse(new VersionCache.Entry("1.0.3", now - TTL * 2).isFresh(TTL, null));
+	}
+
+	@Test
+	public void freshForTheRestOfTheBuildWhateverTheTtl() {
+		final long now = System.currentTimeMillis();
+		assertTrue(new VersionCache.Entry("1.0.3", now).isFresh(0, new Date(now - 1000)));
+		assertFalse(new VersionCache.Entry("1.0.3", now - 2000).isFresh(0, new Date(now - 1000))); // an earlier build
+	}
+
+	@Test
+	public void inMemoryEntriesExpire() throws IOException {
+		// as in a long-lived jvm, where a later build finds the version still in memory
+		final String key = "test:expire-" + System.nanoTime();
+		VersionCache.put(key, "1.0.3", folder.getRoot());
+		final VersionCache.Entry cached = VersionCache.get(key, folder.getRoot());
+		assertEquals("1.0.3", cached.version);
+		assertTrue(cached.isFresh(TTL, new Date(cached.resolved)));
+		assertFalse(cached.isFresh(0, new Date(cached.resolved + 1)));
+	}
+
+}